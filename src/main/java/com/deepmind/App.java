@@ -1,5 +1,8 @@
 package com.deepmind;
 
+import com.deepmind.util.MetadataStore;
+import com.deepmind.util.NoteIndex;
+import com.deepmind.util.SaveQueue;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -15,6 +18,14 @@ public class App extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // 退出前等排队的笔记写完，再把全文索引和元数据的修改写入磁盘
+        SaveQueue.getInstance().flush(10_000);
+        NoteIndex.getInstance().flushNow();
+        MetadataStore.getInstance().flushNow();
+    }
+
     public static void main(String[] args) {
         launch();
     }
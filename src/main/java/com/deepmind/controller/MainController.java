@@ -1,9 +1,25 @@
 package com.deepmind.controller;
 
+import com.deepmind.util.DocumentModel;
+import com.deepmind.util.DocumentStats;
 import com.deepmind.util.FileUtil;
+import com.deepmind.util.FuzzyMatcher;
+import com.deepmind.util.HeadingIndex;
+import com.deepmind.util.IncrementalRenderer;
+import com.deepmind.util.LinkIndex;
+import com.deepmind.util.NoteCatalog;
 import com.deepmind.util.MarkdownParser;
+import com.deepmind.util.NoteIndex;
 import com.deepmind.util.NoteMetadata;
 import com.deepmind.util.OutlineItem;
+import com.deepmind.util.RenameRefactoring;
+import com.deepmind.util.RenderScheduler;
+import com.deepmind.util.ReviewScheduler;
+import com.deepmind.util.Rope;
+import com.deepmind.util.SaveQueue;
+import com.deepmind.util.TagIndex;
+import com.deepmind.util.VaultGrep;
+import com.deepmind.util.VaultWatcher;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -20,7 +36,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
 @SuppressWarnings("ALL")
@@ -28,9 +43,15 @@ public class MainController {
 
 
     // --- 核心编辑区 ---
-    @FXML private TextArea editorArea;
+    @FXML private SourceEditor editorArea;
     @FXML private WebView webView;
     @FXML private Label wordCountLabel;
+    @FXML private Label saveStatusLabel;
+    @FXML private Label reviewDueLabel;
+
+    // --- 复习模式 ---
+    @FXML private HBox reviewBar;
+    @FXML private Label reviewProgressLabel;
 
     // --- 左侧单栏文件树 ---
     @FXML private TreeView<String> fileTree;
@@ -42,6 +63,13 @@ public class MainController {
     @FXML
     private ListView<OutlineItem> outlineListView;
     @FXML private VBox outlineContainer;
+    // 当前文档的分析模型 (编辑器的正文就存在这里)：行、标题、字数随编辑增量更新，停止输入后统一分发给大纲、字数、预览、查找
+    private DocumentModel documentModel;
+    @FXML private Label backlinksLabel;
+    @FXML private ListView<String> backlinksListView;
+    // 反向链接变化的通知可能连续来很多次 (比如第一次启用时的后台提取)，合并成一次刷新
+    private final java.util.concurrent.atomic.AtomicBoolean backlinksRefreshQueued =
+            new java.util.concurrent.atomic.AtomicBoolean(false);
 
     // --- 整体布局与工具栏 ---
     @FXML private VBox rootContainer;
@@ -55,13 +83,32 @@ public class MainController {
 
     // --- 状态变量 ---
     private String currentNoteTitle = "";
+    // 与磁盘 (或保存队列) 一致时的文档版本号；documentModel.version() 与它不同说明有未保存的修改
+    private long savedVersion = 0;
+    // 停止输入一段时间后自动保存
+    private final javafx.animation.PauseTransition autosaveTimer = new javafx.animation.PauseTransition(javafx.util.Duration.seconds(2));
+    // 所有打开的窗口 ("保存全部打开的文件" 使用)
+    private static final List<MainController> OPEN_WINDOWS = new ArrayList<>();
+    // 复习模式：本轮待复习的笔记、正在复习的笔记、已完成数 / 总数
+    private static final int REVIEW_SESSION_LIMIT = 200;
+    private final java.util.ArrayDeque<String> reviewQueue = new java.util.ArrayDeque<>();
+    private String reviewingTitle = null;
+    private int reviewDone = 0;
+    private int reviewTotal = 0;
     private double lastDividerPosition = 0.2;
 
-    // 用于在 Editor -> Preview 切换时传递滚动位置
-    private double pendingScrollRatio = -1;
+    // 用于在 Editor -> Preview 切换时传递滚动位置 (编辑器视口顶部的源码行，-1 表示回到顶部)
+    private double pendingScrollLine = -1;
 
     //关于查找和搜索
     private int lastSideSearchIndex = 0;
+    // 侧边栏搜索：正文命中的摘要 (笔记名 -> 片段)，用于悬停提示
+    private static final int SIDEBAR_SEARCH_LIMIT = 50;
+    // 标签筛选最多列出的笔记数
+    private static final int TAG_FILTER_LIMIT = 2000;
+    private final java.util.Map<String, String> searchSnippets = new java.util.HashMap<>();
+    // 快速打开最多显示的条数
+    private static final int QUICK_OPEN_LIMIT = 200;
     @FXML
     private VBox editorFindPane;
     @FXML private HBox replaceBox;
@@ -72,18 +119,40 @@ public class MainController {
     private Label lblMatchCount; // 对应 FXML 里的 fx:id
     // 用于记录上一次查找的位置
     private int lastWebSearchIndex = -1;
-    // 在类成员变量位置定义
-    private javafx.animation.PauseTransition debounceTimer = new javafx.animation.PauseTransition(javafx.util.Duration.millis(300));
+    // 停止输入后的分析分发 (大纲、字数、预览、查找共用一次)
+    private final javafx.animation.PauseTransition debounceTimer = new javafx.animation.PauseTransition(javafx.util.Duration.millis(200));
     private java.io.File currentNoteFile;
+
+    // 块级增量预览：外壳页面里已有正文后，后续编辑只推送变化的块
+    private final IncrementalRenderer previewRenderer = new IncrementalRenderer();
+    private boolean previewPageReady = false;
+    // 常驻的预览外壳页面，只加载一次，之后通过 JS 替换正文 / 样式表
+    private PreviewShell previewShell;
+    private NoteTreeModel treeModel;
+
+    // 后台渲染按 documentModel 的版本号丢弃过期结果
+    private final RenderScheduler renderScheduler =
+            new RenderScheduler("preview-render", () -> documentModel.version(), javafx.application.Platform::runLater);
+
+    // 一次后台渲染的产物：补丁 JSON 和整页 HTML 都在工作线程里拼好
+    private record PreviewRender(IncrementalRenderer.Result result, String patchesJson, String fullHtml) {}
     @FXML
     public void initialize() {
+        documentModel = editorArea.getModel();
         FileUtil.initStorage();
+        previewShell = new PreviewShell(webView.getEngine(), new File("notes/").toURI().toString());
+        previewShell.setThemeCss(getThemeRenderCss());
         fileTree.setEditable(true);
+        setupTreeModel();
         refreshFileTree();
         setupTreeSelection();
         setupSearch();
+        setupVaultSync();
+        setupSaveStatus();
+        setupReview();
+        setupEditTracking();
         setupOutline();
-        setupWordCount();
+        setupBacklinks();
         showWelcomePage();
         initContextMenu();         // 编辑区的右键菜单
         initFileTreeContextMenu(); // 文件树的右键菜单
@@ -114,15 +183,9 @@ public class MainController {
                 }
             }
         });
-        // 优化后的监听逻辑
-        editorArea.textProperty().addListener((obs, oldVal, newVal) -> {
-            debounceTimer.stop(); // 关键：先停止之前的计时
-            debounceTimer.setOnFinished(event -> {
-                // 使用 Platform.runLater 确保在 UI 线程平滑渲染
-                javafx.application.Platform.runLater(this::updatePreview);
-            });
-            debounceTimer.playFromStart();
-        });
+        // 计时结束后把渲染交给后台线程，UI 线程只负责最后的 DOM 交接 (文本监听见 setupEditTracking)
+        documentModel.addListener(model -> updatePreview());
+        setupAutosave();
         new Thread(() -> {
             try {
                 // 这种方式不会报错，且能安全地触发 PDFBox 扫描系统字体并建立缓存
@@ -136,80 +199,34 @@ public class MainController {
     }
 
     /**
-     * 核心逻辑：文件树加载
+     * 文件树模型只建一次 (文件夹按需展开)，之后随 NoteCatalog 的变化增量更新 (保存时的重命名、移动、删除、外部修改)
      */
+    private void setupTreeModel() {
+        treeModel = new NoteTreeModel(fileTree);
+        NoteCatalog.getInstance().addListener(changes -> {
+            if (javafx.application.Platform.isFxApplicationThread()) treeModel.apply(changes);
+            else javafx.application.Platform.runLater(() -> treeModel.apply(changes));
+        });
+    }
+
     /**
-     * 核心逻辑升级：支持无限层级文件夹 (A_B_C_Note.md)
+     * 显示文件树 (从搜索结果切回)
+     * 树本身由 NoteTreeModel 随目录变化维护，这里不再重建
      */
     private void refreshFileTree() {
-        TreeItem<String> root = new TreeItem<>("Root");
-
-        try {
-            List<String> allFiles = FileUtil.listAllNotes();
-
-            // 先按字母排序，保证文件夹顺序一致
-            allFiles.sort(String::compareTo);
-
-            for (String fullFileName : allFiles) {
-                // 1. 分割文件名：使用 "_" 分割，但要处理文件名本身可能不包含 _ 的情况
-                // 例如: "A_B_Note.md" -> ["A", "B", "Note.md"]
-                // 这里的逻辑是：只要不是最后一部分，前面的都当做文件夹
-                String[] parts = fullFileName.split("_");
-
-                TreeItem<String> currentParent = root;
-
-                // 2. 遍历路径构建文件夹 (排除最后一部分，那是文件名)
-                for (int i = 0; i < parts.length - 1; i++) {
-                    String folderName = parts[i];
-                    currentParent = findOrCreateChild(currentParent, folderName);
-                }
-
-                // 3. 创建最后的文件节点
-                String simpleFileName = parts[parts.length - 1]; // 纯文件名
-
-                // 使用匿名类重写 toString，让树只显示短名字，但 Value 存长名字(用于读取)
-                TreeItem<String> noteItem = new TreeItem<>(fullFileName) {
-                    @Override public String toString() { return simpleFileName; }
-                };
-
-                currentParent.getChildren().add(noteItem);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (fileTree.getRoot() != treeModel.getRoot()) {
+            fileTree.setRoot(treeModel.getRoot());
         }
-
-        fileTree.setRoot(root);
         fileTree.setShowRoot(false);
     }
 
-    // 辅助方法：在父节点下查找同名文件夹，没有则创建
-    private TreeItem<String> findOrCreateChild(TreeItem<String> parent, String name) {
-        for (TreeItem<String> child : parent.getChildren()) {
-            // 注意：文件夹节点的 Value 此时只存了文件夹名（如 "Java"），而不是全路径
-            // 这与文件节点不同，文件节点存的是 fullFileName
-            if (child.getValue().equals(name) && !child.isLeaf()) {
-                return child;
-            }
-        }
-        // 没找到，创建一个新的文件夹节点
-        TreeItem<String> newFolder = new TreeItem<>(name);
-        newFolder.setExpanded(true); // 默认展开
-        parent.getChildren().add(newFolder);
-
-        // 简单的排序：让文件夹也按字母排
-        parent.getChildren().sort(Comparator.comparing(TreeItem::getValue));
-
-        return newFolder;
-    }
-
     private void setupTreeSelection() {
         fileTree.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
+            if (treeModel.isAdjusting()) return; // 目录变化引起的选中调整，不重新加载
             if (newVal != null && newVal.isLeaf()) {
                 String fileName = newVal.getValue();
 
-                java.io.File f = new java.io.File("notes/" + fileName + ".md");
-
-                if (f.exists() && f.isFile()) {
+                if (NoteCatalog.getInstance().contains(fileName)) {
                     loadNoteContent(fileName);
                 } else {
                     // 如果文件不存在，说明它只是一个刚创建的空文件夹
@@ -266,11 +283,11 @@ public class MainController {
                 // 调用刚才提取的方法
                 boolean handled = performCustomPaste();
 
-                // 如果成功粘贴了图片，就消耗掉事件，防止 TextArea 再去粘贴一遍文件名
+                // 如果成功粘贴了图片，就消耗掉事件，防止编辑器再去粘贴一遍文件名
                 if (handled) {
                     event.consume();
                 }
-                // 如果 handled 为 false，事件会继续传递，TextArea 会自动执行默认的文本粘贴
+                // 如果 handled 为 false，事件会继续传递，编辑器会自动执行默认的文本粘贴
             }
         });
     }
@@ -312,10 +329,19 @@ public class MainController {
     }
 
     private void loadNoteContent(String fileName) {
+        flushIfDirty(); // 切换笔记前先把当前笔记的修改交给保存队列
         try {
             currentNoteTitle = fileName;
-            String content = FileUtil.read(fileName);
+            // 刚保存还没写盘的内容比磁盘上的新
+            String content = SaveQueue.getInstance().pendingContent(fileName);
+            if (content == null) {
+                content = FileUtil.read(fileName);
+                SaveQueue.getInstance().loaded(fileName, content);
+            }
+            invalidatePreviewPage(); // 换了一篇笔记，整页重载并回到顶部
             editorArea.setText(content);
+            markClean();
+            refreshBacklinks();
             if (webView.isVisible()) updatePreview();
         } catch (IOException e) { System.err.println("加载失败: " + e.getMessage()); }
     }
@@ -352,9 +378,8 @@ public class MainController {
         String fullFileName = categoryPrefix + pureName;
 
         try {
-            List<String> existingFiles = FileUtil.listAllNotes();
             int count = 1;
-            while (existingFiles.contains(fullFileName)) {
+            while (NoteCatalog.getInstance().contains(fullFileName)) {
                 pureName = baseName + count;
                 fullFileName = categoryPrefix + pureName;
                 count++;
@@ -391,8 +416,7 @@ public class MainController {
         if (item == null || item.getValue() == null) return false;
         // 我们的逻辑是：文件节点存的是 "A_B_Note"，文件夹节点存的是 "B"
         // 且文件节点通常是叶子节点 (isLeaf)，但文件夹刚创建时也是 leaf，所以得看文件是否存在
-        File f = new File("notes/" + item.getValue() + ".md");
-        return f.exists() && f.isFile();
+        return NoteCatalog.getInstance().contains(item.getValue());
     }
 
     /**
@@ -402,58 +426,132 @@ public class MainController {
         // 确保切回编辑模式（防止当前在预览模式无法编辑）
         handleEditMode();
 
-        // 遍历树寻找新节点
-        if (fileTree.getRoot() == null) return;
-
-        for (TreeItem<String> categoryItem : fileTree.getRoot().getChildren()) {
-            for (TreeItem<String> noteItem : categoryItem.getChildren()) {
-                // 找到刚才创建的文件
-                if (noteItem.getValue().equals(targetFileName)) {
-                    // 1. 展开分类
-                    categoryItem.setExpanded(true);
-
-                    // 2. 选中列表项 (这会自动触发 loadNoteContent)
-                    fileTree.getSelectionModel().select(noteItem);
-
-                    // 3. 延迟一点点，等文件内容加载进 TextArea 后，再进行高亮
-                    javafx.application.Platform.runLater(() -> {
-                        editorArea.requestFocus(); // 聚焦编辑器
-
-                        // 初始内容是 "# 新笔记"
-                        // 我们想选中 "新笔记" 这部分，方便用户直接打字覆盖
-                        // "# " 长度是 2，所以从索引 2 开始选
-                        if (editorArea.getText().startsWith("# " + simpleName)) {
-                            editorArea.selectRange(2, 2 + simpleName.length());
-                        } else {
-                            // 兜底：如果格式不对，就全选第一行
-                            editorArea.positionCaret(0);
-                        }
-                    });
-                    return;
-                }
+        // 选中新节点 (这会自动触发 loadNoteContent)
+        refreshFileTree();
+        if (!treeModel.select(targetFileName)) return;
+
+        // 延迟一点点，等文件内容加载进编辑器后，再进行高亮
+        javafx.application.Platform.runLater(() -> {
+            editorArea.requestFocus(); // 聚焦编辑器
+
+            // 初始内容是 "# 新笔记"
+            // 我们想选中 "新笔记" 这部分，方便用户直接打字覆盖
+            // "# " 长度是 2，所以从索引 2 开始选
+            if (documentModel.text().startsWith("# " + simpleName)) {
+                editorArea.selectRange(2, 2 + simpleName.length());
+            } else {
+                // 兜底：如果格式不对，就全选第一行
+                editorArea.positionCaret(0);
             }
-        }
+        });
     }
 
 
     private void setupSearch() {
         sidebarSearchField.textProperty().addListener((observable, oldValue, newValue) -> {
             if (newValue == null || newValue.trim().isEmpty()) {
+                searchSnippets.clear();
                 refreshFileTree();
                 return;
             }
-            try {
-                TreeItem<String> searchRoot = new TreeItem<>("搜索结果");
-                List<String> allFiles = FileUtil.listAllNotes();
-                for (String file : allFiles) {
-                    if (file.toLowerCase().contains(newValue.toLowerCase())) {
-                        searchRoot.getChildren().add(new TreeItem<>(file));
-                    }
-                }
-                fileTree.setRoot(searchRoot);
-                searchRoot.setExpanded(true);
-            } catch (IOException e) { e.printStackTrace(); }
+            runSidebarSearch(newValue);
+        });
+
+        // 笔记增删改名后，如果正在搜索，只需在内存里重新筛一遍 (不再列目录)
+        // 单纯的内容修改不刷新，避免保存时搜索结果和选中项被重建
+        NoteCatalog.getInstance().addListener(changes -> {
+            if (changes.stream().allMatch(c -> c.type() == NoteCatalog.ChangeType.MODIFIED)) return;
+            javafx.application.Platform.runLater(() -> {
+                String query = sidebarSearchField.getText();
+                if (query != null && !query.trim().isEmpty()) runSidebarSearch(query);
+            });
+        });
+    }
+
+    /**
+     * 响应其他程序对笔记目录的修改 (VaultWatcher 发现后由 NoteCatalog 通知)
+     */
+    private void setupVaultSync() {
+        NoteCatalog.getInstance().addListener(changes -> {
+            List<NoteCatalog.Change> external = changes.stream().filter(NoteCatalog.Change::external).toList();
+            if (external.isEmpty()) return;
+            javafx.application.Platform.runLater(() -> onExternalChanges(external));
         });
+        VaultWatcher.getInstance().addImageListener(() -> javafx.application.Platform.runLater(() -> {
+            // 图片被替换：整页重载预览，让 WebView 重新请求图片
+            if (webView.isVisible() && currentNoteTitle != null && !currentNoteTitle.isEmpty()) {
+                invalidatePreviewPage();
+                updatePreview();
+            }
+        }));
+    }
+
+    // 文件树由 NoteTreeModel 自己跟随目录变化，这里只处理正在编辑的笔记
+    private void onExternalChanges(List<NoteCatalog.Change> changes) {
+        for (NoteCatalog.Change change : changes) {
+            if (change.type() != NoteCatalog.ChangeType.REMOVED && change.title().equals(currentNoteTitle)) {
+                reloadCurrentNoteFromDisk();
+            }
+        }
+    }
+
+    /**
+     * 当前笔记在磁盘上被修改：没有未保存的修改时重新载入，否则保留编辑器里的内容
+     */
+    private void reloadCurrentNoteFromDisk() {
+        if (isDirty() || SaveQueue.getInstance().pendingContent(currentNoteTitle) != null) {
+            System.out.println("笔记在外部被修改，但有未保存的修改，保留编辑器内容: " + currentNoteTitle);
+            return;
+        }
+        try {
+            String content = FileUtil.read(currentNoteTitle);
+            if (documentModel.text().contentEquals(content)) return;
+            int caret = Math.min(editorArea.getCaretPosition(), content.length());
+            double topLine = editorArea.getTopLine();
+            editorArea.setText(content);
+            markClean();
+            editorArea.positionCaret(caret);
+            editorArea.setTopLine(topLine);
+            if (webView.isVisible()) updatePreview();
+        } catch (IOException e) {
+            System.err.println("重新载入失败: " + e.getMessage());
+        }
+    }
+
+    private void runSidebarSearch(String query) {
+        TreeItem<String> searchRoot = new TreeItem<>("搜索结果");
+        searchSnippets.clear();
+        // 标签筛选：#a #b 同时有，#a | #b 任一，-#a 排除
+        if (TagIndex.isTagQuery(query)) {
+            List<String> tagged = TagIndex.getInstance().query(query);
+            for (String title : tagged.subList(0, Math.min(tagged.size(), TAG_FILTER_LIMIT))) {
+                searchRoot.getChildren().add(new TreeItem<>(title));
+            }
+            if (tagged.size() > TAG_FILTER_LIMIT) {
+                searchRoot.getChildren().add(new TreeItem<>("… 还有 " + (tagged.size() - TAG_FILTER_LIMIT) + " 篇"));
+            }
+            fileTree.setRoot(searchRoot);
+            searchRoot.setExpanded(true);
+            return;
+        }
+        java.util.Set<String> added = new java.util.HashSet<>();
+        // 1. 文件名匹配排在前面
+        List<String> allFiles = NoteCatalog.getInstance().titles();
+        for (String file : allFiles) {
+            if (file.toLowerCase().contains(query.toLowerCase())) {
+                searchRoot.getChildren().add(new TreeItem<>(file));
+                added.add(file);
+            }
+        }
+        // 2. 正文命中 (全文索引，按相关度排序)，悬停显示摘要
+        for (NoteIndex.Hit hit : NoteIndex.getInstance().search(query, SIDEBAR_SEARCH_LIMIT)) {
+            searchSnippets.put(hit.title(), hit.snippet());
+            if (added.add(hit.title())) {
+                searchRoot.getChildren().add(new TreeItem<>(hit.title()));
+            }
+        }
+        fileTree.setRoot(searchRoot);
+        searchRoot.setExpanded(true);
     }
 
 
@@ -476,74 +574,214 @@ public class MainController {
     private void handleSave() {
         if (currentNoteTitle == null || currentNoteTitle.isEmpty()) return;
 
-        try {
-            // 1. 获取当前编辑器内容
-            String content = editorArea.getText();
-            if (content == null) content = "";
-
-            // --- 【新增逻辑开始】自动重命名 ---
-            String extractedTitle = extractTitleFromContent(content);
-
-            if (extractedTitle != null && !extractedTitle.isEmpty()) {
-                // 2.1 处理非法字符
-                String safeNewName = sanitizeFileName(extractedTitle);
-
-                // 2.2 处理分类前缀逻辑 (保留原有的分类)
-                // 比如原文件名是 "课程_Java基础"，content里改成了 "# Java进阶"
-                // 我们希望新文件名是 "课程_Java进阶"
-                String currentCategory = "";
-                String currentPureName = currentNoteTitle;
-
-                if (currentNoteTitle.contains("_")) {
-                    int underscoreIndex = currentNoteTitle.indexOf("_");
-                    currentCategory = currentNoteTitle.substring(0, underscoreIndex + 1); // 保留 "课程_"
-                    currentPureName = currentNoteTitle.substring(underscoreIndex + 1);
+        // 1. 获取当前编辑器内容
+        String content = editorArea.getText();
+        if (content == null) content = "";
+
+        // --- 【新增逻辑开始】自动重命名 ---
+        String extractedTitle = extractTitleFromContent(content);
+
+        if (extractedTitle != null && !extractedTitle.isEmpty()) {
+            // 2.1 处理非法字符
+            String safeNewName = sanitizeFileName(extractedTitle);
+
+            // 2.2 处理分类前缀逻辑 (保留原有的分类)
+            // 比如原文件名是 "课程_Java基础"，content里改成了 "# Java进阶"
+            // 我们希望新文件名是 "课程_Java进阶"
+            String currentCategory = "";
+            String currentPureName = currentNoteTitle;
+
+            if (currentNoteTitle.contains("_")) {
+                int underscoreIndex = currentNoteTitle.indexOf("_");
+                currentCategory = currentNoteTitle.substring(0, underscoreIndex + 1); // 保留 "课程_"
+                currentPureName = currentNoteTitle.substring(underscoreIndex + 1);
+            }
+
+            // 2.3 拼接完整的新文件名
+            String newFullFileName = currentCategory + safeNewName;
+
+            // 2.4 只有当名字真正发生改变时，才执行重命名
+            // 注意：这里比较的是“去除分类后的纯文件名”是否一致
+            if (!currentPureName.equals(safeNewName)) {
+                System.out.println("检测到标题变化，准备重命名: " + currentNoteTitle + " -> " + newFullFileName);
+
+                if (NoteCatalog.getInstance().contains(newFullFileName)) {
+                    // 名字冲突：保持原名继续保存内容
+                    System.err.println("自动重命名失败 (文件名已存在): " + newFullFileName);
+                } else {
+                    // 重命名排进保存队列，保证在此前排队的写入之后执行；文件树随目录变化更新
+                    SaveQueue.getInstance().rename(currentNoteTitle, newFullFileName);
+
+                    // 更新当前内存中的标题记录
+                    currentNoteTitle = newFullFileName;
                 }
+            }
+        }
+        // --- 【新增逻辑结束】 ---
 
-                // 2.3 拼接完整的新文件名
-                String newFullFileName = currentCategory + safeNewName;
+        // 3. 核心保存：交给后台保存队列 (此时 currentNoteTitle 已经是新的名字了)
+        SaveQueue.getInstance().submit(currentNoteTitle, content);
+        markClean();
 
-                // 2.4 只有当名字真正发生改变时，才执行重命名
-                // 注意：这里比较的是“去除分类后的纯文件名”是否一致
-                if (!currentPureName.equals(safeNewName)) {
-                    System.out.println("检测到标题变化，准备重命名: " + currentNoteTitle + " -> " + newFullFileName);
+        // 4. 更新字数统计 (统计已随编辑增量更新)
+        updateWordCount();
 
-                    try {
-                        // 执行物理重命名
-                        FileUtil.rename(currentNoteTitle, newFullFileName);
+        System.out.println("已提交保存: " + currentNoteTitle);
+    }
+
+    /**
+     * 自动保存：停止输入 2 秒、编辑器失去焦点、窗口关闭时，把有修改的笔记交给后台保存队列
+     * 只比较版本号判断是否有修改，不比较全文；写盘在后台线程，不影响输入
+     */
+    private void setupAutosave() {
+        OPEN_WINDOWS.add(this);
+        autosaveTimer.setOnFinished(event -> flushIfDirty());
+        editorArea.focusedProperty().addListener((obs, wasFocused, focused) -> {
+            if (!focused) flushIfDirty();
+        });
+        rootContainer.sceneProperty().addListener((obs, oldScene, scene) -> {
+            if (scene == null) return;
+            scene.windowProperty().addListener((o, oldWindow, window) -> {
+                if (window == null) return;
+                window.addEventHandler(javafx.stage.WindowEvent.WINDOW_HIDDEN, e -> {
+                    flushIfDirty();
+                    OPEN_WINDOWS.remove(this);
+                });
+            });
+        });
+    }
 
-                        // 更新当前内存中的标题记录
-                        currentNoteTitle = newFullFileName;
+    private boolean isDirty() {
+        return documentModel.version() != savedVersion;
+    }
 
-                        // 刷新左侧文件树，显示新名字
-                        refreshFileTree();
+    private void markClean() {
+        savedVersion = documentModel.version();
+    }
 
-                        // 重新选中该节点 (可选优化，防止树列表跳动)
-                        // selectFileInTree(newFullFileName);
+    /**
+     * 当前笔记有修改就排队保存 (不做按标题重命名，避免输入标题的过程中文件名跟着变)
+     */
+    private void flushIfDirty() {
+        if (currentNoteTitle == null || currentNoteTitle.isEmpty() || !isDirty()) return;
+        SaveQueue.getInstance().submit(currentNoteTitle, editorArea.getText());
+        markClean();
+    }
 
-                    } catch (IOException e) {
-                        System.err.println("自动重命名失败 (可能是文件名已存在): " + e.getMessage());
-                        // 如果重命名失败（比如名字冲突），可以选择弹窗提示，或者默默保持原名继续保存内容
-                    }
+    /**
+     * 保存全部打开的文件：当前窗口完整保存 (含按标题重命名)，其他窗口保存各自的修改
+     */
+    @FXML
+    private void handleSaveAll() {
+        handleSave();
+        for (MainController window : List.copyOf(OPEN_WINDOWS)) {
+            if (window != this) window.flushIfDirty();
+        }
+    }
+
+    /**
+     * 状态栏显示后台保存的进度；当前笔记保存失败时弹窗提示
+     */
+    private void setupSaveStatus() {
+        SaveQueue.getInstance().addListener(event -> javafx.application.Platform.runLater(() -> {
+            switch (event.status()) {
+                case PENDING -> saveStatusLabel.setText("保存中...");
+                case SAVED -> saveStatusLabel.setText("已保存");
+                case FAILED -> {
+                    saveStatusLabel.setText("保存失败");
+                    if (event.title().equals(currentNoteTitle)) showError("保存失败", event.message());
                 }
             }
-            // --- 【新增逻辑结束】 ---
+        }));
+    }
 
-            // 3. 核心保存：将内容写入文件 (此时 currentNoteTitle 已经是新的名字了)
-            FileUtil.save(currentNoteTitle, content);
+    // ---------------------------------------------------------------- 复习
 
-            // 4. 更新字数统计 (保持原有逻辑)
-            String filtered = content.replaceAll("!\\[.*?\\]\\(.*?\\)", "");
-            int count = filtered.replaceAll("\\s", "").length();
-            wordCountLabel.setText("字数: " + count);
+    // 状态栏显示今天到期的笔记数
+    private void setupReview() {
+        Runnable update = () -> {
+            int due = ReviewScheduler.getInstance().dueCount();
+            reviewDueLabel.setText(due > 0 ? "待复习: " + due : "");
+        };
+        ReviewScheduler.getInstance().addListener(() -> javafx.application.Platform.runLater(update));
+        update.run();
+    }
 
-            System.out.println("已保存: " + currentNoteTitle);
+    @FXML
+    private void handleStartReview() {
+        flushIfDirty();
+        reviewQueue.clear();
+        reviewQueue.addAll(ReviewScheduler.getInstance().dueTitles(REVIEW_SESSION_LIMIT));
+        if (reviewQueue.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("复习");
+            alert.setHeaderText(null);
+            alert.setContentText("今天没有需要复习的笔记。\n可以在 复习 菜单中把当前笔记加入复习计划。");
+            alert.showAndWait();
+            return;
+        }
+        reviewDone = 0;
+        reviewTotal = reviewQueue.size();
+        reviewBar.setManaged(true);
+        reviewBar.setVisible(true);
+        showNextReview();
+    }
 
-        } catch (IOException e) {
-            System.err.println("保存笔记失败: " + e.getMessage());
-            e.printStackTrace();
-            showError("保存失败", e.getMessage());
+    @FXML
+    private void handleScheduleReview() {
+        if (currentNoteTitle == null || currentNoteTitle.isEmpty()) return;
+        ReviewScheduler.getInstance().schedule(currentNoteTitle);
+    }
+
+    @FXML
+    private void handleUnscheduleReview() {
+        if (currentNoteTitle == null || currentNoteTitle.isEmpty()) return;
+        ReviewScheduler.getInstance().unschedule(currentNoteTitle);
+    }
+
+    @FXML private void handleReviewAgain() { gradeReview(ReviewScheduler.Grade.AGAIN); }
+    @FXML private void handleReviewHard() { gradeReview(ReviewScheduler.Grade.HARD); }
+    @FXML private void handleReviewGood() { gradeReview(ReviewScheduler.Grade.GOOD); }
+    @FXML private void handleReviewEasy() { gradeReview(ReviewScheduler.Grade.EASY); }
+
+    @FXML
+    private void handleEndReview() {
+        reviewQueue.clear();
+        reviewingTitle = null;
+        reviewBar.setVisible(false);
+        reviewBar.setManaged(false);
+    }
+
+    private void gradeReview(ReviewScheduler.Grade grade) {
+        if (reviewingTitle == null) return;
+        // 复习时顺手改过的内容照常保存
+        flushIfDirty();
+        if (NoteCatalog.getInstance().contains(reviewingTitle)) {
+            ReviewScheduler.getInstance().record(reviewingTitle, grade);
+        }
+        reviewDone++;
+        showNextReview();
+    }
+
+    private void showNextReview() {
+        String title = reviewQueue.poll();
+        // 复习过程中被删除的笔记跳过
+        while (title != null && !NoteCatalog.getInstance().contains(title)) {
+            reviewTotal--;
+            title = reviewQueue.poll();
+        }
+        if (title == null) {
+            int done = reviewDone;
+            handleEndReview();
+            saveStatusLabel.setText("本轮复习完成: " + done + " 篇");
+            return;
         }
+        reviewingTitle = title;
+        selectFileInTree(title);
+        if (!title.equals(currentNoteTitle)) loadNoteContent(title);
+        showEditor(false);
+        reviewProgressLabel.setText(String.format("复习 %d / %d：%s",
+                reviewDone + 1, reviewTotal, title.substring(title.lastIndexOf('_') + 1)));
     }
 
     @FXML
@@ -561,32 +799,6 @@ public class MainController {
     @FXML
     private SVGPath editModeIcon;
 
-    /**
-     * WebView 加载状态监听 (只有在这里执行 JS 才是 100% 安全的)
-     */
-    //
-
-    private void onWebViewLoadStateChanged(javafx.beans.value.ObservableValue<? extends javafx.concurrent.Worker.State> obs, javafx.concurrent.Worker.State oldState, javafx.concurrent.Worker.State newState) {
-        if (newState == javafx.concurrent.Worker.State.SUCCEEDED) {
-            // 这里不再需要 Timeline 和 scroll script 了，因为 HTML 里的 onload 已经处理了
-
-            // --- A. 最后的防线 ---
-            // 确保 WebView 组件本身是可见的
-            webView.setOpacity(1);
-
-            // 如果 HTML 内的 JS 失败了，我们在这里强制让 body 显示
-            // 注意：executeScript 可能会抛异常，所以要 try catch
-            try {
-                webView.getEngine().executeScript("document.body.style.opacity = '1';");
-            } catch (Exception ignored) {}
-
-            // --- B. 处理搜索高亮 (如果查找框没关且有字) ---
-            if (editorFindPane != null && editorFindPane.isVisible() && !editorFindField.getText().isEmpty()) {
-                updateMatchStatus(true);
-            }
-        }
-    }
-
     private String buildHtml(String bodyContent, boolean isDarkMode) {
         // 定义颜色
         String bgColor = isDarkMode ? "#1e1f22" : "#ffffff";
@@ -638,6 +850,7 @@ public class MainController {
 
         // 将标题设为空，表示这是一个临时页面（或者你可以设为 "DeepMind_Help"）
         currentNoteTitle = "";
+        refreshBacklinks();
 
         // 核心步骤：渲染预览并切换到预览模式
         // 这样软件一启动，用户看到的就是渲染好的漂亮文档，而不是 Markdown 源码
@@ -645,23 +858,19 @@ public class MainController {
         handlePreviewMode();
     }
 
-    private void setupWordCount() {
-        editorArea.textProperty().addListener((observable, oldValue, newValue) -> {
-            if (newValue == null || newValue.isEmpty()) {
-                wordCountLabel.setText("字数: 0");
-                return;
-            }
-
-            // 1. 过滤 Markdown 图片语法: ! [描述] (链接)
-            // 这个正则会匹配以 ! 开头，紧跟 [] 和 () 的内容并将其替换为空字符串
-            String filtered = newValue.replaceAll("!\\[.*?\\]\\(.*?\\)", "");
-
-            // 2. 过滤所有空白字符（空格、制表符、换行符）
-            // \\s 包含所有看不见的空白
-            int count = filtered.replaceAll("\\s", "").length();
-
-            wordCountLabel.setText("字数: " + count);
-        });
+    // 状态栏字数：统计随编辑增量更新 (见 setupEditTracking)，这里只负责显示
+    private void updateWordCount() {
+        DocumentStats.Counts counts = documentModel.stats();
+        if (counts.characters() == 0) {
+            wordCountLabel.setText("字数: 0");
+            wordCountLabel.setTooltip(null);
+            return;
+        }
+        wordCountLabel.setText("字数: " + counts.characters() + " · 约 " + counts.readingMinutes() + " 分钟");
+        String detail = String.format("中文: %d 字\n英文: %d 词\n图片: %d\n链接: %d\n阅读时间: 约 %d 分钟",
+                counts.cjk(), counts.words(), counts.images(), counts.links(), counts.readingMinutes());
+        if (wordCountLabel.getTooltip() == null) wordCountLabel.setTooltip(new Tooltip(detail));
+        else wordCountLabel.getTooltip().setText(detail);
     }
 
     /**
@@ -669,7 +878,7 @@ public class MainController {
      * 功能：拖入图片 -> 自动复制到 images 目录 -> 插入 Markdown 语法
      */
     private void setupDualDragAndDrop() {
-        // 1. 给 TextArea 设置拖拽
+        // 1. 给编辑器设置拖拽
         setupNodeDragHandlers(editorArea, true);
 
         // 2. 给 WebView 设置拖拽 (关键：防止跳转)
@@ -678,7 +887,7 @@ public class MainController {
 
     /**
      * 通用的节点拖拽处理器
-     * @param node 目标节点 (TextArea 或 WebView)
+     * @param node 目标节点 (编辑器或 WebView)
      * @param isEditor 是否是编辑器 (如果是编辑器，插入光标处；如果是WebView，追加到文末)
      */
     /**
@@ -693,9 +902,9 @@ public class MainController {
                     event.acceptTransferModes(javafx.scene.input.TransferMode.COPY);
 
                     // 【新增】如果是编辑器，强制光标跟随鼠标移动
-                    if (isEditor && node instanceof TextArea) {
-                        moveCaretToMouse((TextArea) node, event.getX(), event.getY());
-                        ((TextArea) node).requestFocus(); // 获取焦点，让光标闪烁可见
+                    if (isEditor && node instanceof SourceEditor editor) {
+                        editor.positionCaret(editor.offsetAt(event.getX(), event.getY()));
+                        editor.requestFocus(); // 获取焦点，让光标闪烁可见
                     }
                 }
             }
@@ -725,61 +934,6 @@ public class MainController {
         });
     }
 
-    /**
-     * 【核心算法】根据鼠标坐标移动光标
-     * 注意：这基于等宽字体计算，非等宽字体会有误差，但不会报错
-     */
-    private void moveCaretToMouse(TextArea area, double mouseX, double mouseY) {
-        // 1. 获取字体度量 (假设是等宽字体)
-        javafx.scene.text.Text helper = new javafx.scene.text.Text("W");
-        helper.setFont(area.getFont());
-        double lineHeight = helper.getLayoutBounds().getHeight(); // 单行高度
-        double charWidth = helper.getLayoutBounds().getWidth();   // 单字符宽度
-
-        // 2. 加上滚动条的偏移量 (TextArea 的内容可能被卷上去了)
-        double scrolledX = mouseX + area.getScrollLeft();
-        double scrolledY = mouseY + area.getScrollTop();
-
-        // 3. 简单的内边距修正 (TextArea 默认有一点 padding)
-        double paddingX = 5.0;
-        double paddingY = 5.0; // 视 CSS 而定，通常 5-7px
-
-        // 4. 计算行号和列号
-        int row = (int) ((scrolledY - paddingY) / lineHeight);
-        int col = (int) ((scrolledX - paddingX) / charWidth);
-
-        // 5. 将行列转换为文本索引 (Index)
-        // 这一步比较麻烦，因为要考虑每一行的实际长度
-        try {
-            String text = area.getText();
-            String[] lines = text.split("\n", -1); // -1 保留末尾空行
-
-            int targetIndex = 0;
-
-            // 限制行号不越界
-            if (row < 0) row = 0;
-            if (row >= lines.length) row = lines.length - 1;
-
-            // 累加目标行之前的字符数
-            for (int i = 0; i < row; i++) {
-                targetIndex += lines[i].length() + 1; // +1 是换行符
-            }
-
-            // 加上列偏移
-            int lineLen = lines[row].length();
-            if (col < 0) col = 0;
-            if (col > lineLen) col = lineLen; // 限制光标不能超过行尾
-
-            targetIndex += col;
-
-            // 6. 移动光标
-            area.positionCaret(targetIndex);
-
-        } catch (Exception e) {
-            // 计算出错时忽略，保持原位
-        }
-    }
-
     /**
      * 辅助方法：判断文件是否为图片
      */
@@ -795,7 +949,7 @@ public class MainController {
      */
     private void insertMarkdownText(String text, boolean insertAtCursor) {
         if (insertAtCursor) {
-            // 如果是拖入 TextArea，插入到光标位置
+            // 如果是拖入编辑器，插入到光标位置
             int caretPos = editorArea.getCaretPosition();
             editorArea.insertText(caretPos, "\n" + text + "\n");
         } else {
@@ -846,68 +1000,37 @@ public class MainController {
             return null; // 或者返回绝对路径 sourceFile.getAbsolutePath()
         }
     }
-    private void setupOutline() {
-        // 1. 生成大纲
-        editorArea.textProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal == null || newVal.isEmpty()) {
-                outlineListView.getItems().clear();
-                return;
-            }
-
-            class TempHeading {
-                int level;
-                String text;
-                int index;
-                int order;
-
-                TempHeading(int l, String t, int i, int o) {
-                    this.level = l;
-                    this.text = t;
-                    this.index = i;
-                    this.order = o;
-                }
-            }
-            List<TempHeading> tempList = new ArrayList<>();
-            TreeSet<Integer> levels = new TreeSet<>();
-
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("(?m)^(#+)\\s+(.*)$");
-            java.util.regex.Matcher matcher = pattern.matcher(newVal);
-
-            int headingCount = 0; // 【新增】标题计数器
-
-            while (matcher.find()) {
-                String hashes = matcher.group(1);
-                String title = matcher.group(2);
-                int startIndex = matcher.start();
-                int level = hashes.length();
-
-                // 记录这是第几个标题 (headingCount++)
-                tempList.add(new TempHeading(level, title, startIndex, headingCount++));
-                levels.add(level);
-            }
-
-            List<Integer> sortedLevels = new ArrayList<>(levels);
-            List<OutlineItem> displayItems = new ArrayList<>();
-
-            for (TempHeading h : tempList) {
-                int mappedLevel = sortedLevels.indexOf(h.level);
-                String marker = switch (mappedLevel) {
-                    case 0 -> "◈ ";
-                    case 1 -> "◇ ";
-                    case 2 -> "▹ ";
-                    default -> "▪ ";
-                };
-                String indent = "  ".repeat(Math.max(0, mappedLevel));
+    /**
+     * 编辑器唯一的文本监听：正文和各项分析由 SourceEditor 直接在 documentModel 上增量更新，
+     * 这里只重新开始防抖和自动保存计时；停止输入后统一分发一次
+     */
+    private void setupEditTracking() {
+        editorArea.versionProperty().addListener((obs, oldVersion, newVersion) -> {
+            // 之前排队或正在进行的渲染随版本号变化全部作废
+            debounceTimer.playFromStart();
+            autosaveTimer.playFromStart();
+        });
+        debounceTimer.setOnFinished(e -> documentModel.analyze());
+        documentModel.addListener(model -> updateWordCount());
+    }
 
-                // 【关键】传入 h.order (第几个标题)
-                displayItems.add(new OutlineItem(indent + marker + h.text, h.index, h.order));
-            }
+    /**
+     * 立即执行还在防抖中的分析 (要用最新结果的操作调用)
+     */
+    private void flushAnalysis() {
+        if (debounceTimer.getStatus() == javafx.animation.Animation.Status.RUNNING) {
+            debounceTimer.stop();
+            documentModel.analyze();
+        }
+    }
 
-            outlineListView.getItems().setAll(displayItems);
-        });
+    private void setupOutline() {
+        // 1. 生成大纲：标题随编辑增量更新 (见 DocumentModel)，列表在停止输入后按差异更新
+        documentModel.addListener(model -> refreshOutline());
 
         // 2. 点击跳转 (支持双模式)
         outlineListView.setOnMouseClicked(event -> {
+            flushAnalysis(); // 刚输入完还没刷新：先刷新，保证跳转位置是最新的
             OutlineItem selected = outlineListView.getSelectionModel().getSelectedItem();
             if (selected != null) {
 
@@ -922,23 +1045,122 @@ public class MainController {
                 }
 
                 // =================================================
-                // 场景 B: 编辑模式 (TextArea) -> 光标跳转
+                // 场景 B: 编辑模式 (编辑器) -> 光标跳转
                 // =================================================
                 else {
                     editorArea.requestFocus();
                     editorArea.positionCaret(selected.startIndex);
 
-                    String text = editorArea.getText();
-                    int endIndex = text.indexOf('\n', selected.startIndex);
-                    if (endIndex == -1) endIndex = text.length();
+                    int endIndex = documentModel.lineEnd(documentModel.lineOf(selected.startIndex));
 
-                    editorArea.selectRange(selected.startIndex, endIndex);
-                    editorArea.setScrollTop(Double.MIN_VALUE);
+                    editorArea.selectRange(selected.startIndex, endIndex); // 编辑器会滚动到选区
                 }
             }
         });
     }
 
+    /**
+     * 按标题索引刷新大纲：只替换和上次不同的那一段，前后相同的条目原样保留 (只更新位置)
+     * 第 N 项对应预览里第 N 个 data-outline 标题
+     */
+    private void refreshOutline() {
+        List<HeadingIndex.Heading> headings = documentModel.headings();
+        TreeSet<Integer> levels = new TreeSet<>();
+        for (HeadingIndex.Heading h : headings) levels.add(h.level());
+        List<Integer> sortedLevels = new ArrayList<>(levels);
+
+        List<OutlineItem> displayItems = new ArrayList<>(headings.size());
+        for (int i = 0; i < headings.size(); i++) {
+            HeadingIndex.Heading h = headings.get(i);
+            int mappedLevel = sortedLevels.indexOf(h.level());
+            String marker = switch (mappedLevel) {
+                case 0 -> "◈ ";
+                case 1 -> "◇ ";
+                case 2 -> "▹ ";
+                default -> "▪ ";
+            };
+            String indent = "  ".repeat(Math.max(0, mappedLevel));
+            displayItems.add(new OutlineItem(indent + marker + h.text(), h.offset(), i));
+        }
+
+        javafx.collections.ObservableList<OutlineItem> items = outlineListView.getItems();
+        int oldSize = items.size();
+        int newSize = displayItems.size();
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize
+                && items.get(prefix).toString().equals(displayItems.get(prefix).toString())) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && items.get(oldSize - 1 - suffix).toString().equals(displayItems.get(newSize - 1 - suffix).toString())) {
+            suffix++;
+        }
+        // 保留的条目只更新位置
+        for (int i = 0; i < prefix; i++) {
+            items.get(i).startIndex = displayItems.get(i).startIndex;
+        }
+        for (int i = 0; i < suffix; i++) {
+            OutlineItem kept = items.get(oldSize - 1 - i);
+            OutlineItem fresh = displayItems.get(newSize - 1 - i);
+            kept.startIndex = fresh.startIndex;
+            kept.orderIndex = fresh.orderIndex;
+        }
+        if (prefix + suffix < oldSize) items.remove(prefix, oldSize - suffix);
+        if (prefix + suffix < newSize) items.addAll(prefix, displayItems.subList(prefix, newSize - suffix));
+    }
+
+    // ---------------------------------------------------------------- 双链
+
+    /**
+     * 大纲下方的反向链接面板 (直接查 LinkIndex，不扫描笔记库)，以及预览里 [[双链]] 的跳转
+     */
+    private void setupBacklinks() {
+        backlinksListView.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(String title, boolean empty) {
+                super.updateItem(title, empty);
+                setText(empty || title == null ? null : title.substring(title.lastIndexOf('_') + 1));
+                setTooltip(empty || title == null ? null : new Tooltip(title));
+            }
+        });
+        backlinksListView.setOnMouseClicked(event -> {
+            String title = backlinksListView.getSelectionModel().getSelectedItem();
+            if (title != null) openLinkedNote(title);
+        });
+        LinkIndex.getInstance().addListener(() -> {
+            if (backlinksRefreshQueued.compareAndSet(false, true)) {
+                javafx.application.Platform.runLater(() -> {
+                    backlinksRefreshQueued.set(false);
+                    refreshBacklinks();
+                });
+            }
+        });
+        previewShell.setOnOpenNote(this::openLinkedNote);
+        refreshBacklinks();
+    }
+
+    private void refreshBacklinks() {
+        if (currentNoteTitle == null || currentNoteTitle.isEmpty()) {
+            backlinksListView.getItems().clear();
+            backlinksLabel.setText("反向链接");
+            return;
+        }
+        List<String> sources = LinkIndex.getInstance().backlinksOf(currentNoteTitle);
+        backlinksListView.getItems().setAll(sources);
+        backlinksLabel.setText(sources.isEmpty() ? "反向链接" : "反向链接 (" + sources.size() + ")");
+    }
+
+    // 打开 [[链接]] 指向的笔记
+    private void openLinkedNote(String target) {
+        String title = LinkIndex.getInstance().resolve(target);
+        if (title == null) {
+            saveStatusLabel.setText("链接的笔记不存在: " + target);
+            return;
+        }
+        selectFileInTree(title);
+        if (!title.equals(currentNoteTitle)) loadNoteContent(title);
+    }
 
     private void initContextMenu() {
         // 1. 创建全新的右键菜单
@@ -1140,6 +1362,7 @@ public class MainController {
                 if (empty || item == null) {
                     setText(null);
                     setGraphic(null);
+                    setTooltip(null);
                 } else {
                     if (isEditing()) {
                         if (textField != null) {
@@ -1149,12 +1372,19 @@ public class MainController {
                         return;
                     }
                     // 显示逻辑：如果是文件(叶子)，去掉前缀显示；如果是文件夹，直接显示名字
+                    // 文件夹后面附上笔记数 (从目录里数，不需要展开)
+                    int noteCount = treeModel.noteCount(getTreeItem());
                     if (getTreeItem().isLeaf() && item.contains("_")) {
                         setText(item.substring(item.lastIndexOf("_") + 1));
+                    } else if (noteCount >= 0) {
+                        setText(item + " (" + noteCount + ")");
                     } else {
                         setText(item);
                     }
                     setGraphic(null);
+                    // 搜索结果：悬停显示正文摘要
+                    String snippet = getTreeItem().isLeaf() ? searchSnippets.get(item) : null;
+                    setTooltip(snippet == null || snippet.isEmpty() ? null : new Tooltip(snippet));
                 }
             }
 
@@ -1211,7 +1441,7 @@ public class MainController {
                     String newFullName = prefix + newName;
 
                     try {
-                        FileUtil.rename(oldName, newFullName);
+                        renameNotes(java.util.Map.of(oldName, newFullName));
                         // 同步更新文件内部的 # 标题
                         syncH1TitleInFile(newFullName, newName, oldName);
 
@@ -1223,19 +1453,13 @@ public class MainController {
                 }
                 // --- 分支 B: 如果是文件夹 (分类节点) ---
                 else {
-                    try {
-                        // 执行批量重命名逻辑
-                        boolean success = renameCategory(getTreeItem(), oldName, newName);
-                        if (success) {
-                            super.commitEdit(newName);
-                            // 文件夹改名涉及大量文件变动，必须刷新整个树以更新所有子节点
-                            refreshFileTree();
-                        } else {
-                            cancelEdit();
-                        }
-                    } catch (IOException e) {
-                        showError("文件夹重命名失败", e.getMessage());
+                    // 有笔记的文件夹在后台逐篇改名 (节点随目录变化移动)；空文件夹直接改节点
+                    if (renameCategory(getTreeItem(), oldName, newName)) {
                         cancelEdit();
+                    } else {
+                        treeModel.renameFolder(getTreeItem(), newName);
+                        super.commitEdit(newName);
+                        refreshFileTree();
                     }
                 }
             }
@@ -1308,11 +1532,13 @@ public class MainController {
 
     /**
      * 核心逻辑：重命名文件夹（实际上是批量重命名所有拥有该前缀的文件）
+     * 笔记和指向它们的链接在后台一次改完，状态栏显示进度
      * @param item 被修改的树节点
      * @param oldCategoryName 旧的文件夹名 (例如 "Java")
      * @param newCategoryName 新的文件夹名 (例如 "Java新")
+     * @return 文件夹里有笔记、已开始改名时返回 true
      */
-    private boolean renameCategory(TreeItem<String> item, String oldCategoryName, String newCategoryName) throws IOException {
+    private boolean renameCategory(TreeItem<String> item, String oldCategoryName, String newCategoryName) {
         // 1. 计算该文件夹的“完整前缀路径”
         // 例如：Root -> 学习 -> Java (我们正在改 Java)
         // 父级前缀是 "学习_"，旧前缀是 "学习_Java_"，新前缀是 "学习_Java新_"
@@ -1326,29 +1552,89 @@ public class MainController {
 
         System.out.println("准备将前缀 [" + oldFullPrefix + "] 批量改为 [" + newFullPrefix + "]");
 
-        // 2. 获取所有文件
-        List<String> allFiles = FileUtil.listAllNotes();
-        int successCount = 0;
-
-        // 3. 遍历并筛选需要改名的文件
+        // 2. 直接从目录取出该文件夹下的文件 (已按前缀筛选)，构造新文件名 (只替换开头的前缀)
+        List<String> allFiles = NoteCatalog.getInstance().titlesWithPrefix(oldFullPrefix);
+        if (allFiles.isEmpty()) return false;
+        java.util.Map<String, String> renames = new java.util.LinkedHashMap<>();
         for (String fileName : allFiles) {
-            if (fileName.startsWith(oldFullPrefix)) {
-                // 构造新文件名
-                // replaceFirst 仅替换开头匹配的部分，防止文件名中间恰好也有相同的字符串
-                String newFileName = fileName.replaceFirst(java.util.regex.Pattern.quote(oldFullPrefix), newFullPrefix);
+            renames.put(fileName, newFullPrefix + fileName.substring(oldFullPrefix.length()));
+        }
 
-                FileUtil.rename(fileName, newFileName);
-                successCount++;
+        // 3. 后台执行；期间编辑区只读，免得改写链接时覆盖正在输入的内容
+        flushIfDirty();
+        editorArea.setEditable(false);
+        javafx.concurrent.Task<RenameRefactoring.Result> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected RenameRefactoring.Result call() throws Exception {
+                return RenameRefactoring.getInstance().run(renames, (done, total) -> {
+                    updateProgress(done, total);
+                    updateMessage("正在重命名文件夹: " + done + " / " + total);
+                });
+            }
+        };
+        task.messageProperty().addListener((obs, oldMsg, msg) -> saveStatusLabel.setText(msg));
+        task.setOnSucceeded(e -> {
+            editorArea.setEditable(true);
+            afterRename(task.getValue());
+            saveStatusLabel.setText("已重命名 " + task.getValue().renamed().size() + " 篇笔记，更新了 "
+                    + task.getValue().rewritten().size() + " 篇笔记里的链接");
+        });
+        task.setOnFailed(e -> {
+            editorArea.setEditable(true);
+            showError("文件夹重命名失败", task.getException().getMessage());
+        });
+        Thread thread = new Thread(task, "rename-folder");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
 
-                // 如果恰好正在编辑这个文件，更新 currentNoteTitle
-                if (currentNoteTitle.equals(fileName)) {
-                    currentNoteTitle = newFileName;
+    /**
+     * 重命名笔记 (改名、移动)，并改写其他笔记里指向它们的链接
+     * @throws IOException 目标已存在或读写失败
+     */
+    private void renameNotes(java.util.Map<String, String> renames) throws IOException {
+        flushIfDirty();
+        afterRename(RenameRefactoring.getInstance().run(renames, null));
+    }
+
+    // 同步编辑器：当前笔记被改名就换标题；当前笔记里的链接被改写就重新载入正文；
+    // 有没保存的修改时不能重新载入，对编辑区里的正文做同样的改写 (保持未保存状态)，否则下次自动保存会把链接改回去
+    private void afterRename(RenameRefactoring.Result result) {
+        String renamedTo = result.renamed().get(currentNoteTitle);
+        if (renamedTo != null) currentNoteTitle = renamedTo;
+        if (currentNoteTitle != null && isDirty()) {
+            String text = editorArea.getText();
+            String rewritten = result.rewrite(text);
+            if (!rewritten.equals(text)) {
+                // 只替换首尾相同部分之间的一段，光标和撤销记录尽量不受影响
+                int prefix = 0;
+                int max = Math.min(text.length(), rewritten.length());
+                while (prefix < max && text.charAt(prefix) == rewritten.charAt(prefix)) prefix++;
+                int suffix = 0;
+                while (suffix < max - prefix
+                        && text.charAt(text.length() - 1 - suffix) == rewritten.charAt(rewritten.length() - 1 - suffix)) {
+                    suffix++;
                 }
+                int caret = editorArea.getCaretPosition();
+                int end = text.length() - suffix;
+                editorArea.replaceText(prefix, end, rewritten.substring(prefix, rewritten.length() - suffix));
+                // replaceText 会把光标移到新文字后面：在改动之前的放回原处，之后的按长度差平移
+                if (caret <= prefix) editorArea.positionCaret(caret);
+                else if (caret >= end) editorArea.positionCaret(caret + rewritten.length() - text.length());
+            }
+        } else if (result.rewritten().contains(currentNoteTitle)) {
+            try {
+                int caret = editorArea.getCaretPosition();
+                String content = FileUtil.read(currentNoteTitle);
+                editorArea.setText(content);
+                editorArea.positionCaret(Math.min(caret, content.length()));
+                markClean();
+            } catch (IOException e) {
+                System.err.println("重新载入失败: " + e.getMessage());
             }
         }
-
-        System.out.println("成功重命名了 " + successCount + " 个文件。");
-        return true;
+        refreshBacklinks();
     }
 
 
@@ -1356,25 +1642,22 @@ public class MainController {
      * 物理移动文件（重命名）
      */
     private boolean moveNoteFile(String oldName, String newName) {
-        // 假设你的笔记都在 "notes/" 目录下，根据你的 FileUtil 调整路径
-        java.io.File oldFile = new java.io.File("notes/" + oldName + ".md");
-        java.io.File newFile = new java.io.File("notes/" + newName + ".md");
-
-        if (oldFile.exists() && !newFile.exists()) {
-            boolean renamed = oldFile.renameTo(newFile);
-            if (renamed) {
-                System.out.println("笔记已移动: " + oldName + " -> " + newName);
-
-                // 可选：如果当前正在编辑这个文件，需要更新当前编辑器的状态
-                // checkAndUpdateCurrentEditor(newName);
-                return true;
-            } else {
-                System.out.println("文件移动失败，可能是被占用");
-            }
-        } else {
+        // 走 FileUtil.rename：元数据、笔记目录和全文索引一起更新
+        if (!NoteCatalog.getInstance().contains(oldName) || NoteCatalog.getInstance().contains(newName)) {
             System.out.println("源文件不存在或目标文件已存在");
+            return false;
+        }
+        try {
+            renameNotes(java.util.Map.of(oldName, newName));
+            System.out.println("笔记已移动: " + oldName + " -> " + newName);
+
+            // 可选：如果当前正在编辑这个文件，需要更新当前编辑器的状态
+            // checkAndUpdateCurrentEditor(newName);
+            return true;
+        } catch (IOException e) {
+            System.out.println("文件移动失败，可能是被占用");
+            return false;
         }
-        return false;
     }
 
     /**
@@ -1437,13 +1720,8 @@ public class MainController {
 
             if (!newTitle.equals(currentFullName)) {
                 try {
-                    // 4. 调用你已经改好的 FileUtil.rename
-                    FileUtil.rename(currentFullName, newTitle);
-
-                    // 5. 同步当前编辑状态
-                    if (currentNoteTitle.equals(currentFullName)) {
-                        currentNoteTitle = newTitle;
-                    }
+                    // 4. 改名，同时改写指向它的链接 (当前编辑状态在 renameNotes 里同步)
+                    renameNotes(java.util.Map.of(currentFullName, newTitle));
 
                     // 6. 核心：必须调用 refreshFileTree() 重新构建整个左侧树
                     refreshFileTree();
@@ -1474,13 +1752,13 @@ public class MainController {
 
         if (confirm) {
             try {
-                FileUtil.delete(title);
-                selectedItem.getParent().getChildren().remove(selectedItem);
+                FileUtil.delete(title); // 树节点随目录变化移除
 
                 // 如果删除的是当前正在编辑的文件，清空编辑器
                 if (currentNoteTitle.equals(title)) {
                     editorArea.clear();
-                    webView.getEngine().loadContent("");
+                    invalidatePreviewPage();
+                    previewShell.clearContent();
                     currentNoteTitle = "";
                 }
             } catch (IOException e) {
@@ -1540,10 +1818,8 @@ public class MainController {
             case "暖阳橙": rootContainer.getStyleClass().add("theme-orange"); break;
         }
 
-        // === 新增：切换主题后，如果在预览模式，需要刷新一下 WebView 才能变色 ===
-        if (webView.isVisible()) {
-            updatePreview();
-        }
+        // 切换主题只替换预览页的样式表，不用重新渲染 Markdown
+        previewShell.setThemeCss(getThemeRenderCss());
     }
 
     /**
@@ -1569,9 +1845,7 @@ public class MainController {
                 // 简单的判断：如果硬盘上有这个名字的文件，那就是文件，否则就是文件夹节点
                 // 注意：因为文件夹节点存的是短名(如"Java")，硬盘上应该没有 "Java" 这个文件(除非没后缀)
                 // 而文件节点存的是 "Java_Note.md"
-                File f = new File("notes/" + val + ".md"); // 尝试补全后缀判断
-                if(f.exists() && f.isFile()) isFile = true;
-                else if(new File("notes/" + val).exists() && new File("notes/" + val).isFile()) isFile = true; // 兼容无后缀
+                isFile = NoteCatalog.getInstance().contains(val);
             } catch (Exception e) {}
 
             if (isFile) {
@@ -1606,8 +1880,7 @@ public class MainController {
         } while (exists);
 
         // 3. 创建并添加
-        TreeItem<String> newCategory = new TreeItem<>(finalName);
-        targetParent.getChildren().add(newCategory);
+        TreeItem<String> newCategory = treeModel.addFolder(targetParent, finalName);
         targetParent.setExpanded(true);
 
         // 选中新文件夹
@@ -1808,7 +2081,7 @@ public class MainController {
         if (file != null) {
             try {
                 // 使用现有渲染逻辑
-                String fullHtml = buildHtml(MarkdownParser.parse(editorArea.getText()), false);
+                String fullHtml = buildHtml(MarkdownParser.render(editorArea.getText(), MarkdownParser.Profile.RAW_HTML), false);
                 FileUtil.writeToExternal(file, fullHtml);
             } catch (IOException e) { showError("HTML 导出失败", e.getMessage()); }
         }
@@ -1820,7 +2093,7 @@ public class MainController {
         if (file != null) {
             try {
                 // 只取解析后的 Body 部分
-                String rawHtml = MarkdownParser.parse(editorArea.getText());
+                String rawHtml = MarkdownParser.render(editorArea.getText(), MarkdownParser.Profile.RAW_HTML);
                 FileUtil.writeToExternal(file, rawHtml);
             } catch (IOException e) { showError("HTML 导出失败", e.getMessage()); }
         }
@@ -1835,11 +2108,40 @@ public class MainController {
         }
     }
 
+    // 全部笔记导出为普通 .md 文件 (打包存储时取回原始文件也用它)
+    @FXML
+    private void handleExportAllNotes() {
+        javafx.stage.DirectoryChooser chooser = new javafx.stage.DirectoryChooser();
+        chooser.setTitle("导出全部笔记到文件夹");
+        java.io.File dir = chooser.showDialog(rootContainer.getScene().getWindow());
+        if (dir == null) return;
+        flushIfDirty();
+
+        javafx.concurrent.Task<Integer> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected Integer call() throws Exception {
+                return FileUtil.exportAll(dir.toPath());
+            }
+        };
+        task.setOnSucceeded(e -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("导出完成");
+            alert.setHeaderText(null);
+            alert.setContentText("已导出 " + task.getValue() + " 篇笔记到 " + dir.getAbsolutePath());
+            alert.showAndWait();
+        });
+        task.setOnFailed(e -> showError("导出失败", task.getException().getMessage()));
+
+        Thread thread = new Thread(task, "export-all");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
 // --- 导出底层的私有实现 ---
 
     private void exportAsPdf(java.io.File file) throws Exception {
         // 1. 调用 Parser 获取纯 HTML 片段
-        String htmlFragment = MarkdownParser.parse(editorArea.getText());
+        String htmlFragment = MarkdownParser.render(editorArea.getText(), MarkdownParser.Profile.PDF_EXPORT);
 
         // 2. 使用 buildHtml 包装成标准的、唯一的 XHTML 完整文档
         String fullXhtml = buildHtml(htmlFragment, false);
@@ -1893,19 +2195,13 @@ public class MainController {
         ListView<String> listView = new ListView<>();
         listView.setPrefHeight(250);
 
-        // 2. 加载数据（从 FileUtil 获取所有笔记）
-        try {
-            List<String> allNotes = FileUtil.listAllNotes();
-            listView.getItems().setAll(allNotes);
-
-            // 3. 搜索过滤逻辑
-            searchBar.textProperty().addListener((obs, oldVal, newVal) -> {
-                List<String> filtered = allNotes.stream()
-                        .filter(s -> s.toLowerCase().contains(newVal.toLowerCase()))
-                        .collect(java.util.stream.Collectors.toList());
-                listView.getItems().setAll(filtered);
-            });
-        } catch (IOException e) { e.printStackTrace(); }
+        // 2. 加载数据（从笔记目录获取所有笔记），匹配器只构建一次
+        FuzzyMatcher matcher = new FuzzyMatcher(NoteCatalog.getInstance().titles());
+        listView.getItems().setAll(toTitles(matcher.match("", QUICK_OPEN_LIMIT)));
+
+        // 3. 模糊匹配 + 排序 (支持拼音首字母)
+        searchBar.textProperty().addListener((obs, oldVal, newVal) ->
+                listView.getItems().setAll(toTitles(matcher.match(newVal, QUICK_OPEN_LIMIT))));
 
         container.getChildren().addAll(searchBar, new Label("最近打开的文件"), listView);
 
@@ -1926,6 +2222,113 @@ public class MainController {
         popupStage.show();
     }
 
+    private static List<String> toTitles(List<FuzzyMatcher.Result> results) {
+        List<String> titles = new ArrayList<>(results.size());
+        for (FuzzyMatcher.Result result : results) titles.add(result.text());
+        return titles;
+    }
+
+    /**
+     * 在所有笔记中查找 (支持正则，逐个文件流式显示结果)
+     */
+    @FXML
+    private void handleSearchInNotes() {
+        VBox container = new VBox(8);
+        container.setPadding(new javafx.geometry.Insets(10));
+
+        TextField searchBar = new TextField();
+        searchBar.setPromptText("在所有笔记中查找");
+        searchBar.setStyle("-fx-font-size: 14px;");
+        CheckBox regexBox = new CheckBox("正则表达式");
+        CheckBox caseBox = new CheckBox("区分大小写");
+        Label statusLabel = new Label();
+        HBox options = new HBox(12, regexBox, caseBox, statusLabel);
+
+        ListView<VaultGrep.Match> listView = new ListView<>();
+        javafx.scene.layout.VBox.setVgrow(listView, javafx.scene.layout.Priority.ALWAYS);
+        listView.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(VaultGrep.Match item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                } else {
+                    setText(item.title() + ":" + item.line() + ":" + item.column() + "  " + item.lineText());
+                }
+            }
+        });
+
+        container.getChildren().addAll(searchBar, options, listView);
+
+        javafx.stage.Stage popupStage = new javafx.stage.Stage();
+        popupStage.initOwner(rootContainer.getScene().getWindow());
+        popupStage.setTitle("在所有笔记中查找");
+        popupStage.setScene(new javafx.scene.Scene(container, 640, 420));
+
+        // 当前正在进行的搜索 (查询变化或关闭窗口时取消)
+        VaultGrep[] running = new VaultGrep[1];
+        javafx.animation.PauseTransition searchDelay = new javafx.animation.PauseTransition(javafx.util.Duration.millis(200));
+        searchDelay.setOnFinished(e -> {
+            if (running[0] != null) running[0].cancel();
+            listView.getItems().clear();
+            String query = searchBar.getText();
+            if (query == null || query.isEmpty()) {
+                statusLabel.setText("");
+                return;
+            }
+            java.util.regex.Pattern pattern;
+            try {
+                pattern = VaultGrep.compile(query, regexBox.isSelected(), caseBox.isSelected());
+            } catch (java.util.regex.PatternSyntaxException ex) {
+                statusLabel.setText("正则表达式有误");
+                return;
+            }
+            statusLabel.setText("搜索中...");
+            long startTime = System.currentTimeMillis();
+            int[] timedOut = {0};
+            running[0] = VaultGrep.start(FileUtil.storage(), pattern, javafx.application.Platform::runLater,
+                    batch -> {
+                        for (VaultGrep.FileResult result : batch) {
+                            listView.getItems().addAll(result.matches());
+                            if (result.timedOut()) timedOut[0]++;
+                        }
+                    },
+                    fileCount -> statusLabel.setText(listView.getItems().size() + " 处匹配，扫描 " + fileCount
+                            + " 个文件，用时 " + (System.currentTimeMillis() - startTime) + " ms"
+                            + (timedOut[0] > 0 ? "，" + timedOut[0] + " 个文件匹配超时" : "")));
+        });
+        searchBar.textProperty().addListener((obs, oldVal, newVal) -> searchDelay.playFromStart());
+        regexBox.selectedProperty().addListener((obs, oldVal, newVal) -> searchDelay.playFromStart());
+        caseBox.selectedProperty().addListener((obs, oldVal, newVal) -> searchDelay.playFromStart());
+        popupStage.setOnHidden(e -> {
+            searchDelay.stop();
+            if (running[0] != null) running[0].cancel();
+        });
+
+        // 双击或回车：打开笔记并定位到命中位置
+        Runnable openSelected = () -> {
+            VaultGrep.Match match = listView.getSelectionModel().getSelectedItem();
+            if (match == null) return;
+            loadNoteContent(match.title());
+            if (!editorArea.isVisible()) showEditor(true);
+            javafx.application.Platform.runLater(() -> selectAndScrollTo(match.offset(), match.length()));
+        };
+        listView.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) openSelected.run();
+        });
+        listView.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) openSelected.run();
+        });
+        searchBar.setOnAction(e -> {
+            if (!listView.getItems().isEmpty()) {
+                listView.getSelectionModel().selectFirst();
+                listView.requestFocus();
+            }
+        });
+
+        popupStage.show();
+    }
+
     @FXML
     private void handleNewWindow() {
         try {
@@ -1950,6 +2353,7 @@ public class MainController {
         if (file != null) {
             try {
                 String content = FileUtil.readFromExternal(file);
+                flushIfDirty(); // 先保存正在编辑的笔记
                 editorArea.setText(content);
                 currentNoteTitle = ""; // 清空当前标题，防止误删库内同名文件
                 handleEditMode();
@@ -1990,11 +2394,12 @@ public class MainController {
 
         // 构建显示内容
         String content = String.format(
-                "最后心情: %s\n复习次数: %d\n下次复习: %s\n创建日期: %s",
+                "最后心情: %s\n复习次数: %d\n下次复习: %s\n创建日期: %s\n标签: %s",
                 meta.lastMood != null ? meta.lastMood : "无记录",
                 meta.reviewCount,
                 meta.nextReviewDate != null ? meta.nextReviewDate : "未排期",
-                meta.createDate != null ? meta.createDate : "未知"
+                meta.createDate != null ? meta.createDate : "未知",
+                meta.tags == null || meta.tags.isEmpty() ? "无" : "#" + String.join(" #", new TreeSet<>(meta.tags.keySet()))
         );
 
         alert.setContentText(content);
@@ -2068,7 +2473,7 @@ public class MainController {
 
     /**
      * 撤销操作
-     * TextArea 内部维护了一个修改历史栈
+     * SourceEditor 内部维护了一个修改历史栈
      */
     @FXML
     private void handleUndo() {
@@ -2141,7 +2546,6 @@ public class MainController {
      */
     private void updateMatchStatus(boolean performHighlight) {
         String query = editorFindField.getText();
-        String content = editorArea.getText();
 
         // 1. 如果搜索框为空，清空标签
         if (!editorFindPane.isVisible() || editorFindField.getText().isEmpty()) {
@@ -2150,29 +2554,18 @@ public class MainController {
             return;
         }
         if (editorArea.isVisible()) {
-            String target = query;
-            String textToSearch = content;
-
-            int totalMatches = 0;
-            int currentMatchIndex = 0;
+            // 命中位置由 documentModel 按版本缓存，移动光标时不再重新扫描全文
+            int[] matches = documentModel.matches(query);
 
             // 获取参照位置 (选区起点 或 光标位置)
             int anchorPos = editorArea.getCaretPosition();
-            if (editorArea.getSelectedText().length() > 0) {
+            if (editorArea.getSelection().getLength() > 0) {
                 anchorPos = editorArea.getSelection().getStart();
             }
 
-            // 遍历统计
-            int index = 0;
-            while ((index = textToSearch.indexOf(target, index)) != -1) {
-                totalMatches++;
-                if (index <= anchorPos) {
-                    currentMatchIndex = totalMatches;
-                }
-                index += target.length();
-            }
-
-            updateLabelUI(currentMatchIndex, totalMatches);
+            // 起点 <= 参照位置的命中个数，就是当前是第几个
+            int currentMatchIndex = upperBound(matches, anchorPos);
+            updateLabelUI(currentMatchIndex, matches.length);
         }
 
         // =========================================================
@@ -2198,6 +2591,17 @@ public class MainController {
         }
     }
 
+    // 有序数组中 <= value 的元素个数
+    private static int upperBound(int[] sorted, int value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
     /**
      * 辅助：更新 UI 标签颜色和文字
      */
@@ -2252,152 +2656,88 @@ public class MainController {
 
         // 4. 回车
         editorFindField.setOnAction(e -> findNext());
+
+        // 5. 正文改动后刷新计数 (命中位置随文档版本重新计算一次)
+        documentModel.addListener(model -> {
+            if (editorFindPane.isVisible() && editorArea.isVisible()) updateMatchStatus(false);
+        });
     }
 
     private void updatePreview() {
-        String mdContent = editorArea.getText();
-        if (mdContent == null) mdContent = "";
+        // Rope 不可变，交给工作线程再拼成字符串
+        final Rope md = documentModel.text();
+        final long version = documentModel.version();
+        // 预计需要整体替换正文时，整页 HTML 也在后台拼好
+        final boolean needFullPage = !previewPageReady;
 
-        // 1. 解析 Markdown
-        String markdownHtml = MarkdownParser.parse(mdContent);
+        renderScheduler.submit(version, () -> {
+            // 1. 切块并只渲染变化的块 (工作线程)
+            IncrementalRenderer.Result result = previewRenderer.render(md.toString());
+            return new PreviewRender(result, result.getPatchesJson(), needFullPage ? result.getFullHtml() : null);
+        }, this::applyPreviewRender);
+    }
 
-        // 2. 获取主题 CSS
-        String themeCss = getThemeRenderCss();
+    /**
+     * UI 线程：把后台渲染结果交给 WebView
+     */
+    private void applyPreviewRender(PreviewRender render) {
+        // 外壳页面里已有正文时，直接把补丁推进现有 DOM
+        if (previewPageReady && previewShell.isReady() && applyPreviewPatches(render)) {
+            if (pendingScrollLine >= 0) {
+                previewShell.scrollToBlock(previewRenderer.blockPosition(pendingScrollLine));
+                pendingScrollLine = -1; // 用完即弃
+            }
+            return;
+        }
+        String fullHtml = render.fullHtml() != null ? render.fullHtml() : render.result().getFullHtml();
+        previewShell.whenReady(() -> setPreviewContent(render.result(), fullHtml));
+    }
 
-        // 3. Base URL
-        File notesDir = new File("notes/");
-        String baseUrl = notesDir.toURI().toString();
+    /**
+     * 通过 JS 桥把增量补丁应用到外壳页面
+     * @return false 表示补丁失败 (页面状态不一致)，需要整体替换正文
+     */
+    private boolean applyPreviewPatches(PreviewRender render) {
+        IncrementalRenderer.Result result = render.result();
+        if (result.getPatches().isEmpty()) {
+            return previewRenderer.commit(result);
+        }
+        try {
+            int count = previewShell.applyPatches(render.patchesJson());
+            if (count == result.getBlockCount() && previewRenderer.commit(result)) {
+                refreshPreviewHighlights(); // 被替换的块丢失了搜索高亮
+                return true;
+            }
+        } catch (Exception e) {
+            System.err.println("预览补丁失败，整体替换正文: " + e.getMessage());
+        }
+        return false;
+    }
 
-        // 4. --- 生成自动滚动和显形的 JS ---
-        // 关键：Locale.US 确保小数是点号 (0.5) 而不是逗号
-        String scrollLogic = "";
-        if (pendingScrollRatio >= 0) {
-            String ratioStr = String.format(java.util.Locale.US, "%.4f", pendingScrollRatio);
-            scrollLogic = """
-                try {
-                    var ratio = %s;
-                    var h = document.body.scrollHeight;
-                    var v = window.innerHeight;
-                    if (ratio <= 0.05) window.scrollTo(0, 0);
-                    else if (ratio >= 0.95) window.scrollTo(0, h);
-                    else window.scrollTo(0, (h - v) * ratio);
-                } catch(e) { console.error(e); }
-                """.formatted(ratioStr);
-            pendingScrollRatio = -1; // 用完即弃
-        }
-
-        // 5. 组装 JS
-        String jsScript = """
-            <script>
-                // 搜索高亮逻辑 (保留你原来的代码)
-                function removeHighlights() {
-                    const highlights = document.querySelectorAll('span.search-highlight');
-                    highlights.forEach(span => {
-                        const parent = span.parentNode;
-                        parent.replaceChild(document.createTextNode(span.textContent), span);
-                        parent.normalize();
-                    });
-                }
-                function highlightAll(keyword) {
-                    removeHighlights();
-                    if (!keyword) return 0;
-                    const walk = document.createTreeWalker(document.body, NodeFilter.SHOW_TEXT, null, false);
-                    const nodes = [];
-                    while(walk.nextNode()) nodes.push(walk.currentNode);
-                    let count = 0;
-                    const escapeRegExp = (string) => string.replace(/[.*+?^${}()|[\\]\\\\]/g, '\\\\$&');
-                    const regex = new RegExp('(' + escapeRegExp(keyword) + ')', 'gi');
-                    nodes.forEach(node => {
-                        if (node.parentNode.nodeName === "SCRIPT" || node.parentNode.nodeName === "STYLE") return;
-                        const text = node.nodeValue;
-                        if (regex.test(text)) {
-                            const fragment = document.createDocumentFragment();
-                            let lastIdx = 0;
-                            text.replace(regex, (match, p1, offset) => {
-                                fragment.appendChild(document.createTextNode(text.slice(lastIdx, offset)));
-                                const span = document.createElement('span');
-                                span.className = 'search-highlight';
-                                span.textContent = match;
-                                if (count === 0) span.id = 'first-match';
-                                fragment.appendChild(span);
-                                lastIdx = offset + match.length;
-                                count++;
-                            });
-                            fragment.appendChild(document.createTextNode(text.slice(lastIdx)));
-                            node.parentNode.replaceChild(fragment, node);
-                        }
-                    });
-                    const first = document.getElementById('first-match');
-                    if (first) first.scrollIntoView({behavior: "smooth", block: "center"});
-                    return count;
-                }
-                function scrollToHeading(index) {
-                    const headers = document.querySelectorAll('h1, h2, h3, h4, h5, h6');
-                    if (headers[index]) {
-                        headers[index].scrollIntoView({behavior: "smooth", block: "start"});
-                        headers[index].style.transition = "background-color 0.5s";
-                        const originalBg = headers[index].style.backgroundColor;
-                        headers[index].style.backgroundColor = "var(--flash-bg)";
-                        setTimeout(() => { headers[index].style.backgroundColor = originalBg; }, 1000);
-                    }
-                }
+    /**
+     * 标记当前预览正文作废，下一次 updatePreview 会整体替换正文
+     */
+    private void invalidatePreviewPage() {
+        previewPageReady = false;
+        previewRenderer.reset();
+    }
 
-                // --- 核心：页面加载完成后执行滚动并显示 ---
-                window.addEventListener('load', function() {
-                    // 1. 执行滚动计算 (瞬间完成)
-                    %s
-                    
-                    // 2. 显示页面 (解除透明状态)
-                    document.body.style.opacity = '1';
-                });
+    /**
+     * 整体替换预览正文 (首次渲染、切换笔记、补丁失败时)，外壳页面和脚本保持不动
+     */
+    private void setPreviewContent(IncrementalRenderer.Result result, String markdownHtml) {
+        previewRenderer.commitFull(result);
+        previewShell.setContent(markdownHtml, pendingScrollLine >= 0 ? previewRenderer.blockPosition(pendingScrollLine) : -1);
+        pendingScrollLine = -1; // 用完即弃
+        previewPageReady = true; // 之后的编辑可以直接打补丁
+        refreshPreviewHighlights();
+    }
 
-                // --- 双重保险：防止 JS 报错导致永久白屏 ---
-                setTimeout(function() {
-                     document.body.style.opacity = '1';
-                }, 300);
-                      function scrollToMatch(index) {
-                                         const highlights = document.querySelectorAll('span.search-highlight');
-                                         if (highlights.length === 0) return -1;
-                
-                                         // 循环逻辑：超限归零，负数去末尾
-                                         if (index >= highlights.length) index = 0;
-                                         if (index < 0) index = highlights.length - 1;
-                
-                                         // 重置颜色为黄色
-                                         highlights.forEach(span => span.style.backgroundColor = "#ffeb3b");\s
-                
-                                         // 选中目标为橙色
-                                         const target = highlights[index];
-                                         target.style.backgroundColor = "#ff9800";\s
-                                         target.style.color = "white"; // 文字白色更清晰
-                                         target.scrollIntoView({behavior: "smooth", block: "center"});
-                
-                                         return index; // 返回修正后的索引
-                                    }    
-            </script>
-            """.formatted(scrollLogic);
-
-        String fullHtml = "<!DOCTYPE html>"
-                + "<html>"
-                + "<head>"
-                + "    <meta charset=\"UTF-8\">"
-                + "    <base href=\"" + baseUrl + "\">"
-                + "    <style>"
-                + themeCss
-                + "        .search-highlight { background-color: #ffeb3b !important; color: #000 !important; }"
-                + "    </style>"
-                + "</head>"
-                + "<body>"
-                + markdownHtml
-                + jsScript
-                + "</body>"
-                + "</html>";
-
-        // 绑定 LoadWorker 监听器 (只负责 Java 端的保险逻辑，不再负责滚动)
-        webView.getEngine().getLoadWorker().stateProperty().removeListener(this::onWebViewLoadStateChanged);
-        webView.getEngine().getLoadWorker().stateProperty().addListener(this::onWebViewLoadStateChanged);
-
-        webView.getEngine().loadContent(fullHtml);
+    // 查找框没关且有字时，重新标一遍预览里的搜索高亮
+    private void refreshPreviewHighlights() {
+        if (editorFindPane.isVisible() && !editorFindField.getText().isEmpty()) {
+            updateMatchStatus(true);
+        }
     }
     private void selectAndScrollTo(int index, int length) {
         // 1. 必须先让编辑器获取焦点，否则用户看不见光标闪烁
@@ -2444,20 +2784,15 @@ public class MainController {
         if (query == null || query.isEmpty()) return;
 
         // =================================================
-        // 场景 A: 编辑器模式 (TextArea)
+        // 场景 A: 编辑器模式 (SourceEditor)
         // =================================================
         if (editorArea.isVisible()) {
-            String content = editorArea.getText();
-            // 从选区头部开始往前找
-            int currentPos = editorArea.getSelection().getStart();
-            int index = content.lastIndexOf(query, currentPos - 1);
-
-            if (index != -1) {
+            int[] matches = documentModel.matches(query);
+            if (matches.length > 0) {
+                // 从选区头部开始往前找：起点 < 选区起点的最后一个，没有就循环到最后一个
+                int before = upperBound(matches, editorArea.getSelection().getStart() - 1);
+                int index = before > 0 ? matches[before - 1] : matches[matches.length - 1];
                 selectAndScrollTo(index, query.length());
-            } else {
-                // 循环查找：从尾部开始
-                int retry = content.lastIndexOf(query);
-                if (retry != -1) selectAndScrollTo(retry, query.length());
             }
             updateMatchStatus(true);
         }
@@ -2489,19 +2824,15 @@ public class MainController {
         if (query == null || query.isEmpty()) return;
 
         // =================================================
-        // 场景 A: 编辑器模式 (TextArea)
+        // 场景 A: 编辑器模式 (SourceEditor)
         // =================================================
         if (editorArea.isVisible()) {
-            String content = editorArea.getText();
-            int currentPos = editorArea.getCaretPosition();
-            int index = content.indexOf(query, currentPos);
-
-            if (index != -1) {
+            int[] matches = documentModel.matches(query);
+            if (matches.length > 0) {
+                // 起点 >= 光标的第一个，没有就循环到第一个
+                int after = upperBound(matches, editorArea.getCaretPosition() - 1);
+                int index = after < matches.length ? matches[after] : matches[0];
                 selectAndScrollTo(index, query.length());
-            } else {
-                // 循环查找：从头开始
-                int retry = content.indexOf(query);
-                if (retry != -1) selectAndScrollTo(retry, query.length());
             }
             updateMatchStatus(true);
         }
@@ -2541,12 +2872,7 @@ public class MainController {
      * 辅助方法：在当前行首插入符号（用于标题、列表）
      */
     private void insertAtLineStart(String prefix) {
-        int caretPos = editorArea.getCaretPosition();
-        String text = editorArea.getText();
-
-        // 向前查找最近的一个换行符，确定行首位置
-        // 如果 caretPos 是 0，lastIndexOf 返回 -1，结果正是 0 (正确)
-        int lineStart = text.lastIndexOf('\n', caretPos - 1) + 1;
+        int lineStart = getLineStartPosition(editorArea.getCaretPosition());
 
         editorArea.insertText(lineStart, prefix + " ");
         editorArea.requestFocus();
@@ -2579,7 +2905,7 @@ public class MainController {
      * @param isOrdered true=有序列表(1. 2.), false=无序列表(- )
      */
     private void processListAction(boolean isOrdered) {
-        String text = editorArea.getText();
+        Rope text = documentModel.text();
         IndexRange selection = editorArea.getSelection();
 
         // 1. 确定我们要处理的文本范围（扩展到行首和行尾）
@@ -2587,12 +2913,12 @@ public class MainController {
         int end = selection.getEnd();
 
         // 找到第一行的行首
-        int lineStart = (start == 0) ? 0 : text.lastIndexOf('\n', start - 1) + 1;
+        int firstLine = documentModel.lineOf(start);
+        int lineStart = documentModel.lineStart(firstLine);
         // 找到最后一行的行尾
-        int lineEnd = text.indexOf('\n', end);
-        if (lineEnd == -1) lineEnd = text.length();
+        int lineEnd = documentModel.lineEnd(documentModel.lineOf(end));
 
-        // 2. 截取这段完整的文本
+        // 2. 截取这段完整的文本 (只取这几行)
         String selectedContent = text.substring(lineStart, lineEnd);
         String[] lines = selectedContent.split("\n", -1); // -1 保留空行结构
 
@@ -2602,8 +2928,8 @@ public class MainController {
         // 3. 如果是有序列表，先侦测上一行的数字
         if (isOrdered && lineStart > 0) {
             // 往前找一行
-            int prevLineEnd = lineStart - 1;
-            int prevLineStart = text.lastIndexOf('\n', prevLineEnd - 1) + 1;
+            int prevLineEnd = documentModel.lineEnd(firstLine - 1);
+            int prevLineStart = documentModel.lineStart(firstLine - 1);
             if (prevLineStart >= 0 && prevLineEnd > prevLineStart) {
                 String prevLine = text.substring(prevLineStart, prevLineEnd);
                 // 正则匹配行首的数字 (例如 "1. " 或 "10. ")
@@ -2658,7 +2984,6 @@ public class MainController {
      */
     private boolean handleAutoList() {
         int caretPos = editorArea.getCaretPosition();
-        String text = editorArea.getText();
 
         // 防止在文件最开始按回车报错
         if (caretPos == 0) return false;
@@ -2666,8 +2991,8 @@ public class MainController {
         int start = getLineStartPosition(caretPos);
         int end = caretPos;
 
-        // 获取当前行光标之前的内容
-        String currentLine = text.substring(start, end);
+        // 获取当前行光标之前的内容 (只取这一段，不拼全文)
+        String currentLine = documentModel.text().substring(start, end);
 
         // --- 1. 判断有序列表 (匹配 "1. ", "2. " 等) ---
         java.util.regex.Pattern orderedPattern = java.util.regex.Pattern.compile("^(\\d+)\\.\\s.*");
@@ -2707,11 +3032,9 @@ public class MainController {
         return false;
     }
 
-    // 辅助方法：获取行首位置
+    // 辅助方法：获取行首位置 (查 documentModel 的行索引)
     private int getLineStartPosition(int caretPos) {
-        String text = editorArea.getText();
-        int lastNewLine = text.lastIndexOf('\n', caretPos - 1);
-        return (lastNewLine == -1) ? 0 : lastNewLine + 1;
+        return documentModel.lineStart(documentModel.lineOf(caretPos));
     }
 //    @FXML private void handleTaskList() { insertAtLineStart("- [ ]"); }
     @FXML private void handleBlockquote() { insertAtLineStart(">"); }
@@ -2736,19 +3059,15 @@ public class MainController {
 
         // 仅在编辑模式下执行“选中”动作
         if (editorArea.isVisible()) {
-            String content = editorArea.getText();
+            int[] matches = documentModel.matches(query);
 
             // 策略：从当前光标位置开始找，为了让用户看到最近的一个
-            int startPos = editorArea.getCaretPosition();
-            int index = content.indexOf(query, startPos);
-
             // 如果后面没有，就从头找
-            if (index == -1) {
-                index = content.indexOf(query);
-            }
+            int after = upperBound(matches, editorArea.getCaretPosition() - 1);
+            int index = after < matches.length ? matches[after] : matches.length > 0 ? matches[0] : -1;
 
             if (index != -1) {
-                // 【关键步骤】选中它！这就是 TextArea 的“高亮”
+                // 【关键步骤】选中它！这就是编辑器的“高亮”
                 editorArea.positionCaret(index);
                 editorArea.selectRange(index, index + query.length());
             }
@@ -3075,21 +3394,48 @@ public class MainController {
      * @param oldFullName  旧文件名 (用于判断是否是当前打开的文件)
      */
     private void syncH1TitleInFile(String fullFileName, String newTitle, String oldFullName) throws IOException {
-        String content;
-        boolean isCurrentFile = currentNoteTitle.equals(oldFullName);
+        // 改名时 currentNoteTitle 可能已经换成新名字
+        boolean isCurrentFile = currentNoteTitle.equals(oldFullName) || currentNoteTitle.equals(fullFileName);
 
-        // 1. 获取内容
         if (isCurrentFile) {
-            // 如果改的是当前正在编辑的文件，直接从编辑器拿最新内容
-            content = editorArea.getText();
-        } else {
-            // 如果改的是后台文件，从硬盘读 (注意：此时文件已经被 rename 到 fullFileName 了)
-            content = FileUtil.read(fullFileName);
+            // 如果改的是当前正在编辑的文件，直接在编辑器里只改标题这一行 (按标题索引定位，不复制全文)
+            HeadingIndex.Heading h1 = null;
+            for (HeadingIndex.Heading h : documentModel.headings()) {
+                if (h.level() == 1) {
+                    h1 = h;
+                    break;
+                }
+            }
+            String newLine = "# " + newTitle;
+            if (h1 == null) {
+                // 没找到标题，帮他加上
+                editorArea.insertText(0, newLine + "\n\n");
+            } else {
+                int lineEnd = documentModel.lineEnd(documentModel.lineOf(h1.offset()));
+                if (!documentModel.text().substring(h1.offset(), lineEnd).equals(newLine)) {
+                    // 记住光标位置
+                    int caret = editorArea.getCaretPosition();
+                    editorArea.replaceText(h1.offset(), lineEnd, newLine);
+                    // 尽量恢复光标（如果标题变短了可能会越界，简单处理一下）
+                    editorArea.positionCaret(Math.min(caret, editorArea.getLength()));
+                }
+            }
+
+            // 保存回硬盘，更新状态变量
+            FileUtil.save(fullFileName, documentModel.text().toString());
+            currentNoteTitle = fullFileName; // 更新内存中的文件名
+            markClean(); // 新内容刚写入磁盘
+            if (webView.isVisible()) {
+                updatePreview();
+            }
+            return;
         }
 
+        // 如果改的是后台文件，从硬盘读 (注意：此时文件已经被 rename 到 fullFileName 了)
+        String content = FileUtil.read(fullFileName);
         if (content == null) content = "";
 
-        // 2. 使用正则替换第一个 H1 标题
+        // 使用正则替换第一个 H1 标题
         // (?m) 开启多行模式，^ 匹配行首
         // 匹配以 # 开头，后面跟一个空格，然后是任意文字的行
         // 替换为 # 新标题
@@ -3102,26 +3448,8 @@ public class MainController {
             newContent = "# " + newTitle + "\n\n" + content;
         }
 
-        // 3. 保存回硬盘
+        // 保存回硬盘
         FileUtil.save(fullFileName, newContent);
-
-        // 4. 如果是当前文件，还需要刷新编辑器显示和状态变量
-        if (isCurrentFile) {
-            currentNoteTitle = fullFileName; // 更新内存中的文件名
-
-            // 只有当内容真的变了才刷新编辑器（防止光标跳动太厉害）
-            if (!editorArea.getText().equals(newContent)) {
-                // 记住光标位置
-                int caret = editorArea.getCaretPosition();
-                editorArea.setText(newContent);
-                // 尽量恢复光标（如果标题变短了可能会越界，简单处理一下）
-                editorArea.positionCaret(Math.min(caret, newContent.length()));
-            }
-            if (webView.isVisible()) {
-                updatePreview();
-            }
-        }
-
     }
 
 
@@ -3136,10 +3464,8 @@ public class MainController {
     @FXML
     private void handleOpenHelp() {
         String helpFileName = "DeepMind_Help"; // 帮助文件的文件名（不带后缀）
-        File helpFile = new File("notes/" + helpFileName + ".md");
-
         // 1. 如果文件不存在，自动创建并写入默认内容
-        if (!helpFile.exists()) {
+        if (!NoteCatalog.getInstance().contains(helpFileName)) {
             try {
                 FileUtil.save(helpFileName, HELP_MARKDOWN_CONTENT);
                 // 刷新左侧文件树，让新文件显示出来
@@ -3174,27 +3500,9 @@ public class MainController {
      * (这个方法对于提升体验很重要，让左侧列表高亮当前打开的文件)
      */
     private void selectFileInTree(String targetFileName) {
-        if (fileTree.getRoot() == null) return;
-
-        // 遍历所有节点寻找目标
-        for (TreeItem<String> category : fileTree.getRoot().getChildren()) {
-            // 如果是未分类的直接节点
-            if (category.getValue().equals(targetFileName)) {
-                fileTree.getSelectionModel().select(category);
-                return;
-            }
-            // 遍历子节点
-            for (TreeItem<String> note : category.getChildren()) {
-                // 注意：树节点里的 value 可能是 "分类_文件名" 也可能是 "文件名"
-                // 你的逻辑里 TreeItem 存的是 fullFileName (比如 "DeepMind_Help")
-                if (note.getValue().equals(targetFileName)) {
-                    category.setExpanded(true); // 展开文件夹
-                    fileTree.getSelectionModel().select(note); // 选中
-                    fileTree.scrollTo(fileTree.getRow(note)); // 滚动到可见位置
-                    return;
-                }
-            }
-        }
+        refreshFileTree();
+        // 按标题直接取节点，展开上级文件夹、选中并滚动到可见位置
+        treeModel.select(targetFileName);
     }
 
 
@@ -3207,12 +3515,8 @@ public class MainController {
         if (!item.isLeaf()) return true; // 有子节点肯定是文件夹
 
         // 如果是叶子节点，检查硬盘上是否存在该文件
-        // 注意：FileUtil.listAllNotes() 返回的是全名，但这里我们需要构建路径判断
-        String potentialFileName = item.getValue() + ".md";
-        File f = new File("notes/" + potentialFileName);
-
         // 如果文件存在，它是笔记；如果不存在（且它是树上的有效节点），它是空文件夹
-        return !f.exists();
+        return !NoteCatalog.getInstance().contains(item.getValue());
     }
 
 
@@ -3512,7 +3816,6 @@ DeepMind Note 拥有强大的图片管理功能：
             quoteBorder = "#dfe2e5"; quoteText = "#57606a";
         }
 
-        // --- 核心修改：body 增加了 opacity: 0 和 transition ---
         return String.format("""
         body {
             --flash-bg: %3$s;
@@ -3523,10 +3826,6 @@ DeepMind Note 拥有强大的图片管理功能：
             line-height: 1.6;
             padding: 20px 30px;
             margin: 0;
-            
-            /* 【关键】默认透明，等待 JS 计算好位置后再显示，防止闪烁 */
-            opacity: 0; 
-            transition: opacity 0.1s ease-in;
         }
         h1, h2, h3, h4, h5, h6 { color: %2$s !important; font-weight: 600; margin-top: 24px; margin-bottom: 16px; line-height: 1.25; }
         h1, h2 { border-bottom: 1px solid %11$s; padding-bottom: 0.3em; }
@@ -3581,28 +3880,19 @@ DeepMind Note 拥有强大的图片管理功能：
     private void showEditor(boolean editMode) {
         if (editorArea.isVisible() == editMode) return;
 
-        // === 1. 记录当前位置比例 (0.0 ~ 1.0) ===
-        double currentRatio = 0;
+        // === 1. 记录当前位置 (视口顶部对应的源码行，按块和行号换算，不再用整页比例) ===
+        double currentLine = 0;
 
         if (editorArea.isVisible()) {
             // 编辑器 -> 预览
-            ScrollBar vBar = (ScrollBar) editorArea.lookup(".scroll-bar:vertical");
-            if (vBar != null && vBar.getMax() > 0) {
-                currentRatio = vBar.getValue() / vBar.getMax();
-                updateEditModeIcon(false);
-            }
+            currentLine = editorArea.getTopLine();
+            updateEditModeIcon(false);
         } else if (webView.isVisible()) {
-            // 预览 -> 编辑器
+            // 预览 -> 编辑器：顶部的块 -> 块的源码行
             try {
-                int scrollTop = (Integer) webView.getEngine().executeScript("document.documentElement.scrollTop || document.body.scrollTop");
-                int scrollHeight = (Integer) webView.getEngine().executeScript("document.documentElement.scrollHeight || document.body.scrollHeight");
-                int clientHeight = (Integer) webView.getEngine().executeScript("document.documentElement.clientHeight || document.body.clientHeight");
-                int maxScrollable = scrollHeight - clientHeight;
-                if (maxScrollable > 0) {
-                    currentRatio = (double) scrollTop / maxScrollable;
-                }
+                currentLine = previewRenderer.linePosition(previewShell.topBlockPosition());
             } catch (Exception e) {
-                currentRatio = 0;
+                currentLine = 0;
             }
             updateEditModeIcon(true);
         }
@@ -3617,23 +3907,13 @@ DeepMind Note 拥有强大的图片管理功能：
         if (editMode) {
             // ---> 切回编辑器
             editorArea.requestFocus();
-            final double targetRatio = currentRatio;
-            javafx.application.Platform.runLater(() -> {
-                ScrollBar vBar = (ScrollBar) editorArea.lookup(".scroll-bar:vertical");
-                if (vBar != null) {
-                    if (targetRatio <= 0.05) vBar.setValue(0);
-                    else if (targetRatio >= 0.95) vBar.setValue(vBar.getMax());
-                    else vBar.setValue(targetRatio * vBar.getMax());
-                }
-            });
+            final double targetLine = currentLine;
+            javafx.application.Platform.runLater(() -> editorArea.setTopLine(targetLine));
         } else {
             // ---> 切回预览
             try { handleSave(); } catch (Exception e) {}
 
-            pendingScrollRatio = currentRatio;
-
-            // 【关键】这里不需要手动 setOpacity(0) 了
-            // 因为 getThemeRenderCss 里生成的 CSS 默认 body opacity 就是 0
+            pendingScrollLine = currentLine;
             updatePreview();
         }
     }
@@ -0,0 +1,299 @@
+package com.deepmind.controller;
+
+import com.deepmind.util.NoteCatalog;
+import javafx.event.Event;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件树模型 (按 "_" 拆出的虚拟文件夹)
+ * 1. 按需展开：文件夹默认折叠，第一次展开时才向 NoteCatalog 要它的直接下级并创建节点，
+ *    所以节点数量与展开过的部分成正比，而不是与笔记总数成正比；文件夹旁的笔记数直接从目录里数 (二分查找)。
+ * 2. 已创建的文件夹按完整路径 ("A_B")、笔记按标题放在哈希表里，查找节点都是 O(1)；
+ *    兄弟节点始终有序 (文件夹在前，按名字排)，新节点用二分查找插入。
+ * 3. 目录变化时只增删已创建的受影响节点，展开和选中状态保持不变。
+ */
+class NoteTreeModel {
+
+    /**
+     * 文件夹节点：记录完整路径和是否已创建下级
+     */
+    static final class FolderItem extends TreeItem<String> {
+        private String path;
+        private boolean loaded = false;
+
+        private FolderItem(String name, String path) {
+            super(name);
+            this.path = path;
+        }
+
+        // 没展开过的文件夹也要显示展开箭头
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    // 兄弟节点顺序：文件夹在前，然后按显示名
+    private static final Comparator<TreeItem<String>> ORDER = Comparator
+            .comparing((TreeItem<String> item) -> !(item instanceof FolderItem))
+            .thenComparing(NoteTreeModel::displayName);
+
+    private final TreeView<String> treeView;
+    private final NoteCatalog catalog = NoteCatalog.getInstance();
+    private final FolderItem root = new FolderItem("Root", "");
+
+    private final Map<String, FolderItem> folders = new HashMap<>(); // "A_B" -> 已创建的文件夹节点，根为 ""
+    private final Map<String, TreeItem<String>> notes = new HashMap<>(); // 标题 -> 已创建的笔记节点
+
+    // 模型自己调整选中项时为 true，选中监听器据此忽略 (不重新加载笔记)
+    private boolean adjusting = false;
+
+    NoteTreeModel(TreeView<String> treeView) {
+        this.treeView = treeView;
+        folders.put("", root);
+        root.setExpanded(true);
+        load(root);
+    }
+
+    TreeItem<String> getRoot() {
+        return root;
+    }
+
+    boolean isAdjusting() {
+        return adjusting;
+    }
+
+    /**
+     * 文件夹 (含子文件夹) 里的笔记数，不是文件夹返回 -1
+     */
+    int noteCount(TreeItem<String> item) {
+        if (!(item instanceof FolderItem folder)) return -1;
+        return catalog.countWithPrefix(folder.path.isEmpty() ? "" : folder.path + "_");
+    }
+
+    /**
+     * 应用目录变化
+     * 被删除的节点如果正处于选中状态就取消选中；重命名 (同一批里一删一增) 后选中新节点。
+     */
+    void apply(List<NoteCatalog.Change> changes) {
+        TreeItem<String> selected = treeView.getSelectionModel().getSelectedItem();
+        String renamedTo = null;
+
+        adjusting = true;
+        try {
+            for (NoteCatalog.Change change : changes) {
+                switch (change.type()) {
+                    case REMOVED -> removeNote(change.title());
+                    case ADDED -> {
+                        addNote(change.title());
+                        renamedTo = change.title();
+                    }
+                    case MODIFIED -> { }
+                }
+                if (change.type() != NoteCatalog.ChangeType.MODIFIED) refreshCounts(change.title());
+            }
+            boolean selectionRemoved = selected != null && treeView.getSelectionModel().getSelectedItem() == null;
+            if (selectionRemoved && renamedTo != null && changes.size() == 2) {
+                select(renamedTo);
+            }
+        } finally {
+            adjusting = false;
+        }
+    }
+
+    /**
+     * 笔记对应的节点；所在文件夹还没展开过时返回 null
+     */
+    TreeItem<String> itemOf(String title) {
+        return notes.get(title);
+    }
+
+    /**
+     * 选中笔记节点：逐级展开上级文件夹 (按需创建节点) 并滚动到可见位置
+     * @return 是否找到
+     */
+    boolean select(String title) {
+        if (!catalog.contains(title)) return false;
+        int sep = title.lastIndexOf('_');
+        expandPath(sep < 0 ? "" : title.substring(0, sep));
+        TreeItem<String> item = notes.get(title);
+        if (item == null) return false;
+        treeView.getSelectionModel().select(item);
+        int row = treeView.getRow(item);
+        if (row >= 0) treeView.scrollTo(row);
+        return true;
+    }
+
+    /**
+     * 新建一个空文件夹 (还没有笔记，只存在于树上)
+     */
+    TreeItem<String> addFolder(TreeItem<String> parent, String name) {
+        FolderItem parentFolder = parent instanceof FolderItem f ? f : root;
+        load(parentFolder);
+        FolderItem folder = childFolder(parentFolder, name);
+        folder.loaded = true;
+        return folder;
+    }
+
+    /**
+     * 空文件夹改名 (有笔记的文件夹改名会逐个重命名笔记，旧文件夹随最后一篇笔记移走而消失)
+     */
+    void renameFolder(TreeItem<String> item, String newName) {
+        if (!(item instanceof FolderItem folder) || folder == root || folders.get(folder.path) != folder) return;
+        String oldPath = folder.path;
+        int sep = oldPath.lastIndexOf('_');
+        String newPath = sep < 0 ? newName : oldPath.substring(0, sep + 1) + newName;
+
+        // 该文件夹和下面已创建的空文件夹换成新路径
+        for (FolderItem f : List.copyOf(folders.values())) {
+            if (!f.path.equals(oldPath) && !f.path.startsWith(oldPath + "_")) continue;
+            folders.remove(f.path);
+            f.path = newPath + f.path.substring(oldPath.length());
+            folders.put(f.path, f);
+        }
+        TreeItem<String> parent = folder.getParent();
+        parent.getChildren().remove(folder);
+        folder.setValue(newName);
+        insertSorted(parent, folder);
+    }
+
+    // 第一次展开时创建直接下级
+    private void load(FolderItem folder) {
+        if (folder.loaded) return;
+        folder.loaded = true;
+        NoteCatalog.Children children = catalog.childrenOf(folder.path);
+        List<TreeItem<String>> items = new ArrayList<>(children.folders().size() + children.notes().size());
+        for (String name : children.folders()) {
+            items.add(newFolder(name, folder.path.isEmpty() ? name : folder.path + "_" + name));
+        }
+        for (String title : children.notes()) {
+            if (!notes.containsKey(title)) items.add(newNote(title));
+        }
+        if (folder.getChildren().isEmpty()) {
+            folder.getChildren().setAll(items); // 目录给出的顺序已经是文件夹在前、按名字排
+        } else {
+            for (TreeItem<String> item : items) {
+                if (item.getParent() != folder) insertSorted(folder, item);
+            }
+        }
+    }
+
+    private FolderItem newFolder(String name, String path) {
+        FolderItem existing = folders.get(path);
+        if (existing != null) return existing;
+        FolderItem item = new FolderItem(name, path);
+        item.expandedProperty().addListener((obs, wasExpanded, expanded) -> {
+            if (expanded) load(item);
+        });
+        folders.put(path, item);
+        return item;
+    }
+
+    private TreeItem<String> newNote(String title) {
+        String simpleName = title.substring(title.lastIndexOf('_') + 1);
+        // 使用匿名类重写 toString，让树只显示短名字，但 Value 存长名字(用于读取)
+        TreeItem<String> noteItem = new TreeItem<>(title) {
+            @Override public String toString() { return simpleName; }
+        };
+        notes.put(title, noteItem);
+        return noteItem;
+    }
+
+    private FolderItem childFolder(FolderItem parent, String name) {
+        String path = parent.path.isEmpty() ? name : parent.path + "_" + name;
+        FolderItem existing = folders.get(path);
+        if (existing != null) return existing;
+        FolderItem item = newFolder(name, path);
+        insertSorted(parent, item);
+        return item;
+    }
+
+    // 逐级展开到指定文件夹
+    private void expandPath(String path) {
+        FolderItem current = root;
+        load(current);
+        if (path.isEmpty()) return;
+        for (String segment : path.split("_", -1)) {
+            current = childFolder(current, segment);
+            current.setExpanded(true);
+            load(current);
+        }
+    }
+
+    private void addNote(String title) {
+        if (notes.containsKey(title) || !catalog.contains(title)) return;
+        // 只在已展开过的文件夹里建节点；没展开的文件夹以后展开时会从目录里读到它
+        String[] parts = title.split("_", -1);
+        FolderItem parent = root;
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (!parent.loaded) return;
+            parent = childFolder(parent, parts[i]);
+        }
+        if (!parent.loaded) return;
+        insertSorted(parent, newNote(title));
+    }
+
+    private void removeNote(String title) {
+        TreeItem<String> item = notes.remove(title);
+        TreeItem<String> parent;
+        if (item != null) {
+            parent = item.getParent();
+            detach(item);
+        } else {
+            // 节点没创建过，但它撑起的文件夹可能已经创建：找到最近的一级
+            int sep = title.lastIndexOf('_');
+            parent = sep < 0 ? root : folders.get(title.substring(0, sep));
+            while (parent == null) {
+                sep = title.lastIndexOf('_', sep - 1);
+                parent = sep < 0 ? root : folders.get(title.substring(0, sep));
+            }
+        }
+        // 文件夹只由笔记撑起来：里面没有笔记了就一并去掉
+        while (parent instanceof FolderItem folder && folder != root
+                && folder.getChildren().isEmpty() && noteCount(folder) == 0) {
+            TreeItem<String> grandParent = folder.getParent();
+            folders.remove(folder.path);
+            detach(folder);
+            parent = grandParent;
+        }
+    }
+
+    // 先取消选中再移除，否则 TreeView 会把选中挪到相邻节点
+    private void detach(TreeItem<String> item) {
+        if (treeView.getSelectionModel().getSelectedItem() == item) {
+            treeView.getSelectionModel().clearSelection();
+        }
+        if (item.getParent() != null) item.getParent().getChildren().remove(item);
+    }
+
+    // 上级文件夹旁的笔记数变了：通知对应的单元格重绘
+    private void refreshCounts(String title) {
+        int sep = title.lastIndexOf('_');
+        while (sep > 0) {
+            FolderItem folder = folders.get(title.substring(0, sep));
+            if (folder != null) {
+                Event.fireEvent(folder, new TreeItem.TreeModificationEvent<>(TreeItem.valueChangedEvent(), folder, folder.getValue()));
+            }
+            sep = title.lastIndexOf('_', sep - 1);
+        }
+    }
+
+    private static void insertSorted(TreeItem<String> parent, TreeItem<String> item) {
+        List<TreeItem<String>> children = parent.getChildren();
+        int at = Collections.binarySearch(children, item, ORDER);
+        children.add(at < 0 ? -at - 1 : at, item);
+    }
+
+    private static String displayName(TreeItem<String> item) {
+        String value = item.getValue();
+        return item instanceof FolderItem ? value : value.substring(value.lastIndexOf('_') + 1);
+    }
+}
@@ -0,0 +1,329 @@
+package com.deepmind.controller;
+
+import com.google.gson.Gson;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * 常驻的预览外壳页面
+ * 每个窗口只 loadContent 一次：&lt;head&gt; 里的样式、base 标签和所有脚本 (搜索高亮、标题跳转、补丁) 只解析编译一次，
+ * 之后渲染只通过 JS 桥替换 #md-root 的内容，切换主题只替换 #theme-css 样式表。
+ */
+class PreviewShell {
+
+    private static final Gson GSON = new Gson();
+
+    private final WebEngine engine;
+    private final String baseUrl;
+
+    private String themeCss = "";
+    private boolean ready = false;
+    private boolean loading = false;
+    private final List<Runnable> pending = new ArrayList<>();
+    // WebView 只弱引用注入的 Java 对象，这里持有强引用
+    private final Bridge bridge = new Bridge();
+
+    PreviewShell(WebEngine engine, String baseUrl) {
+        this.engine = engine;
+        this.baseUrl = baseUrl;
+        engine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> onLoadStateChanged(newState));
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 加载外壳页面 (已加载或正在加载时什么都不做)
+     */
+    void load(String themeCss) {
+        this.themeCss = themeCss;
+        if (ready || loading) return;
+        loading = true;
+        engine.loadContent(buildShellHtml());
+    }
+
+    /**
+     * 页面就绪后执行；未就绪时排队并触发加载
+     */
+    void whenReady(Runnable action) {
+        if (ready) {
+            action.run();
+            return;
+        }
+        pending.add(action);
+        load(themeCss);
+    }
+
+    /**
+     * 切换主题：只替换样式表，不重新渲染 Markdown
+     */
+    void setThemeCss(String css) {
+        this.themeCss = css;
+        if (ready) {
+            execute("setThemeCss(" + GSON.toJson(css) + ")");
+        }
+    }
+
+    /**
+     * 整体替换正文
+     * @param blockPosition 替换后滚动到的位置 (块下标 + 块内比例)，小于 0 表示回到顶部
+     */
+    void setContent(String blocksHtml, double blockPosition) {
+        execute("setContent(" + GSON.toJson(blocksHtml) + ", " + formatPosition(blockPosition) + ")");
+    }
+
+    /**
+     * 把第 blockPosition 块 (小数部分是块内比例) 滚到视口顶部 (编辑器切回预览时同步位置)
+     */
+    void scrollToBlock(double blockPosition) {
+        execute("scrollToBlock(" + formatPosition(blockPosition) + ")");
+    }
+
+    /**
+     * 视口顶部所在的块 (块下标 + 块内比例)，页面未就绪时返回 0
+     */
+    double topBlockPosition() {
+        if (!ready) return 0;
+        Object position = execute("topBlockPosition()");
+        return position instanceof Number n ? n.doubleValue() : 0;
+    }
+
+    /**
+     * 应用增量补丁
+     * @return 页面上的块总数，失败返回 -1
+     */
+    int applyPatches(String patchesJson) {
+        Object count = execute("applyPatches(" + patchesJson + ")");
+        return count instanceof Number n ? n.intValue() : -1;
+    }
+
+    /**
+     * 点击预览里的 [[双链]] 时回调 (UI 线程)，参数是链接目标 (不含 #小节)
+     */
+    void setOnOpenNote(Consumer<String> handler) {
+        bridge.onOpenNote = handler;
+    }
+
+    void clearContent() {
+        if (ready) execute("setContent('', -1)");
+    }
+
+    // Locale.US 确保小数是点号 (0.5) 而不是逗号
+    private static String formatPosition(double position) {
+        return String.format(Locale.US, "%.4f", position);
+    }
+
+    private Object execute(String script) {
+        return engine.executeScript(script);
+    }
+
+    private void onLoadStateChanged(Worker.State state) {
+        switch (state) {
+            case SCHEDULED, RUNNING -> ready = false; // 页面被替换 (比如点了预览里的链接)
+            case SUCCEEDED -> {
+                loading = false;
+                Object isShell;
+                try {
+                    isShell = execute("window.dmShell === true");
+                } catch (Exception e) {
+                    isShell = false;
+                }
+                ready = Boolean.TRUE.equals(isShell);
+                if (!ready) return;
+                ((netscape.javascript.JSObject) execute("window")).setMember("javaBridge", bridge);
+
+                List<Runnable> actions = new ArrayList<>(pending);
+                pending.clear();
+                actions.forEach(Runnable::run);
+            }
+            case FAILED, CANCELLED -> loading = false;
+            default -> { }
+        }
+    }
+
+    private String buildShellHtml() {
+        return "<!DOCTYPE html>"
+                + "<html>"
+                + "<head>"
+                + "    <meta charset=\"UTF-8\">"
+                + "    <base href=\"" + baseUrl + "\">"
+                + "    <style id=\"theme-css\">" + themeCss + "</style>"
+                + "    <style>"
+                + "        .search-highlight { background-color: #ffeb3b !important; color: #000 !important; }"
+                + "    </style>"
+                + com.deepmind.util.MarkdownParser.getInternalCss()
+                + SHELL_SCRIPT
+                + "</head>"
+                + "<body>"
+                + "<div id=\"md-root\"></div>"
+                + "</body>"
+                + "</html>";
+    }
+
+    private static final String SHELL_SCRIPT = """
+            <script>
+                window.dmShell = true;
+
+                // [[双链]]：拦截 wiki: 链接，交给 Java 打开笔记 (不让页面跳走)
+                document.addEventListener('click', function (e) {
+                    const a = e.target.closest ? e.target.closest('a') : null;
+                    const href = a ? a.getAttribute('href') : null;
+                    if (!href || href.indexOf('wiki:') !== 0) return;
+                    e.preventDefault();
+                    let target = href.substring(5);
+                    const hash = target.indexOf('#');
+                    if (hash >= 0) target = target.substring(0, hash);
+                    try { target = decodeURIComponent(target); } catch (err) { }
+                    if (window.javaBridge) window.javaBridge.openNote(target);
+                });
+
+                function setThemeCss(css) {
+                    document.getElementById('theme-css').textContent = css;
+                }
+
+                // 替换正文并恢复滚动位置
+                function setContent(html, position) {
+                    document.getElementById('md-root').innerHTML = html;
+                    scrollToBlock(position);
+                }
+
+                // position = 块下标 + 块内比例 (由 Java 按源码行号换算)
+                function scrollToBlock(position) {
+                    try {
+                        const blocks = document.getElementById('md-root').children;
+                        if (position <= 0 || blocks.length === 0) {
+                            window.scrollTo(0, 0);
+                            return;
+                        }
+                        const index = Math.min(Math.floor(position), blocks.length - 1);
+                        const rect = blocks[index].getBoundingClientRect();
+                        window.scrollTo(0, window.pageYOffset + rect.top + (position - index) * rect.height);
+                    } catch(e) { console.error(e); }
+                }
+
+                // 视口顶部所在的块：二分找第一个下边缘还在视口里的块
+                function topBlockPosition() {
+                    const blocks = document.getElementById('md-root').children;
+                    if (blocks.length === 0 || window.pageYOffset <= 0) return 0;
+                    let lo = 0, hi = blocks.length - 1;
+                    while (lo < hi) {
+                        const mid = (lo + hi) >> 1;
+                        if (blocks[mid].getBoundingClientRect().bottom > 0) hi = mid;
+                        else lo = mid + 1;
+                    }
+                    const rect = blocks[lo].getBoundingClientRect();
+                    return lo + Math.min(1, Math.max(0, -rect.top) / Math.max(1, rect.height));
+                }
+
+                // 搜索高亮逻辑
+                function removeHighlights() {
+                    const highlights = document.querySelectorAll('span.search-highlight');
+                    highlights.forEach(span => {
+                        const parent = span.parentNode;
+                        parent.replaceChild(document.createTextNode(span.textContent), span);
+                        parent.normalize();
+                    });
+                }
+                function highlightAll(keyword) {
+                    removeHighlights();
+                    if (!keyword) return 0;
+                    const walk = document.createTreeWalker(document.body, NodeFilter.SHOW_TEXT, null, false);
+                    const nodes = [];
+                    while(walk.nextNode()) nodes.push(walk.currentNode);
+                    let count = 0;
+                    const escapeRegExp = (string) => string.replace(/[.*+?^${}()|[\\]\\\\]/g, '\\\\$&');
+                    const regex = new RegExp('(' + escapeRegExp(keyword) + ')', 'gi');
+                    nodes.forEach(node => {
+                        if (node.parentNode.nodeName === "SCRIPT" || node.parentNode.nodeName === "STYLE") return;
+                        const text = node.nodeValue;
+                        if (regex.test(text)) {
+                            const fragment = document.createDocumentFragment();
+                            let lastIdx = 0;
+                            text.replace(regex, (match, p1, offset) => {
+                                fragment.appendChild(document.createTextNode(text.slice(lastIdx, offset)));
+                                const span = document.createElement('span');
+                                span.className = 'search-highlight';
+                                span.textContent = match;
+                                if (count === 0) span.id = 'first-match';
+                                fragment.appendChild(span);
+                                lastIdx = offset + match.length;
+                                count++;
+                            });
+                            fragment.appendChild(document.createTextNode(text.slice(lastIdx)));
+                            node.parentNode.replaceChild(fragment, node);
+                        }
+                    });
+                    const first = document.getElementById('first-match');
+                    if (first) first.scrollIntoView({behavior: "smooth", block: "center"});
+                    return count;
+                }
+
+                // 增量补丁：按顺序对 #md-root 下的块执行 insert / replace / remove，返回块总数供 Java 校验
+                function applyPatches(patches) {
+                    const root = document.getElementById('md-root');
+                    patches.forEach(p => {
+                        const blocks = root.children;
+                        if (p.op === 'remove') {
+                            root.removeChild(blocks[p.index]);
+                            return;
+                        }
+                        const div = document.createElement('div');
+                        div.className = 'md-block';
+                        div.innerHTML = p.html;
+                        if (p.op === 'insert') root.insertBefore(div, blocks[p.index] || null);
+                        else root.replaceChild(div, blocks[p.index]);
+                    });
+                    return root.children.length;
+                }
+
+                // 只数带 data-outline 的标题 (和编辑器大纲同一套规则)，第 index 项就是大纲的第 index 项
+                function scrollToHeading(index) {
+                    const headers = document.querySelectorAll('[data-outline]');
+                    if (headers[index]) {
+                        headers[index].scrollIntoView({behavior: "smooth", block: "start"});
+                        headers[index].style.transition = "background-color 0.5s";
+                        const originalBg = headers[index].style.backgroundColor;
+                        headers[index].style.backgroundColor = "var(--flash-bg)";
+                        setTimeout(() => { headers[index].style.backgroundColor = originalBg; }, 1000);
+                    }
+                }
+
+                function scrollToMatch(index) {
+                    const highlights = document.querySelectorAll('span.search-highlight');
+                    if (highlights.length === 0) return -1;
+
+                    // 循环逻辑：超限归零，负数去末尾
+                    if (index >= highlights.length) index = 0;
+                    if (index < 0) index = highlights.length - 1;
+
+                    // 重置颜色为黄色
+                    highlights.forEach(span => span.style.backgroundColor = "#ffeb3b");
+
+                    // 选中目标为橙色
+                    const target = highlights[index];
+                    target.style.backgroundColor = "#ff9800";
+                    target.style.color = "white"; // 文字白色更清晰
+                    target.scrollIntoView({behavior: "smooth", block: "center"});
+
+                    return index; // 返回修正后的索引
+                }
+            </script>
+            """;
+
+    /**
+     * 注入页面的 window.javaBridge (JS 通过反射调用，必须是 public)
+     */
+    public static final class Bridge {
+        private Consumer<String> onOpenNote;
+
+        public void openNote(String target) {
+            if (onOpenNote != null && target != null && !target.isBlank()) onOpenNote.accept(target);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.deepmind.controller;
+
+import com.deepmind.util.DocumentModel;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.geometry.Point2D;
+import javafx.scene.control.Control;
+import javafx.scene.control.IndexRange;
+import javafx.scene.control.Skin;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.InputMethodRequests;
+import javafx.scene.input.InputMethodTextRun;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Markdown 源码编辑器 (代替 TextArea)
+ * 1. 正文只存在 DocumentModel 里 (Rope + 行索引)，控件自己不保存整篇字符串
+ * 2. 皮肤 (SourceEditorSkin) 用 VirtualFlow 按行显示，只为可见的行和少量缓冲行创建节点：
+ *    打开多大的笔记，布局和绘制的代价都只和窗口高度有关
+ * 3. 保留 TextArea 的常用接口 (光标、选区、撤销 / 重做、剪贴板、contextMenu、输入法)，
+ *    控制器里的调用方式基本不变；粘贴、回车、拖放等钩子照旧挂在控件的事件过滤器上
+ */
+public class SourceEditor extends Control {
+
+    private static final int UNDO_LIMIT = 1000;
+    // 连续输入 / 删除在这个间隔内合并成一步撤销
+    private static final long UNDO_MERGE_MILLIS = 1000;
+
+    /**
+     * 一步可撤销的编辑：[start, start + removed.length) 原来是 removed，换成了 inserted
+     */
+    private record Edit(int start, String removed, String inserted, long time) {}
+
+    private final DocumentModel model = new DocumentModel();
+    private final ReadOnlyLongWrapper version = new ReadOnlyLongWrapper(this, "version", 0);
+    private final ReadOnlyIntegerWrapper caretPosition = new ReadOnlyIntegerWrapper(this, "caretPosition", 0);
+    private final ReadOnlyIntegerWrapper anchor = new ReadOnlyIntegerWrapper(this, "anchor", 0);
+    private final BooleanProperty editable = new SimpleBooleanProperty(this, "editable", true);
+    private final BooleanProperty wrapText = new SimpleBooleanProperty(this, "wrapText", false);
+    private final ReadOnlyBooleanWrapper undoable = new ReadOnlyBooleanWrapper(this, "undoable", false);
+    private final ReadOnlyBooleanWrapper redoable = new ReadOnlyBooleanWrapper(this, "redoable", false);
+    // 输入法正在组字 (还没上屏) 的文字，皮肤把它画在光标处；不进正文、不进撤销记录
+    private final ReadOnlyStringWrapper composedText = new ReadOnlyStringWrapper(this, "composedText", "");
+    private int composedCaret = 0;
+
+    private final List<Edit> undoStack = new ArrayList<>();
+    private final List<Edit> redoStack = new ArrayList<>();
+    // 最近一步能否和下一次输入 / 删除合并
+    private boolean mergeable = false;
+
+    public SourceEditor() {
+        getStyleClass().add("source-editor");
+        setFocusTraversable(true);
+        // 输入法 (中文输入)：上屏的文字写入正文，组字中的拼音只显示在光标处，候选窗口跟随光标
+        setInputMethodRequests(new InputMethodRequests() {
+            @Override
+            public Point2D getTextLocation(int offset) {
+                Point2D point = getSkin() instanceof SourceEditorSkin skin ? skin.caretScreenPosition() : null;
+                return point != null ? point : localToScreen(0, 0);
+            }
+
+            @Override
+            public int getLocationOffset(int x, int y) {
+                return 0;
+            }
+
+            @Override
+            public void cancelLatestCommittedText() {
+            }
+
+            @Override
+            public String getSelectedText() {
+                return SourceEditor.this.getSelectedText();
+            }
+        });
+        setOnInputMethodTextChanged(event -> {
+            if (!isEditable()) return;
+            if (!event.getCommitted().isEmpty()) typeText(event.getCommitted());
+            StringBuilder composed = new StringBuilder();
+            for (InputMethodTextRun run : event.getComposed()) composed.append(run.getText());
+            composedCaret = Math.max(0, Math.min(event.getCaretPosition(), composed.length()));
+            composedText.set(composed.toString());
+        });
+    }
+
+    @Override
+    protected Skin<?> createDefaultSkin() {
+        return new SourceEditorSkin(this);
+    }
+
+    /**
+     * 正文和分析结果 (行、标题、字数、查找命中都从这里取)
+     */
+    public DocumentModel getModel() {
+        return model;
+    }
+
+    // ---------------------------------------------------------------- 属性
+
+    /**
+     * 文档版本号，每次正文变化都会变 (相当于 TextArea 的 textProperty，但不拼出全文)
+     */
+    public ReadOnlyLongProperty versionProperty() {
+        return version.getReadOnlyProperty();
+    }
+
+    /**
+     * 输入法组字中的文字 (没有时为空串)
+     */
+    public ReadOnlyStringProperty composedTextProperty() {
+        return composedText.getReadOnlyProperty();
+    }
+
+    public String getComposedText() {
+        return composedText.get();
+    }
+
+    // 组字文字里的光标位置
+    int getComposedCaret() {
+        return composedCaret;
+    }
+
+    public ReadOnlyIntegerProperty caretPositionProperty() {
+        return caretPosition.getReadOnlyProperty();
+    }
+
+    public int getCaretPosition() {
+        return caretPosition.get();
+    }
+
+    public ReadOnlyIntegerProperty anchorProperty() {
+        return anchor.getReadOnlyProperty();
+    }
+
+    public int getAnchor() {
+        return anchor.get();
+    }
+
+    public BooleanProperty editableProperty() {
+        return editable;
+    }
+
+    public boolean isEditable() {
+        return editable.get();
+    }
+
+    public void setEditable(boolean value) {
+        editable.set(value);
+    }
+
+    public BooleanProperty wrapTextProperty() {
+        return wrapText;
+    }
+
+    public boolean isWrapText() {
+        return wrapText.get();
+    }
+
+    public void setWrapText(boolean value) {
+        wrapText.set(value);
+    }
+
+    public ReadOnlyBooleanProperty undoableProperty() {
+        return undoable.getReadOnlyProperty();
+    }
+
+    public boolean isUndoable() {
+        return undoable.get();
+    }
+
+    public ReadOnlyBooleanProperty redoableProperty() {
+        return redoable.getReadOnlyProperty();
+    }
+
+    public boolean isRedoable() {
+        return redoable.get();
+    }
+
+    // ---------------------------------------------------------------- 正文
+
+    /**
+     * 整篇正文 (会拼出完整字符串，保存、导出时用；编辑相关的逻辑请直接读 getModel())
+     */
+    public String getText() {
+        return model.text().toString();
+    }
+
+    public int getLength() {
+        return model.length();
+    }
+
+    /**
+     * 整篇替换 (换笔记)：清空撤销记录，光标回到开头
+     */
+    public void setText(String text) {
+        model.reset(normalize(text));
+        undoStack.clear();
+        redoStack.clear();
+        mergeable = false;
+        updateUndoState();
+        version.set(model.version());
+        selectRange(0, 0);
+    }
+
+    public void clear() {
+        setText("");
+    }
+
+    public void appendText(String text) {
+        insertText(getLength(), text);
+    }
+
+    public void insertText(int index, String text) {
+        replaceText(index, index, text);
+    }
+
+    public void deleteText(int start, int end) {
+        replaceText(start, end, "");
+    }
+
+    /**
+     * 把 [start, end) 换成 text，光标放到新文字之后
+     */
+    public void replaceText(int start, int end, String text) {
+        replace(start, end, text, false);
+    }
+
+    public void replaceSelection(String text) {
+        IndexRange selection = getSelection();
+        replace(selection.getStart(), selection.getEnd(), text, false);
+    }
+
+    // ---------------------------------------------------------------- 光标与选区
+
+    public IndexRange getSelection() {
+        return IndexRange.normalize(anchor.get(), caretPosition.get());
+    }
+
+    public String getSelectedText() {
+        IndexRange selection = getSelection();
+        return model.text().substring(selection.getStart(), selection.getEnd());
+    }
+
+    /**
+     * 选中 [anchor, caret)，caret 一侧是光标 (会滚动到可见)
+     */
+    public void selectRange(int anchorPosition, int caret) {
+        int length = getLength();
+        anchor.set(clamp(anchorPosition, length));
+        caretPosition.set(clamp(caret, length));
+        mergeable = false;
+        if (getSkin() instanceof SourceEditorSkin skin) skin.caretMoved();
+    }
+
+    public void positionCaret(int pos) {
+        selectRange(pos, pos);
+    }
+
+    /**
+     * 移动光标、保留锚点 (Shift + 方向键、拖动选择)
+     */
+    public void selectPositionCaret(int pos) {
+        selectRange(anchor.get(), pos);
+    }
+
+    public void deselect() {
+        selectRange(caretPosition.get(), caretPosition.get());
+    }
+
+    public void selectAll() {
+        selectRange(0, getLength());
+    }
+
+    // ---------------------------------------------------------------- 剪贴板
+
+    public void copy() {
+        String selected = getSelectedText();
+        if (selected.isEmpty()) return;
+        ClipboardContent content = new ClipboardContent();
+        content.putString(selected);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    public void cut() {
+        if (!isEditable() || getSelection().getLength() == 0) return;
+        copy();
+        replaceSelection("");
+    }
+
+    public void paste() {
+        if (!isEditable()) return;
+        String text = Clipboard.getSystemClipboard().getString();
+        if (text != null && !text.isEmpty()) replaceSelection(text);
+    }
+
+    // ---------------------------------------------------------------- 撤销
+
+    public void undo() {
+        if (undoStack.isEmpty()) return;
+        Edit edit = undoStack.remove(undoStack.size() - 1);
+        apply(edit.start(), edit.start() + edit.inserted().length(), edit.removed());
+        redoStack.add(edit);
+        updateUndoState();
+        int end = edit.start() + edit.removed().length();
+        selectRange(edit.start(), end); // 恢复的文字处于选中状态
+    }
+
+    public void redo() {
+        if (redoStack.isEmpty()) return;
+        Edit edit = redoStack.remove(redoStack.size() - 1);
+        apply(edit.start(), edit.start() + edit.removed().length(), edit.inserted());
+        undoStack.add(edit);
+        updateUndoState();
+        positionCaret(edit.start() + edit.inserted().length());
+    }
+
+    // ---------------------------------------------------------------- 给皮肤用
+
+    /**
+     * 键盘输入：连续输入的字符合并成一步撤销
+     */
+    void typeText(String text) {
+        IndexRange selection = getSelection();
+        replace(selection.getStart(), selection.getEnd(), text, true);
+    }
+
+    /**
+     * 退格 / 删除：连续删除合并成一步撤销
+     */
+    void deleteRange(int start, int end) {
+        if (start < end) replace(start, end, "", true);
+    }
+
+    /**
+     * 编辑器坐标 (x, y) 处的文本位置
+     */
+    public int offsetAt(double x, double y) {
+        return getSkin() instanceof SourceEditorSkin skin ? skin.offsetAt(x, y) : 0;
+    }
+
+    /**
+     * 视口顶部的源码行 (小数部分表示这一行滚出去了多少)，切换预览、重新载入时按行同步位置
+     */
+    public double getTopLine() {
+        return getSkin() instanceof SourceEditorSkin skin ? skin.getTopLine() : 0;
+    }
+
+    public void setTopLine(double line) {
+        if (getSkin() instanceof SourceEditorSkin skin) skin.setTopLine(line);
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    private void replace(int start, int end, String text, boolean typing) {
+        if (!isEditable() && typing) return;
+        int length = getLength();
+        start = clamp(start, length);
+        end = Math.max(start, clamp(end, length));
+        String inserted = normalize(text);
+        String removed = model.text().substring(start, end);
+        if (removed.isEmpty() && inserted.isEmpty()) return;
+
+        boolean merge = typing && mergeable;
+        apply(start, end, inserted);
+        record(new Edit(start, removed, inserted, System.currentTimeMillis()), merge);
+        positionCaret(start + inserted.length());
+        // 换行之后的输入另起一步撤销
+        mergeable = typing && !inserted.contains("\n");
+    }
+
+    private void apply(int start, int end, String inserted) {
+        model.edit(start, end, inserted);
+        version.set(model.version());
+    }
+
+    private void record(Edit edit, boolean merge) {
+        redoStack.clear();
+        Edit last = undoStack.isEmpty() ? null : undoStack.get(undoStack.size() - 1);
+        if (merge && last != null && edit.time() - last.time() < UNDO_MERGE_MILLIS) {
+            // 接着上一步往后输入
+            if (edit.removed().isEmpty() && last.removed().isEmpty()
+                    && edit.start() == last.start() + last.inserted().length()) {
+                undoStack.set(undoStack.size() - 1,
+                        new Edit(last.start(), "", last.inserted() + edit.inserted(), edit.time()));
+                updateUndoState();
+                return;
+            }
+            // 接着上一步往前退格 / 往后删除
+            if (edit.inserted().isEmpty() && last.inserted().isEmpty()) {
+                if (edit.start() + edit.removed().length() == last.start()) {
+                    undoStack.set(undoStack.size() - 1,
+                            new Edit(edit.start(), edit.removed() + last.removed(), "", edit.time()));
+                    updateUndoState();
+                    return;
+                }
+                if (edit.start() == last.start()) {
+                    undoStack.set(undoStack.size() - 1,
+                            new Edit(last.start(), last.removed() + edit.removed(), "", edit.time()));
+                    updateUndoState();
+                    return;
+                }
+            }
+        }
+        undoStack.add(edit);
+        if (undoStack.size() > UNDO_LIMIT) undoStack.remove(0);
+        updateUndoState();
+    }
+
+    private void updateUndoState() {
+        undoable.set(!undoStack.isEmpty());
+        redoable.set(!redoStack.isEmpty());
+    }
+
+    // 统一成 \n (从 Windows 文件、剪贴板来的 \r\n)
+    private static String normalize(String text) {
+        if (text == null) return "";
+        return text.indexOf('\r') < 0 ? text : text.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    private static int clamp(int value, int length) {
+        return Math.max(0, Math.min(value, length));
+    }
+}
@@ -0,0 +1,658 @@
+package com.deepmind.controller;
+
+import com.deepmind.util.DocumentModel;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.geometry.VPos;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.IndexRange;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.SkinBase;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.text.HitInfo;
+import javafx.scene.text.Text;
+import javafx.util.Duration;
+
+import java.text.BreakIterator;
+
+/**
+ * SourceEditor 的皮肤
+ * 1. 每一行 (按换行符分的逻辑行) 是 VirtualFlow 里的一个单元格，只有可见的单元格存在，
+ *    滚动时复用；单元格显示时才从 Rope 里取这一行的文字
+ * 2. 正文改动后只重新填充可见的单元格，行数变化只更新单元格总数
+ * 3. 自动换行时一行可能占多个显示行，上下方向键按显示行移动 (用同样字体、宽度的隐藏 Text 测量)
+ */
+class SourceEditorSkin extends SkinBase<SourceEditor> {
+
+    private static final double PADDING = 8;
+
+    private final LineFlow flow = new LineFlow();
+    // 隐藏的测量用 Text：和单元格里的 Text 套用同样的样式，用来算不在屏幕上的行
+    private final Text measure = new Text();
+    private final BooleanProperty caretOn = new SimpleBooleanProperty(true);
+    private final Timeline caretBlink = new Timeline(new KeyFrame(Duration.millis(500), e -> caretOn.set(!caretOn.get())));
+    // 连续按上下方向键时保持的水平位置
+    private double preferredX = -1;
+    private boolean verticalMove = false;
+    private double lineHeight = -1;
+
+    private final InvalidationListener versionListener = o -> textChanged();
+    private final InvalidationListener anchorListener = o -> updateDecorations();
+    private final InvalidationListener layoutListener = o -> flow.rebuild();
+    private final InvalidationListener composeListener = o -> {
+        flow.rebuild(); // 光标所在行要把组字文字插进去重新排版
+        restartBlink();
+    };
+    private final ChangeListener<Boolean> focusListener = (obs, was, focused) -> {
+        if (focused) restartBlink();
+        else caretBlink.stop();
+        caretOn.set(focused);
+    };
+    private final EventHandler<KeyEvent> keyPressed = this::keyPressed;
+    private final EventHandler<KeyEvent> keyTyped = this::keyTyped;
+    private final EventHandler<MouseEvent> mousePressed = this::mousePressed;
+    private final EventHandler<MouseEvent> mouseDragged = this::mouseDragged;
+
+    SourceEditorSkin(SourceEditor editor) {
+        super(editor);
+        measure.getStyleClass().add("line-text");
+        measure.setTextOrigin(VPos.TOP);
+        measure.setVisible(false);
+        measure.setManaged(false);
+
+        flow.getStyleClass().add("source-flow");
+        flow.setCellFactory(f -> new LineCell());
+        flow.setCellCount(model().lineCount());
+        getChildren().addAll(measure, flow);
+
+        caretBlink.setCycleCount(Timeline.INDEFINITE);
+        measure.fontProperty().addListener(o -> {
+            lineHeight = -1;
+            flow.rebuild();
+        });
+        editor.versionProperty().addListener(versionListener);
+        editor.anchorProperty().addListener(anchorListener);
+        editor.wrapTextProperty().addListener(layoutListener);
+        flow.widthProperty().addListener(layoutListener);
+        editor.focusedProperty().addListener(focusListener);
+        editor.composedTextProperty().addListener(composeListener);
+        editor.addEventHandler(KeyEvent.KEY_PRESSED, keyPressed);
+        editor.addEventHandler(KeyEvent.KEY_TYPED, keyTyped);
+        editor.addEventHandler(MouseEvent.MOUSE_PRESSED, mousePressed);
+        editor.addEventHandler(MouseEvent.MOUSE_DRAGGED, mouseDragged);
+    }
+
+    @Override
+    public void dispose() {
+        SourceEditor editor = getSkinnable();
+        if (editor == null) return;
+        caretBlink.stop();
+        editor.versionProperty().removeListener(versionListener);
+        editor.anchorProperty().removeListener(anchorListener);
+        editor.wrapTextProperty().removeListener(layoutListener);
+        flow.widthProperty().removeListener(layoutListener);
+        editor.focusedProperty().removeListener(focusListener);
+        editor.composedTextProperty().removeListener(composeListener);
+        editor.removeEventHandler(KeyEvent.KEY_PRESSED, keyPressed);
+        editor.removeEventHandler(KeyEvent.KEY_TYPED, keyTyped);
+        editor.removeEventHandler(MouseEvent.MOUSE_PRESSED, mousePressed);
+        editor.removeEventHandler(MouseEvent.MOUSE_DRAGGED, mouseDragged);
+        super.dispose();
+    }
+
+    @Override
+    protected double computePrefWidth(double height, double topInset, double rightInset, double bottomInset, double leftInset) {
+        return 400;
+    }
+
+    @Override
+    protected double computePrefHeight(double width, double topInset, double rightInset, double bottomInset, double leftInset) {
+        return 300;
+    }
+
+    // ---------------------------------------------------------------- 给控件用
+
+    /**
+     * 光标移动后 (控件调用)：刷新选区、光标，并滚动到光标处
+     */
+    void caretMoved() {
+        if (!verticalMove) preferredX = -1;
+        restartBlink();
+        updateDecorations();
+        scrollCaretIntoView();
+    }
+
+    /**
+     * 控件坐标 (x, y) 处的文本位置
+     */
+    int offsetAt(double x, double y) {
+        DocumentModel model = model();
+        LineCell hit = null;
+        LineCell first = null;
+        LineCell last = null;
+        for (LineCell cell : flow.visibleCells()) {
+            if (cell.isEmpty()) continue;
+            Bounds bounds = cell.localToScene(cell.getLayoutBounds());
+            Point2D point = getSkinnable().localToScene(x, y);
+            if (first == null || cell.getIndex() < first.getIndex()) first = cell;
+            if (last == null || cell.getIndex() > last.getIndex()) last = cell;
+            if (point.getY() >= bounds.getMinY() && point.getY() < bounds.getMaxY()) hit = cell;
+        }
+        if (hit == null) {
+            if (first == null) return 0;
+            Point2D point = getSkinnable().localToScene(x, y);
+            hit = point.getY() < first.localToScene(first.getLayoutBounds()).getMinY() ? first : last;
+        }
+        Point2D local = hit.text.sceneToLocal(getSkinnable().localToScene(x, y));
+        double textY = Math.max(0, Math.min(local.getY(), hit.text.getLayoutBounds().getHeight() - 1));
+        int line = hit.getIndex();
+        return model.lineStart(line) + clampColumn(line, hit.text.hitTest(new Point2D(local.getX(), textY)));
+    }
+
+    /**
+     * 光标在屏幕上的位置 (输入法候选窗口跟随)
+     */
+    Point2D caretScreenPosition() {
+        LineCell cell = flow.cellFor(model().lineOf(getSkinnable().getCaretPosition()));
+        if (cell == null) return null;
+        Bounds bounds = cell.caret.localToScreen(cell.caret.getBoundsInLocal());
+        return bounds == null ? null : new Point2D(bounds.getMinX(), bounds.getMaxY());
+    }
+
+    double getTopLine() {
+        LineCell cell = flow.getFirstVisibleCell();
+        if (cell == null || cell.isEmpty()) return 0;
+        double height = cell.getHeight();
+        double hidden = height > 0 ? -cell.getLayoutY() / height : 0;
+        return cell.getIndex() + Math.max(0, Math.min(1, hidden));
+    }
+
+    void setTopLine(double line) {
+        int index = Math.max(0, Math.min(model().lineCount() - 1, (int) line));
+        flow.scrollToTop(index);
+        flow.layout();
+        LineCell cell = flow.cellFor(index);
+        if (cell != null && line > index) flow.scrollPixels((line - index) * cell.getHeight());
+    }
+
+    // ---------------------------------------------------------------- 显示
+
+    private DocumentModel model() {
+        return getSkinnable().getModel();
+    }
+
+    private void textChanged() {
+        int count = model().lineCount();
+        if (flow.getCellCount() != count) flow.setCellCount(count);
+        flow.rebuild();
+    }
+
+    // 只刷新可见单元格的选区和光标
+    private void updateDecorations() {
+        for (LineCell cell : flow.visibleCells()) cell.updateDecorations();
+    }
+
+    private void restartBlink() {
+        caretOn.set(true);
+        if (getSkinnable().isFocused()) caretBlink.playFromStart();
+    }
+
+    private void scrollCaretIntoView() {
+        int line = model().lineOf(getSkinnable().getCaretPosition());
+        flow.layout(); // 先把刚改过的单元格排好，再算光标位置
+        LineCell cell = flow.cellFor(line);
+        if (cell == null) {
+            flow.scrollTo(line);
+            flow.layout();
+            cell = flow.cellFor(line);
+            if (cell == null) return;
+        }
+        Bounds caret = flow.sceneToLocal(cell.caret.localToScene(cell.caret.getBoundsInLocal()));
+        if (caret == null) return;
+        double viewport = flow.viewportHeight();
+        if (caret.getMinY() < 0) flow.scrollPixels(caret.getMinY());
+        else if (caret.getMaxY() > viewport) flow.scrollPixels(caret.getMaxY() - viewport);
+    }
+
+    // 输入法组字文字插在第 line 行的哪一列，这一行没有组字时返回 -1
+    private int composedColumn(int line) {
+        SourceEditor editor = getSkinnable();
+        if (editor.getComposedText().isEmpty()) return -1;
+        int caret = editor.getCaretPosition();
+        DocumentModel model = model();
+        return model.lineOf(caret) == line ? caret - model.lineStart(line) : -1;
+    }
+
+    private double wrappingWidth() {
+        return getSkinnable().isWrapText() ? Math.max(20, flow.viewportWidth() - 2 * PADDING) : 0;
+    }
+
+    // 测量用 Text 换成第 line 行
+    private Text layoutLine(int line) {
+        DocumentModel model = model();
+        measure.setText(model.text().substring(model.lineStart(line), model.lineEnd(line)));
+        measure.setWrappingWidth(wrappingWidth());
+        return measure;
+    }
+
+    // 一个显示行的高度 (随字体变化)
+    private double lineHeight() {
+        if (lineHeight < 0) {
+            Text probe = new Text("X");
+            probe.setFont(measure.getFont());
+            lineHeight = probe.getLayoutBounds().getHeight();
+        }
+        return lineHeight;
+    }
+
+    private int clampColumn(int line, HitInfo hit) {
+        DocumentModel model = model();
+        int length = model.lineEnd(line) - model.lineStart(line);
+        return Math.max(0, Math.min(hit.getInsertionIndex(), length));
+    }
+
+    // ---------------------------------------------------------------- 单元格
+
+    /**
+     * 一行：选区背景、文字、光标；光标所在行在输入法组字时把组字文字插在光标处显示，下面画一条下划线
+     */
+    private final class LineCell extends IndexedCell<Void> {
+        final Text text = new Text();
+        final Path selection = new Path();
+        final Path caret = new Path();
+        final Path composition = new Path();
+        final BooleanProperty caretLine = new SimpleBooleanProperty(false);
+        final Pane content;
+
+        LineCell() {
+            getStyleClass().setAll("line-cell");
+            text.getStyleClass().add("line-text");
+            text.setTextOrigin(VPos.TOP);
+            text.setLayoutX(PADDING);
+            selection.getStyleClass().add("selection");
+            selection.setManaged(false);
+            selection.setLayoutX(PADDING);
+            caret.getStyleClass().add("caret");
+            caret.setManaged(false);
+            caret.setLayoutX(PADDING);
+            caret.visibleProperty().bind(caretLine.and(caretOn).and(getSkinnable().focusedProperty()));
+            composition.getStyleClass().add("composition");
+            composition.setManaged(false);
+            composition.setLayoutX(PADDING);
+            content = new Pane(selection, text, composition, caret);
+            setGraphic(content);
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+
+        // VirtualFlow 每次布局都会调用；行号没变也重新取文字 (正文可能改过)
+        @Override
+        public void updateIndex(int index) {
+            super.updateIndex(index);
+            DocumentModel model = model();
+            boolean empty = index < 0 || index >= model.lineCount();
+            updateItem(null, empty);
+            if (empty) {
+                text.setText("");
+                caretLine.set(false);
+                selection.getElements().clear();
+                composition.getElements().clear();
+                return;
+            }
+            String line = model.text().substring(model.lineStart(index), model.lineEnd(index));
+            int composedAt = composedColumn(index);
+            if (composedAt >= 0) {
+                line = line.substring(0, composedAt) + getSkinnable().getComposedText() + line.substring(composedAt);
+            }
+            text.setText(line);
+            text.setWrappingWidth(wrappingWidth());
+            content.setMinHeight(lineHeight()); // 空行也占一行高
+            updateDecorations();
+        }
+
+        void updateDecorations() {
+            int line = getIndex();
+            DocumentModel model = model();
+            if (isEmpty() || line < 0 || line >= model.lineCount()) return;
+            SourceEditor editor = getSkinnable();
+            int start = model.lineStart(line);
+            int end = model.lineEnd(line);
+            int caretPos = editor.getCaretPosition();
+            IndexRange range = editor.getSelection();
+            // 组字文字插在光标处：它后面的列都要往后挪
+            int composedAt = composedColumn(line);
+            int composedLength = composedAt >= 0 ? editor.getComposedText().length() : 0;
+
+            if (range.getLength() > 0 && range.getStart() <= end && range.getEnd() >= start) {
+                int from = shift(Math.max(range.getStart(), start) - start, composedAt, composedLength);
+                int to = shift(Math.min(range.getEnd(), end) - start, composedAt, composedLength);
+                PathElement[] shape = from < to ? text.rangeShape(from, to) : new PathElement[0];
+                if (range.getEnd() > end) shape = withLineBreak(shape, to); // 选中了行尾的换行
+                selection.getElements().setAll(shape);
+            } else {
+                selection.getElements().clear();
+            }
+
+            boolean here = caretPos >= start && caretPos <= end;
+            caretLine.set(here);
+            if (here) {
+                int column = caretPos - start + (composedAt >= 0 ? editor.getComposedCaret() : 0);
+                caret.getElements().setAll(text.caretShape(column, true));
+            }
+            if (composedAt >= 0) {
+                composition.getElements().setAll(underline(text.rangeShape(composedAt, composedAt + composedLength)));
+            } else {
+                composition.getElements().clear();
+            }
+        }
+
+        private static int shift(int column, int composedAt, int composedLength) {
+            return composedAt >= 0 && column >= composedAt ? column + composedLength : column;
+        }
+
+        // rangeShape 给的是每个显示行一个矩形 (MoveTo + 4 个 LineTo)，取各矩形的底边
+        private static PathElement[] underline(PathElement[] shape) {
+            java.util.List<PathElement> lines = new java.util.ArrayList<>();
+            for (int i = 0; i + 4 < shape.length; i += 5) {
+                double minX = Double.MAX_VALUE;
+                double maxX = -Double.MAX_VALUE;
+                double maxY = -Double.MAX_VALUE;
+                for (int k = i; k < i + 5; k++) {
+                    double x = shape[k] instanceof MoveTo m ? m.getX() : shape[k] instanceof LineTo l ? l.getX() : Double.NaN;
+                    double y = shape[k] instanceof MoveTo m ? m.getY() : shape[k] instanceof LineTo l ? l.getY() : Double.NaN;
+                    if (Double.isNaN(x)) continue;
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+                if (maxX <= minX) continue;
+                lines.add(new MoveTo(minX, maxY - 1));
+                lines.add(new LineTo(maxX, maxY - 1));
+            }
+            return lines.toArray(new PathElement[0]);
+        }
+
+        // 在行尾补一小块，表示换行符也被选中 (空行被选中时也看得出来)
+        private PathElement[] withLineBreak(PathElement[] shape, int column) {
+            PathElement[] caretShape = text.caretShape(column, true);
+            if (caretShape.length < 2 || !(caretShape[0] instanceof MoveTo top) || !(caretShape[1] instanceof LineTo bottom)) {
+                return shape;
+            }
+            double width = 6;
+            PathElement[] result = java.util.Arrays.copyOf(shape, shape.length + 5);
+            result[shape.length] = new MoveTo(top.getX(), top.getY());
+            result[shape.length + 1] = new LineTo(top.getX() + width, top.getY());
+            result[shape.length + 2] = new LineTo(top.getX() + width, bottom.getY());
+            result[shape.length + 3] = new LineTo(top.getX(), bottom.getY());
+            result[shape.length + 4] = new LineTo(top.getX(), top.getY());
+            return result;
+        }
+    }
+
+    /**
+     * 暴露 VirtualFlow 的几个受保护方法
+     */
+    private static final class LineFlow extends VirtualFlow<LineCell> {
+        void rebuild() {
+            rebuildCells();
+        }
+
+        Iterable<LineCell> visibleCells() {
+            return getCells();
+        }
+
+        LineCell cellFor(int index) {
+            LineCell cell = getVisibleCell(index);
+            return cell != null && !cell.isEmpty() ? cell : null;
+        }
+
+        double viewportHeight() {
+            return getHeight() - (getHbar().isVisible() ? getHbar().getHeight() : 0);
+        }
+
+        double viewportWidth() {
+            return getWidth() - (getVbar().isVisible() ? getVbar().getWidth() : 0);
+        }
+    }
+
+    // ---------------------------------------------------------------- 键盘
+
+    private void keyPressed(KeyEvent event) {
+        if (event.isConsumed()) return;
+        SourceEditor editor = getSkinnable();
+        DocumentModel model = model();
+        int caret = editor.getCaretPosition();
+        boolean shift = event.isShiftDown();
+        boolean shortcut = event.isShortcutDown();
+        boolean handled = true;
+
+        if (shortcut) {
+            switch (event.getCode()) {
+                case A -> editor.selectAll();
+                case C, INSERT -> editor.copy();
+                case X -> editor.cut();
+                case V -> editor.paste();
+                case Z -> {
+                    if (shift) editor.redo();
+                    else editor.undo();
+                }
+                case Y -> editor.redo();
+                case HOME -> move(0, shift);
+                case END -> move(model.length(), shift);
+                case LEFT -> move(wordBoundary(caret, false), shift);
+                case RIGHT -> move(wordBoundary(caret, true), shift);
+                case BACK_SPACE -> deleteBackward(wordBoundary(caret, false));
+                case DELETE -> deleteForward(wordBoundary(caret, true));
+                default -> handled = false;
+            }
+        } else {
+            switch (event.getCode()) {
+                case LEFT -> {
+                    IndexRange range = editor.getSelection();
+                    if (!shift && range.getLength() > 0) move(range.getStart(), false);
+                    else move(previousChar(caret), shift);
+                }
+                case RIGHT -> {
+                    IndexRange range = editor.getSelection();
+                    if (!shift && range.getLength() > 0) move(range.getEnd(), false);
+                    else move(nextChar(caret), shift);
+                }
+                case UP -> moveVertically(-1, shift);
+                case DOWN -> moveVertically(1, shift);
+                case PAGE_UP -> movePage(-1, shift);
+                case PAGE_DOWN -> movePage(1, shift);
+                case HOME -> move(model.lineStart(model.lineOf(caret)), shift);
+                case END -> move(model.lineEnd(model.lineOf(caret)), shift);
+                case BACK_SPACE -> deleteBackward(previousChar(caret));
+                case DELETE -> deleteForward(nextChar(caret));
+                case ENTER -> {
+                    if (editor.isEditable()) editor.typeText("\n");
+                }
+                case TAB -> {
+                    if (editor.isEditable() && !event.isControlDown()) editor.typeText("\t");
+                    else handled = false;
+                }
+                case COPY -> editor.copy();
+                case CUT -> editor.cut();
+                case PASTE -> editor.paste();
+                default -> handled = false;
+            }
+        }
+        if (handled) event.consume();
+    }
+
+    private void keyTyped(KeyEvent event) {
+        if (event.isConsumed()) return;
+        SourceEditor editor = getSkinnable();
+        String character = event.getCharacter();
+        // 快捷键 (AltGr = Ctrl + Alt 除外) 和控制字符在 keyPressed 里处理
+        if (!editor.isEditable() || character.isEmpty()
+                || (event.isControlDown() && !event.isAltDown()) || event.isMetaDown()) {
+            return;
+        }
+        char c = character.charAt(0);
+        if (c < 0x20 || c == 0x7F) return;
+        editor.typeText(character);
+        event.consume();
+    }
+
+    private void move(int pos, boolean extend) {
+        SourceEditor editor = getSkinnable();
+        if (extend) editor.selectPositionCaret(pos);
+        else editor.positionCaret(pos);
+    }
+
+    private void deleteBackward(int from) {
+        SourceEditor editor = getSkinnable();
+        if (!editor.isEditable()) return;
+        IndexRange range = editor.getSelection();
+        if (range.getLength() > 0) editor.replaceSelection("");
+        else editor.deleteRange(from, editor.getCaretPosition());
+    }
+
+    private void deleteForward(int to) {
+        SourceEditor editor = getSkinnable();
+        if (!editor.isEditable()) return;
+        IndexRange range = editor.getSelection();
+        if (range.getLength() > 0) editor.replaceSelection("");
+        else editor.deleteRange(editor.getCaretPosition(), to);
+    }
+
+    private int previousChar(int pos) {
+        if (pos <= 0) return 0;
+        CharSequence text = model().text();
+        int prev = pos - 1;
+        if (prev > 0 && Character.isLowSurrogate(text.charAt(prev)) && Character.isHighSurrogate(text.charAt(prev - 1))) prev--;
+        return prev;
+    }
+
+    private int nextChar(int pos) {
+        CharSequence text = model().text();
+        if (pos >= text.length()) return text.length();
+        int next = pos + 1;
+        if (next < text.length() && Character.isHighSurrogate(text.charAt(pos)) && Character.isLowSurrogate(text.charAt(next))) next++;
+        return next;
+    }
+
+    // 同一行内的上一个 / 下一个词边界；已在行首 / 行尾时跨到相邻行
+    private int wordBoundary(int pos, boolean forward) {
+        DocumentModel model = model();
+        int line = model.lineOf(pos);
+        int start = model.lineStart(line);
+        int end = model.lineEnd(line);
+        if (forward && pos >= end) return Math.min(model.length(), end + 1);
+        if (!forward && pos <= start) return Math.max(0, start - 1);
+        BreakIterator words = BreakIterator.getWordInstance();
+        words.setText(model.text().substring(start, end));
+        int column = pos - start;
+        int boundary = forward ? words.following(column) : words.preceding(column);
+        return boundary == BreakIterator.DONE ? (forward ? end : start) : start + boundary;
+    }
+
+    // 按显示行上下移动 (自动换行时一行可能显示成好几行)
+    private void moveVertically(int direction, boolean extend) {
+        DocumentModel model = model();
+        int caret = getSkinnable().getCaretPosition();
+        int line = model.lineOf(caret);
+        Text layout = layoutLine(line);
+        PathElement[] shape = layout.caretShape(caret - model.lineStart(line), true);
+        if (shape.length < 2 || !(shape[0] instanceof MoveTo top) || !(shape[1] instanceof LineTo bottom)) return;
+        if (preferredX < 0) preferredX = top.getX();
+
+        double targetY = direction > 0 ? bottom.getY() + 1 : top.getY() - 1;
+        int target;
+        if (targetY >= 0 && targetY < layout.getLayoutBounds().getHeight()) {
+            target = model.lineStart(line) + clampColumn(line, layout.hitTest(new Point2D(preferredX, targetY)));
+        } else if (direction > 0 && line + 1 < model.lineCount()) {
+            Text next = layoutLine(line + 1);
+            target = model.lineStart(line + 1) + clampColumn(line + 1, next.hitTest(new Point2D(preferredX, 1)));
+        } else if (direction < 0 && line > 0) {
+            Text prev = layoutLine(line - 1);
+            double y = prev.getLayoutBounds().getHeight() - 1;
+            target = model.lineStart(line - 1) + clampColumn(line - 1, prev.hitTest(new Point2D(preferredX, Math.max(0, y))));
+        } else {
+            target = direction > 0 ? model.length() : 0;
+        }
+        verticalMove = true;
+        try {
+            move(target, extend);
+        } finally {
+            verticalMove = false;
+        }
+    }
+
+    // 翻页：滚动一屏，光标保持在屏幕上相同的位置
+    private void movePage(int direction, boolean extend) {
+        LineCell cell = flow.cellFor(model().lineOf(getSkinnable().getCaretPosition()));
+        Bounds caret = cell == null ? null : getSkinnable().sceneToLocal(cell.caret.localToScene(cell.caret.getBoundsInLocal()));
+        flow.scrollPixels(direction * flow.viewportHeight());
+        flow.layout();
+        if (caret == null) return;
+        move(offsetAt(caret.getMinX(), caret.getCenterY()), extend);
+    }
+
+    // ---------------------------------------------------------------- 鼠标
+
+    private void mousePressed(MouseEvent event) {
+        SourceEditor editor = getSkinnable();
+        editor.requestFocus();
+        int offset = offsetAt(event.getX(), event.getY());
+        if (event.getButton() == MouseButton.SECONDARY) {
+            // 右键点在选区里时保留选区 (右键菜单里的复制、剪切)
+            IndexRange range = editor.getSelection();
+            if (offset < range.getStart() || offset > range.getEnd()) editor.positionCaret(offset);
+            return;
+        }
+        if (event.getButton() != MouseButton.PRIMARY) return;
+        DocumentModel model = model();
+        switch (event.getClickCount()) {
+            case 1 -> move(offset, event.isShiftDown());
+            case 2 -> selectWord(offset);
+            default -> {
+                int line = model.lineOf(offset);
+                editor.selectRange(model.lineStart(line), model.lineEnd(line));
+            }
+        }
+    }
+
+    // 双击选词 (按 BreakIterator 的词边界，中文按词典分词)
+    private void selectWord(int offset) {
+        DocumentModel model = model();
+        int line = model.lineOf(offset);
+        int start = model.lineStart(line);
+        int end = model.lineEnd(line);
+        if (start == end) {
+            getSkinnable().positionCaret(offset);
+            return;
+        }
+        BreakIterator words = BreakIterator.getWordInstance();
+        words.setText(model.text().substring(start, end));
+        int column = Math.min(offset - start, end - start - 1);
+        int from = words.isBoundary(column) ? column : words.preceding(column);
+        int to = words.following(column);
+        getSkinnable().selectRange(start + from, to == BreakIterator.DONE ? end : start + to);
+    }
+
+    private void mouseDragged(MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY) return;
+        // 拖出可见区域时跟着滚动
+        double height = flow.viewportHeight();
+        if (event.getY() < 0) flow.scrollPixels(event.getY());
+        else if (event.getY() > height) flow.scrollPixels(event.getY() - height);
+        getSkinnable().selectPositionCaret(offsetAt(event.getX(), event.getY()));
+    }
+}
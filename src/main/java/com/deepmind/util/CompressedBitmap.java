@@ -0,0 +1,351 @@
+package com.deepmind.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 压缩位图 (整数集合)，用作标签的倒排表
+ * 按高 16 位分块，每块根据密度选择存储方式：
+ * 不超过 4096 个元素时存有序的 char[] (每个元素 2 字节)，更多时存 65536 位的 long[] (固定 8KB)。
+ * 交、并、差按块合并，两个位图块之间是逐字的位运算，稀疏块之间是有序归并。
+ */
+public final class CompressedBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+
+    /**
+     * 一块：array 和 bits 只有一个不为 null
+     */
+    private static final class Container {
+        char[] array;   // 稀疏：有序的低 16 位
+        long[] bits;    // 稠密：1024 个 long
+        int cardinality;
+
+        static Container ofArray(char[] array, int n) {
+            Container c = new Container();
+            c.array = array;
+            c.cardinality = n;
+            return c;
+        }
+
+        static Container ofBits(long[] bits, int cardinality) {
+            Container c = new Container();
+            c.bits = bits;
+            c.cardinality = cardinality;
+            return c;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) return (bits[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) return false;
+                cardinality++;
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, low);
+            if (at >= 0) return false;
+            if (cardinality == ARRAY_LIMIT) {
+                toBits();
+                return add(low);
+            }
+            at = -at - 1;
+            if (cardinality == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, Math.max(4, cardinality * 2)));
+            System.arraycopy(array, at, array, at + 1, cardinality - at);
+            array[at] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) return false;
+                cardinality--;
+                // 留一段余量，避免在临界点反复转换
+                if (cardinality < ARRAY_LIMIT / 2) toArray();
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, low);
+            if (at < 0) return false;
+            System.arraycopy(array, at + 1, array, at, cardinality - at - 1);
+            cardinality--;
+            return true;
+        }
+
+        Container copy() {
+            return bits != null ? ofBits(bits.clone(), cardinality) : ofArray(Arrays.copyOf(array, cardinality), cardinality);
+        }
+
+        void forEach(int high, IntConsumer action) {
+            int base = high << 16;
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) action.accept(base | array[i]);
+                return;
+            }
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    action.accept(base | (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private void toBits() {
+            long[] words = new long[1024];
+            for (int i = 0; i < cardinality; i++) words[array[i] >>> 6] |= 1L << array[i];
+            bits = words;
+            array = null;
+        }
+
+        private void toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = values;
+            bits = null;
+        }
+
+        // 位图块元素太少时改回有序数组；空块返回 null
+        Container normalize() {
+            if (cardinality == 0) return null;
+            if (bits != null && cardinality <= ARRAY_LIMIT) toArray();
+            return this;
+        }
+    }
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size = 0; // 块数
+
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high, Container.ofArray(new char[4], 0));
+        }
+        return containers[i].add((char) value);
+    }
+
+    public boolean remove(int value) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (i < 0) return false;
+        boolean removed = containers[i].remove((char) value);
+        if (containers[i].cardinality == 0) removeContainer(i);
+        return removed;
+    }
+
+    public boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) n += containers[i].cardinality;
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 按从小到大的顺序逐个回调
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) containers[i].forEach(keys[i], action);
+    }
+
+    public CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) copy.containers[i] = containers[i].copy();
+        copy.size = size;
+        return copy;
+    }
+
+    // ---------------------------------------------------------------- 集合运算 (返回新位图)
+
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) i++;
+            else if (a.keys[i] > b.keys[j]) j++;
+            else {
+                Container c = and(a.containers[i], b.containers[j]);
+                if (c != null) result.append(a.keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i++].copy());
+            } else if (i >= a.size || b.keys[j] < a.keys[i]) {
+                result.append(b.keys[j], b.containers[j++].copy());
+            } else {
+                result.append(a.keys[i], or(a.containers[i++], b.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * a 中不属于 b 的元素
+     */
+    public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) j++;
+            Container c = j < b.size && b.keys[j] == a.keys[i]
+                    ? andNot(a.containers[i], b.containers[j])
+                    : a.containers[i].copy();
+            if (c != null) result.append(a.keys[i], c);
+        }
+        return result;
+    }
+
+    private static Container and(Container a, Container b) {
+        if (a.bits != null && b.bits != null) {
+            long[] words = new long[1024];
+            int card = 0;
+            for (int w = 0; w < 1024; w++) {
+                words[w] = a.bits[w] & b.bits[w];
+                card += Long.bitCount(words[w]);
+            }
+            return Container.ofBits(words, card).normalize();
+        }
+        if (a.array == null) { // 让 a 是数组块
+            Container t = a;
+            a = b;
+            b = t;
+        }
+        char[] values = new char[Math.min(a.cardinality, b.cardinality)];
+        int n = 0;
+        if (b.array == null) {
+            for (int i = 0; i < a.cardinality; i++) {
+                if (b.contains(a.array[i])) values[n++] = a.array[i];
+            }
+        } else {
+            int i = 0, j = 0;
+            while (i < a.cardinality && j < b.cardinality) {
+                if (a.array[i] < b.array[j]) i++;
+                else if (a.array[i] > b.array[j]) j++;
+                else {
+                    values[n++] = a.array[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return n == 0 ? null : Container.ofArray(values, n);
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a.array != null && b.array != null && a.cardinality + b.cardinality <= ARRAY_LIMIT) {
+            char[] values = new char[a.cardinality + b.cardinality];
+            int i = 0, j = 0, n = 0;
+            while (i < a.cardinality || j < b.cardinality) {
+                if (j >= b.cardinality || (i < a.cardinality && a.array[i] < b.array[j])) values[n++] = a.array[i++];
+                else if (i >= a.cardinality || b.array[j] < a.array[i]) values[n++] = b.array[j++];
+                else {
+                    values[n++] = a.array[i++];
+                    j++;
+                }
+            }
+            return Container.ofArray(values, n);
+        }
+        Container base = a.bits != null ? a : b;
+        Container other = base == a ? b : a;
+        Container result = base.copy();
+        if (result.bits == null) result.toBits();
+        if (other.bits != null) {
+            int card = 0;
+            for (int w = 0; w < 1024; w++) {
+                result.bits[w] |= other.bits[w];
+                card += Long.bitCount(result.bits[w]);
+            }
+            result.cardinality = card;
+        } else {
+            for (int i = 0; i < other.cardinality; i++) result.add(other.array[i]);
+        }
+        return result.normalize();
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a.array != null) {
+            char[] values = new char[a.cardinality];
+            int n = 0;
+            for (int i = 0; i < a.cardinality; i++) {
+                if (!b.contains(a.array[i])) values[n++] = a.array[i];
+            }
+            return n == 0 ? null : Container.ofArray(values, n);
+        }
+        Container result = a.copy();
+        if (b.bits != null) {
+            int card = 0;
+            for (int w = 0; w < 1024; w++) {
+                result.bits[w] &= ~b.bits[w];
+                card += Long.bitCount(result.bits[w]);
+            }
+            result.cardinality = card;
+        } else {
+            for (int i = 0; i < b.cardinality; i++) {
+                char low = b.array[i];
+                if ((result.bits[low >>> 6] & (1L << low)) != 0) {
+                    result.bits[low >>> 6] &= ~(1L << low);
+                    result.cardinality--;
+                }
+            }
+        }
+        return result.normalize();
+    }
+
+    // ---------------------------------------------------------------- 块数组
+
+    private void append(char key, Container container) {
+        insertContainer(size, key, container);
+    }
+
+    private void insertContainer(int at, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = container;
+        size++;
+    }
+
+    private void removeContainer(int at) {
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        containers[--size] = null;
+    }
+}
@@ -0,0 +1,165 @@
+package com.deepmind.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 编辑器当前文档的分析模型 (带版本号)
+ * 1. 编辑器只有一个文本监听：每次改动调用 edit() / reset()，版本号 +1，正文存在 Rope 里 (改动 O(log n))，
+ *    行索引由 Rope 节点上的换行计数维护 (行号 <-> 位置都是 O(log n))，
+ *    标题索引、字数统计按改动范围增量更新 (代价和改动大小成正比，不扫描全文)
+ * 2. 需要扫全文的分析 (出链、查找命中) 按需计算，同一个版本只算一次，之后直接取缓存
+ * 3. 停止输入后 (防抖) 调用一次 analyze()，依次通知大纲、字数、预览、查找，
+ *    它们都从这里取数据，不再各自 getText() 再跑一遍正则；
+ *    预览的解析树 (按块缓存) 由 IncrementalRenderer 在后台线程维护，按这里的版本号丢弃过期结果
+ * 只在 UI 线程上修改；version() 可以在任何线程读取，text() 取到的 Rope 不可变，可以交给后台线程。
+ */
+public class DocumentModel {
+
+    private volatile long version = 0;
+    private Rope text = Rope.EMPTY;
+
+    private final HeadingIndex headings = new HeadingIndex();
+    private final DocumentStats stats = new DocumentStats();
+
+    // 按版本缓存的全文分析
+    private Set<String> links = Set.of();
+    private long linksVersion = -1;
+    private String matchQuery = null;
+    private int[] matches = new int[0];
+    private long matchesVersion = -1;
+
+    private final List<Consumer<DocumentModel>> listeners = new ArrayList<>();
+
+    /**
+     * 整篇替换 (换了一篇笔记、setText 等没有改动范围的变化)
+     */
+    public void reset(String newText) {
+        String source = newText == null ? "" : newText;
+        text = Rope.of(source);
+        headings.reset(source);
+        stats.reset(source);
+        version++;
+    }
+
+    /**
+     * 应用一次编辑：把 [start, oldEnd) 换成 inserted
+     */
+    public void edit(int start, int oldEnd, String inserted) {
+        Rope oldText = text;
+        text = oldText.replace(start, oldEnd, inserted);
+        int newEnd = start + inserted.length();
+        headings.edit(start, oldEnd, newEnd, text);
+        stats.edit(oldText, text, start, oldEnd, newEnd);
+        version++;
+    }
+
+    /**
+     * 版本号：每次改动 +1
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * 当前版本的正文 (不可变)；需要 String 时再 toString()
+     */
+    public Rope text() {
+        return text;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    // ---------------------------------------------------------------- 行 (O(log n))
+
+    public int lineCount() {
+        return text.lineCount();
+    }
+
+    /**
+     * offset 所在的行号 (从 0 开始)
+     */
+    public int lineOf(int offset) {
+        return text.lineOf(offset);
+    }
+
+    public int lineStart(int line) {
+        return text.lineStart(line);
+    }
+
+    /**
+     * 第 line 行的结束位置 (不含换行符)
+     */
+    public int lineEnd(int line) {
+        return line + 1 < text.lineCount() ? text.lineStart(line + 1) - 1 : text.length();
+    }
+
+    // ---------------------------------------------------------------- 分析结果
+
+    public List<HeadingIndex.Heading> headings() {
+        return headings.headings();
+    }
+
+    public DocumentStats.Counts stats() {
+        return stats.counts();
+    }
+
+    /**
+     * 正文里的链接目标 ([[双链]] 和 (标题.md))，每个版本只提取一次
+     */
+    public Set<String> links() {
+        if (linksVersion != version) {
+            links = LinkIndex.extract(text.toString());
+            linksVersion = version;
+        }
+        return links;
+    }
+
+    /**
+     * query 在正文中的所有出现位置 (不重叠，升序)，同一版本、同一查询只查一次
+     */
+    public int[] matches(String query) {
+        if (query == null || query.isEmpty()) return new int[0];
+        if (matchesVersion != version || !query.equals(matchQuery)) {
+            int[] found = new int[16];
+            int count = 0;
+            int index = 0;
+            while ((index = text.indexOf(query, index)) != -1) { // 按块查找，不拼出全文
+                if (count == found.length) found = Arrays.copyOf(found, count * 2);
+                found[count++] = index;
+                index += query.length();
+            }
+            matches = Arrays.copyOf(found, count);
+            matchQuery = query;
+            matchesVersion = version;
+        }
+        return matches;
+    }
+
+    // ---------------------------------------------------------------- 分发
+
+    /**
+     * 注册一个分析结果的使用者，每次 analyze() 时被调用
+     */
+    public void addListener(Consumer<DocumentModel> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 把当前版本交给所有使用者 (防抖计时结束时调用一次)
+     */
+    public void analyze() {
+        for (Consumer<DocumentModel> listener : listeners) {
+            try {
+                listener.accept(this);
+            } catch (RuntimeException e) {
+                System.err.println("文档分析失败: " + e.getMessage());
+            }
+        }
+    }
+}
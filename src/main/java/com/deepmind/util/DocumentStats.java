@@ -0,0 +1,128 @@
+package com.deepmind.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编辑器的字数与文档统计
+ * 所有统计项都不跨行 (图片、链接语法都写在一行里)，所以总数 = 各行之和：
+ * 每次编辑只减掉旧文档中受影响那几行的计数、加上新文档中对应几行的计数，代价和改动大小成正比，与全文长度无关。
+ */
+public class DocumentStats {
+
+    // 中文按每分钟 300 字、英文按每分钟 200 词估算阅读时间
+    private static final int CJK_PER_MINUTE = 300;
+    private static final int WORDS_PER_MINUTE = 200;
+
+    private static final Pattern IMAGE = Pattern.compile("!\\[.*?\\]\\(.*?\\)");
+    private static final Pattern LINK = Pattern.compile("(?<!!)\\[[^\\[\\]\\n]*\\]\\([^()\\n]*\\)|\\[\\[[^\\[\\]\\n]+?\\]\\]");
+
+    /**
+     * 一组计数
+     * @param characters 字数：除空白和图片语法以外的字符数 (和以前状态栏的 "字数" 含义相同)
+     * @param cjk        中日韩文字
+     * @param words      英文等字母文字的单词 (连续的字母数字算一个)
+     * @param images     图片 ![...](...)
+     * @param links      链接 [...](...) 和 [[双链]]
+     */
+    public record Counts(int characters, int cjk, int words, int images, int links) {
+
+        /**
+         * 估算的阅读时间 (分钟，不足一分钟按一分钟；空文档为 0)
+         */
+        public int readingMinutes() {
+            double minutes = (double) cjk / CJK_PER_MINUTE + (double) words / WORDS_PER_MINUTE;
+            return characters == 0 ? 0 : Math.max(1, (int) Math.ceil(minutes));
+        }
+    }
+
+    private int characters, cjk, words, images, links;
+
+    /**
+     * 整篇重新统计 (换了一篇笔记)
+     */
+    public void reset(CharSequence text) {
+        characters = cjk = words = images = links = 0;
+        add(text, 0, text.length(), 1);
+    }
+
+    /**
+     * 应用一次编辑：旧文档 [start, oldEnd) 被替换成新文档 [start, newEnd)
+     */
+    public void edit(CharSequence oldText, CharSequence newText, int start, int oldEnd, int newEnd) {
+        int from = start;
+        while (from > 0 && newText.charAt(from - 1) != '\n') from--;
+        add(oldText, from, lineEnd(oldText, oldEnd), -1);
+        add(newText, from, lineEnd(newText, newEnd), 1);
+    }
+
+    public Counts counts() {
+        return new Counts(characters, cjk, words, images, links);
+    }
+
+    /**
+     * 一次性统计一段文本 (不在编辑器里的文档用)
+     */
+    public static Counts of(CharSequence text) {
+        DocumentStats stats = new DocumentStats();
+        stats.reset(text);
+        return stats.counts();
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    // 统计 [from, to) 并乘以 sign 累加 (sign = -1 表示减掉)
+    private void add(CharSequence text, int from, int to, int sign) {
+        if (from >= to) return;
+        CharSequence range = text.subSequence(from, to);
+
+        // 图片语法整体不计入字数
+        Matcher image = IMAGE.matcher(range);
+        int pos = 0;
+        while (image.find()) {
+            countText(range, pos, image.start(), sign);
+            images += sign;
+            pos = image.end();
+        }
+        countText(range, pos, range.length(), sign);
+
+        Matcher link = LINK.matcher(range);
+        while (link.find()) links += sign;
+    }
+
+    private void countText(CharSequence text, int from, int to, int sign) {
+        boolean inWord = false;
+        for (int i = from; i < to; ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (cp == ' ' || cp == '\t' || cp == '\n' || cp == '\r' || cp == '\f' || cp == 0x0B) {
+                inWord = false;
+                continue;
+            }
+            characters += sign;
+            if (isCjk(cp)) {
+                cjk += sign;
+                inWord = false;
+            } else if (Character.isLetterOrDigit(cp)) {
+                if (!inWord) words += sign;
+                inWord = true;
+            } else {
+                inWord = cp == '\'' && inWord; // don't 算一个词
+            }
+        }
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static int lineEnd(CharSequence text, int pos) {
+        int i = pos;
+        while (i < text.length() && text.charAt(i) != '\n') i++;
+        return i;
+    }
+}
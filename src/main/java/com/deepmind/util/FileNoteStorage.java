@@ -0,0 +1,123 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 默认存储：每篇笔记一个 .md 文件，平铺在笔记目录里
+ */
+public class FileNoteStorage implements NoteStorage {
+
+    private final Path dir;
+
+    public FileNoteStorage(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public List<Entry> list() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (var stream = Files.newDirectoryStream(dir, "*.md")) {
+            for (Path path : stream) {
+                BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attr.isRegularFile()) continue;
+                String name = path.getFileName().toString();
+                entries.add(new Entry(name.substring(0, name.length() - 3), attr.size(), attr.lastModifiedTime().toMillis()));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public Entry stat(String title) {
+        try {
+            BasicFileAttributes attr = Files.readAttributes(fileOf(title), BasicFileAttributes.class);
+            return attr.isRegularFile() ? new Entry(title, attr.size(), attr.lastModifiedTime().toMillis()) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String read(String title) throws IOException {
+        return Files.readString(fileOf(title));
+    }
+
+    /**
+     * 先写同目录下的临时文件，再原子替换，写到一半失败不会损坏原文件
+     */
+    @Override
+    public void write(String title, String content) throws IOException {
+        Path target = fileOf(title);
+        Path temp = dir.resolve("." + title + ".md.tmp");
+        try {
+            Files.writeString(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void delete(String title) throws IOException {
+        Files.deleteIfExists(fileOf(title));
+    }
+
+    @Override
+    public void rename(String oldTitle, String newTitle) throws IOException {
+        Path target = fileOf(newTitle);
+        // 检查目标文件是否已存在
+        if (Files.exists(target)) {
+            throw new IOException("目标文件名已存在");
+        }
+        Files.move(fileOf(oldTitle), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 逐个 fsync 文件，再 fsync 目录 (改名、原子替换记在目录里)
+     */
+    @Override
+    public void sync(Collection<String> titles) throws IOException {
+        for (String title : titles) {
+            Path file = fileOf(title);
+            if (!Files.isRegularFile(file)) continue;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows 上目录不能这样打开，那里的改名本身就是同步的
+        }
+    }
+
+    @Override
+    public Path fileOf(String title) {
+        return dir.resolve(title + ".md");
+    }
+
+    @Override
+    public int exportTo(Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        int count = 0;
+        for (Entry entry : list()) {
+            Files.copy(fileOf(entry.title()), targetDir.resolve(entry.title() + ".md"), StandardCopyOption.REPLACE_EXISTING);
+            count++;
+        }
+        return count;
+    }
+}
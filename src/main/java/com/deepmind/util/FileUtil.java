@@ -1,19 +1,21 @@
 package com.deepmind.util;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.IntConsumer;
 
 
 public class FileUtil {
     private static final String BASE_DIR = "notes";
-    private static final Gson gson = new Gson();
+    private static final String PACK_DIR = ".pack";
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+
+    private static NoteStorage storage;
 
     // 确保目录存在
     public static void initStorage() {
@@ -22,43 +24,123 @@ public class FileUtil {
         } catch (IOException e) {
             System.err.println("无法创建存储目录");
         }
+        if (storage == null) storage = openStorage(Paths.get(BASE_DIR));
+        // 列一次全部笔记建立笔记目录；载入元数据和由它派生的复习、标签索引
+        NoteCatalog.getInstance().load(storage);
+        MetadataStore.getInstance().open(Paths.get(BASE_DIR));
+        ReviewScheduler.getInstance().open();
+        TagIndex.getInstance().open();
+        LinkIndex.getInstance().open();
+        backfillIndexes(Paths.get(BASE_DIR));
+        // 加载全文索引，并在后台与存储对账 (对账时的正文更新也会交给标签索引)
+        NoteIndex.getInstance().open(Paths.get(BASE_DIR), storage);
+        // 上次没做完的链接感知重命名 (程序中途退出) 在这里补完
+        RenameRefactoring.getInstance().open(Paths.get(BASE_DIR));
+        // 其他程序 (编辑器、git、同步盘) 对笔记目录的修改；打包存储只由本程序写入，不需要监听
+        if (storage instanceof FileNoteStorage) {
+            VaultWatcher.getInstance().start(Paths.get(BASE_DIR));
+        }
+    }
+
+    /**
+     * 第一次启用标签 / 链接索引时把已有笔记提取一遍：一个后台线程把笔记库读一遍，每篇同时交给两个索引
+     */
+    private static void backfillIndexes(Path notesDir) {
+        boolean tags = TagIndex.getInstance().needsBackfill(notesDir);
+        boolean links = LinkIndex.getInstance().needsBackfill(notesDir);
+        if (!tags && !links) return;
+        NoteStorage source = storage;
+        Thread thread = new Thread(() -> {
+            for (String title : NoteCatalog.getInstance().titles()) {
+                try {
+                    String content = source.read(title);
+                    if (tags) TagIndex.getInstance().update(title, content);
+                    if (links) LinkIndex.getInstance().update(title, content);
+                } catch (IOException e) {
+                    System.err.println("提取标签和链接失败 " + title + ": " + e.getMessage());
+                }
+            }
+            if (tags) TagIndex.getInstance().markBackfilled(notesDir);
+            if (links) LinkIndex.getInstance().markBackfilled(notesDir);
+        }, "metadata-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 当前使用的存储后端
+     */
+    public static NoteStorage storage() {
+        return storage;
+    }
+
+    /**
+     * 选择存储后端：启动参数 -Ddeepmind.storage=packed 或者 notes/.pack 已存在时用打包存储，否则每篇一个 .md 文件
+     * 第一次启用打包存储时把现有的 .md 导入进去 (原文件保留)
+     */
+    private static NoteStorage openStorage(Path notesDir) {
+        Path packDir = notesDir.resolve(PACK_DIR);
+        boolean exists = Files.isDirectory(packDir);
+        if (!exists && !"packed".equals(System.getProperty("deepmind.storage"))) {
+            return new FileNoteStorage(notesDir);
+        }
+        try {
+            PackedNoteStorage packed = PackedNoteStorage.open(packDir);
+            if (!exists) {
+                System.out.println("已导入 " + packed.importFrom(notesDir) + " 篇笔记到打包存储");
+            }
+            return packed;
+        } catch (IOException e) {
+            System.err.println("打开打包存储失败，改用普通文件: " + e.getMessage());
+            return new FileNoteStorage(notesDir);
+        }
     }
 
+    /**
+     * 写入笔记 (文件存储先写临时文件再原子替换；打包存储追加一条记录)，写到一半失败不会损坏原内容
+     */
     public static void save(String title, String content) throws IOException {
-        Files.writeString(Paths.get(BASE_DIR, title + ".md"), content);
+        storage.write(title, content);
+        NoteCatalog.getInstance().saved(title);
+        NoteIndex.getInstance().update(title, content);
     }
 
     public static String read(String title) throws IOException {
-        return Files.readString(Paths.get(BASE_DIR, title + ".md"));
+        return storage.read(title);
+    }
+
+    /**
+     * 把全部笔记导出为普通 .md 文件 (两种存储都可以用)
+     * @return 导出的篇数
+     */
+    public static int exportAll(Path targetDir) throws IOException {
+        SaveQueue.getInstance().flush(FLUSH_TIMEOUT_MS);
+        return storage.exportTo(targetDir);
     }
 
+    /**
+     * 所有笔记标题 (来自内存中的 NoteCatalog，不再每次列目录)
+     */
     public static List<String> listAllNotes() throws IOException {
-        return Files.list(Paths.get(BASE_DIR))
-                .filter(path -> path.toString().endsWith(".md"))
-                .map(path -> path.getFileName().toString().replace(".md", ""))
-                .collect(Collectors.toList());
+        return NoteCatalog.getInstance().titles();
     }
 
     public static void delete(String title) throws IOException {
-        Path filePath = Paths.get(BASE_DIR, title + ".md");
-        Files.deleteIfExists(filePath);
+        SaveQueue.getInstance().take(title); // 丢掉排队中的写入，免得删掉后又被写回来 (不用等整条队列)
+        storage.delete(title);
+        NoteCatalog.getInstance().deleted(title);
+        NoteIndex.getInstance().remove(title);
+        MetadataStore.getInstance().remove(title);
     }
 
-    // 保存元数据
-    public static void saveMetadata(String title, NoteMetadata meta) throws IOException {
-        Path path = Paths.get(BASE_DIR, title + ".json");
-        Files.writeString(path, gson.toJson(meta));
+    // 保存元数据 (记入 MetadataStore，后台合并提交)
+    public static void saveMetadata(String title, NoteMetadata meta) {
+        MetadataStore.getInstance().put(title, meta);
     }
 
-    // 读取元数据
+    // 读取元数据 (没有记录时返回空对象防止报错)
     public static NoteMetadata readMetadata(String title) {
-        Path path = Paths.get(BASE_DIR, title + ".json");
-        if (!Files.exists(path)) return new NoteMetadata(); // 返回空对象防止报错
-        try {
-            return gson.fromJson(Files.readString(path), NoteMetadata.class);
-        } catch (IOException e) {
-            return new NoteMetadata();
-        }
+        return MetadataStore.getInstance().get(title);
     }
 
     /**
@@ -76,22 +158,48 @@ public class FileUtil {
     }
 
     public static void rename(String oldTitle, String newTitle) throws IOException {
-        Path source = Paths.get(BASE_DIR, oldTitle + ".md");
-        Path target = Paths.get(BASE_DIR, newTitle + ".md");
-
-        // 检查目标文件是否已存在
-        if (Files.exists(target)) {
-            throw new IOException("目标文件名已存在");
+        // 排队中的内容先取出来，改名后按新标题重新排队 (不用等整条队列，也不会在旧标题下被写回来)
+        String unsaved = SaveQueue.getInstance().take(oldTitle);
+        try {
+            // 目标已存在时抛出 IOException
+            storage.rename(oldTitle, newTitle);
+        } catch (IOException e) {
+            if (unsaved != null) SaveQueue.getInstance().submit(oldTitle, unsaved);
+            throw e;
         }
+        MetadataStore.getInstance().rename(oldTitle, newTitle);
+        NoteCatalog.getInstance().renamed(oldTitle, newTitle);
+        NoteIndex.getInstance().rename(oldTitle, newTitle);
+        if (unsaved != null) SaveQueue.getInstance().submit(newTitle, unsaved);
+    }
 
-        // 移动主文件
-        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
-
-        // 移动元数据文件 (json)
-        Path metaSource = Paths.get(BASE_DIR, oldTitle + ".json");
-        Path metaTarget = Paths.get(BASE_DIR, newTitle + ".json");
-        if (Files.exists(metaSource)) {
-            Files.move(metaSource, metaTarget, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * 批量重命名 (文件夹改名)：排队中的内容跟着换成新标题，目录变化合并成一次通知
+     * 中途失败时已经改好的照常通知，再抛出异常
+     * @param progress 每改好一篇回调一次已完成的篇数，可以为 null
+     */
+    public static void renameAll(Map<String, String> renames, IntConsumer progress) throws IOException {
+        SaveQueue queue = SaveQueue.getInstance();
+        Map<String, String> done = new LinkedHashMap<>();
+        Map<String, String> requeue = new LinkedHashMap<>(); // 新标题 -> 还没写盘的内容，目录更新之后再排队
+        try {
+            for (Map.Entry<String, String> rename : renames.entrySet()) {
+                String unsaved = queue.take(rename.getKey());
+                try {
+                    storage.rename(rename.getKey(), rename.getValue());
+                } catch (IOException e) {
+                    if (unsaved != null) queue.submit(rename.getKey(), unsaved);
+                    throw e;
+                }
+                MetadataStore.getInstance().rename(rename.getKey(), rename.getValue());
+                NoteIndex.getInstance().rename(rename.getKey(), rename.getValue());
+                done.put(rename.getKey(), rename.getValue());
+                if (unsaved != null) requeue.put(rename.getValue(), unsaved);
+                if (progress != null) progress.accept(done.size());
+            }
+        } finally {
+            NoteCatalog.getInstance().renamedAll(done);
+            requeue.forEach(queue::submit);
         }
     }
 }
@@ -0,0 +1,254 @@
+package com.deepmind.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 快速打开使用的模糊匹配器
+ * 1. 查询字符按顺序出现在标题中即算命中 (子序列)，汉字还可以用拼音首字母匹配 ("sjjg" -> "数据结构")
+ * 2. 打分：连续命中、单词 / "_" 分段开头命中加分，间隔扣分，命中落在最后一段 (笔记名本身) 再加分
+ * 3. 构造时预先算好小写键、拼音首字母和字符位掩码，查询时先用掩码排除不可能命中的标题
+ * 4. 只保留前 K 名 (小顶堆)；查询在上一次的基础上追加字符时，只在上一次的命中里继续筛选
+ */
+public class FuzzyMatcher {
+
+    /**
+     * 一条匹配结果
+     */
+    public record Result(String text, int score) {}
+
+    private static final int SCORE_MATCH = 16;
+    private static final int BONUS_BOUNDARY = 10;     // 单词 / 分段开头
+    private static final int BONUS_FIRST_CHAR = 8;    // 整个标题的第一个字符
+    private static final int BONUS_CONSECUTIVE = 6;
+    private static final int BONUS_LAST_SEGMENT = 12; // 全部命中都在最后一段
+    private static final int PENALTY_GAP_START = 3;
+    private static final int PENALTY_GAP = 1;
+
+    // 常用汉字 (0x4E00 - 0x9FFF) 的拼音首字母，0 表示未知
+    private static final char[] PINYIN_INITIALS = buildPinyinTable();
+
+    private final String[] items;
+    private final char[][] keys;      // 小写后的标题
+    private final char[][] initials;  // 与 keys 对齐：汉字的拼音首字母，其余为 0
+    private final long[] masks;
+    private final int[] lastSegmentStart;
+
+    // 增量筛选：上一次查询及其全部命中
+    private String lastQuery = null;
+    private int[] lastCandidates = null;
+
+    public FuzzyMatcher(List<String> items) {
+        int n = items.size();
+        this.items = items.toArray(new String[0]);
+        this.keys = new char[n][];
+        this.initials = new char[n][];
+        this.masks = new long[n];
+        this.lastSegmentStart = new int[n];
+        for (int i = 0; i < n; i++) {
+            String item = this.items[i];
+            char[] key = item.toLowerCase().toCharArray();
+            char[] init = new char[key.length];
+            long mask = 0;
+            for (int j = 0; j < key.length; j++) {
+                mask |= bit(key[j]);
+                char c = key[j];
+                if (c >= 0x4E00 && c <= 0x9FFF && PINYIN_INITIALS[c - 0x4E00] != 0) {
+                    init[j] = PINYIN_INITIALS[c - 0x4E00];
+                    mask |= bit(init[j]);
+                }
+            }
+            keys[i] = key;
+            initials[i] = init;
+            masks[i] = mask;
+            lastSegmentStart[i] = item.lastIndexOf('_') + 1;
+        }
+    }
+
+    /**
+     * 查询，返回按得分从高到低排列的前 limit 条；空查询按原顺序返回前 limit 条
+     */
+    public List<Result> match(String query, int limit) {
+        String q = query == null ? "" : query.toLowerCase().replace(" ", "");
+        List<Result> results = new ArrayList<>();
+        if (q.isEmpty()) {
+            for (int i = 0; i < items.length && i < limit; i++) results.add(new Result(items[i], 0));
+            lastQuery = null;
+            lastCandidates = null;
+            return results;
+        }
+
+        char[] pattern = q.toCharArray();
+        long queryMask = 0;
+        for (char c : pattern) queryMask |= bit(c);
+
+        // 查询只是在上一次后面追加字符：命中集合只会缩小
+        boolean narrowing = lastQuery != null && q.startsWith(lastQuery);
+        int[] candidates = narrowing ? lastCandidates : null;
+        int candidateCount = narrowing ? candidates.length : items.length;
+
+        int[] matched = new int[Math.min(candidateCount, 1024)];
+        int matchedCount = 0;
+        PriorityQueue<long[]> heap = new PriorityQueue<>(limit + 1, (a, b) -> Long.compare(a[0], b[0]));
+
+        for (int c = 0; c < candidateCount; c++) {
+            int i = narrowing ? candidates[c] : c;
+            if ((masks[i] & queryMask) != queryMask) continue;
+            int score = score(i, pattern);
+            if (score == Integer.MIN_VALUE) continue;
+
+            if (matchedCount == matched.length) matched = java.util.Arrays.copyOf(matched, matchedCount * 2);
+            matched[matchedCount++] = i;
+
+            // 同分时原顺序靠前的优先：把下标放进排序键的低位
+            long rankKey = ((long) score << 32) | (0xFFFFFFFFL - i);
+            if (heap.size() < limit) {
+                heap.add(new long[]{rankKey, i});
+            } else if (limit > 0 && rankKey > heap.peek()[0]) {
+                heap.poll();
+                heap.add(new long[]{rankKey, i});
+            }
+        }
+
+        lastQuery = q;
+        lastCandidates = java.util.Arrays.copyOf(matched, matchedCount);
+
+        while (!heap.isEmpty()) {
+            long[] entry = heap.poll();
+            results.add(new Result(items[(int) entry[1]], (int) (entry[0] >> 32)));
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * 子序列打分：先正向找到最早能完成匹配的结束位置，再反向收紧起点，最后在这一段里计算得分
+     * @return 不匹配时返回 Integer.MIN_VALUE
+     */
+    private int score(int item, char[] pattern) {
+        char[] key = keys[item];
+        char[] init = initials[item];
+
+        // 1. 正向
+        int p = 0;
+        int end = -1;
+        for (int k = 0; k < key.length; k++) {
+            if (matches(key[k], init[k], pattern[p])) {
+                if (++p == pattern.length) {
+                    end = k;
+                    break;
+                }
+            }
+        }
+        if (end < 0) return Integer.MIN_VALUE;
+
+        // 2. 反向：从结束位置往回匹配，得到最短的起点
+        p = pattern.length - 1;
+        int start = end;
+        for (int k = end; k >= 0; k--) {
+            if (matches(key[k], init[k], pattern[p])) {
+                if (--p < 0) {
+                    start = k;
+                    break;
+                }
+            }
+        }
+
+        // 3. 打分
+        int score = 0;
+        p = 0;
+        boolean inGap = false;
+        int prevMatch = -2;
+        for (int k = start; k <= end && p < pattern.length; k++) {
+            if (matches(key[k], init[k], pattern[p])) {
+                score += SCORE_MATCH;
+                if (k == 0) score += BONUS_FIRST_CHAR;
+                if (isBoundary(key, k)) score += BONUS_BOUNDARY;
+                if (prevMatch == k - 1) score += BONUS_CONSECUTIVE;
+                prevMatch = k;
+                inGap = false;
+                p++;
+            } else {
+                score -= inGap ? PENALTY_GAP : PENALTY_GAP_START;
+                inGap = true;
+            }
+        }
+        if (start >= lastSegmentStart[item]) score += BONUS_LAST_SEGMENT;
+        // 标题越短越接近查询
+        score -= key.length / 8;
+        return score;
+    }
+
+    private static boolean matches(char keyChar, char initial, char queryChar) {
+        return keyChar == queryChar || (initial != 0 && initial == queryChar);
+    }
+
+    private static boolean isBoundary(char[] key, int k) {
+        if (k == 0) return true;
+        char prev = key[k - 1];
+        char cur = key[k];
+        if (prev == '_' || prev == ' ' || prev == '-' || prev == '.' || prev == '/') return true;
+        // 汉字与字母 / 数字交界
+        return isCjk(prev) != isCjk(cur);
+    }
+
+    private static boolean isCjk(char c) {
+        return c >= 0x4E00 && c <= 0x9FFF;
+    }
+
+    // 64 位掩码：a-z / 0-9 各占一位，其余字符按编码散列到剩余的位
+    private static long bit(char c) {
+        if (c >= 'a' && c <= 'z') return 1L << (c - 'a');
+        if (c >= '0' && c <= '9') return 1L << (26 + c - '0');
+        return 1L << (36 + (c % 28));
+    }
+
+    /**
+     * GB2312 一级汉字按拼音排序，用每个声母段的起始区位码即可查出首字母；
+     * 二级汉字按部首排序，查不到首字母 (只能按字本身匹配)
+     */
+    private static char[] buildPinyinTable() {
+        char[] table = new char[0x9FFF - 0x4E00 + 1];
+        Charset gb;
+        try {
+            gb = Charset.forName("GB2312");
+        } catch (Exception e) {
+            return table; // 运行时没有中文字符集，放弃拼音匹配
+        }
+        int[] bounds = {0xB0A1, 0xB0C5, 0xB2C1, 0xB4EE, 0xB6EA, 0xB7A2, 0xB8C1, 0xB9FE, 0xBBF7,
+                0xBFA6, 0xC0AC, 0xC2E8, 0xC4C3, 0xC5B6, 0xC5BE, 0xC6DA, 0xC8BB, 0xC8F6, 0xCBFA,
+                0xCDDA, 0xCEF4, 0xD1B9, 0xD4D1, 0xD7FA};
+        char[] letters = "abcdefghjklmnopqrstwxyz".toCharArray();
+
+        CharsetEncoder encoder = gb.newEncoder();
+        CharBuffer in = CharBuffer.allocate(1);
+        for (char c = 0x4E00; c <= 0x9FFF; c++) {
+            if (!encoder.canEncode(c)) continue;
+            in.clear();
+            in.put(c).flip();
+            ByteBuffer out;
+            try {
+                out = encoder.encode(in);
+            } catch (CharacterCodingException e) {
+                continue;
+            }
+            if (out.remaining() != 2) continue;
+            int code = ((out.get(0) & 0xFF) << 8) | (out.get(1) & 0xFF);
+            if (code < bounds[0] || code >= bounds[bounds.length - 1]) continue;
+            for (int i = letters.length - 1; i >= 0; i--) {
+                if (code >= bounds[i]) {
+                    table[c - 0x4E00] = letters[i];
+                    break;
+                }
+            }
+        }
+        return table;
+    }
+}
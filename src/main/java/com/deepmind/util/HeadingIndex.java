@@ -0,0 +1,176 @@
+package com.deepmind.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 编辑器的标题索引 (文章大纲)
+ * 1. 只记 "有意义的行"：ATX 标题行 (# 标题) 和代码围栏行 (``` / ~~~)，按在文档中的位置排序
+ * 2. 每次编辑只重新识别改动涉及的那几行，之后的记录整体平移偏移量，不再对全文跑正则
+ * 3. 哪些标题在代码块里，由围栏记录依次推出来 (O(标题数))，改动打开或关闭了一个代码块也不用重扫正文
+ * 识别规则与 flexmark (GitHub 文档配置) 一致：# 顶格，1~6 个，后面是空白或行尾；
+ * 预览里 MarkdownParser 给同样的标题打上 data-outline 标记，两边的第 N 个标题是同一个
+ * (例外：紧跟在列表项后面、中间没有空行的 # 行会被 flexmark 并进列表项)。
+ */
+public class HeadingIndex {
+
+    /**
+     * 一个标题
+     * @param offset 标题行在文档中的起始位置
+     */
+    public record Heading(int level, String text, int offset) {}
+
+    private static final byte HEADING = 0;
+    private static final byte FENCE = 1;
+
+    /**
+     * 一条记录：标题行或围栏行
+     */
+    private static final class Mark {
+        int offset;
+        final byte kind;
+        final int level;     // 标题级别；围栏为围栏长度
+        final char fence;    // 围栏字符 ` 或 ~
+        final boolean info;  // 围栏后面有语言标记 (不能作为结束围栏)
+        final String text;
+
+        Mark(int offset, byte kind, int level, char fence, boolean info, String text) {
+            this.offset = offset;
+            this.kind = kind;
+            this.level = level;
+            this.fence = fence;
+            this.info = info;
+            this.text = text;
+        }
+    }
+
+    private final List<Mark> marks = new ArrayList<>();
+    private List<Heading> headings = List.of();
+    private boolean stale = false;
+
+    /**
+     * 整篇重建 (换了一篇笔记)
+     */
+    public void reset(CharSequence text) {
+        marks.clear();
+        scanLines(text, 0, text.length(), 0);
+        stale = true;
+    }
+
+    /**
+     * 应用一次编辑：旧文档 [start, oldEnd) 被替换成新文档 [start, newEnd)
+     * @param text 编辑之后的全文
+     */
+    public void edit(int start, int oldEnd, int newEnd, CharSequence text) {
+        int delta = newEnd - oldEnd;
+        // 受影响的行：新文档中 start 所在行的行首 ~ newEnd 所在行的行尾
+        int from = lineStart(text, start);
+        int to = lineEnd(text, newEnd);
+        // 这些行在旧文档中是 [from, to - delta]，其中的记录删掉，后面的平移
+        int first = lowerBound(from);
+        int last = first;
+        while (last < marks.size() && marks.get(last).offset <= to - delta) last++;
+        marks.subList(first, last).clear();
+        if (delta != 0) {
+            for (int i = first; i < marks.size(); i++) marks.get(i).offset += delta;
+        }
+        scanLines(text, from, to, first);
+        stale = true;
+    }
+
+    /**
+     * 当前的标题 (不含代码块里的)，按出现顺序
+     */
+    public List<Heading> headings() {
+        if (!stale) return headings;
+        List<Heading> result = new ArrayList<>();
+        Mark open = null; // 当前所在代码块的起始围栏
+        for (Mark mark : marks) {
+            if (mark.kind == FENCE) {
+                if (open == null) open = mark;
+                else if (mark.fence == open.fence && mark.level >= open.level && !mark.info) open = null;
+            } else if (open == null) {
+                result.add(new Heading(mark.level, mark.text, mark.offset));
+            }
+        }
+        headings = List.copyOf(result);
+        stale = false;
+        return headings;
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    // 识别 [from, to] 范围内的各行 (from 是行首)，按顺序插入到 at 处
+    private void scanLines(CharSequence text, int from, int to, int at) {
+        List<Mark> found = new ArrayList<>();
+        int pos = from;
+        while (pos <= to && pos <= text.length()) {
+            int end = lineEnd(text, pos);
+            Mark mark = classify(text, pos, end);
+            if (mark != null) found.add(mark);
+            pos = end + 1;
+        }
+        if (!found.isEmpty()) marks.addAll(at, found);
+    }
+
+    private static Mark classify(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && i - start < 4 && text.charAt(i) == ' ') i++;
+        if (i - start > 3 || i >= end) return null; // 4 个空格起是缩进代码
+        char c = text.charAt(i);
+        if (c == '#' && i == start) { // 标题不能缩进
+            int level = 0;
+            while (i < end && text.charAt(i) == '#') {
+                level++;
+                i++;
+            }
+            if (level > 6 || (i < end && text.charAt(i) != ' ' && text.charAt(i) != '\t')) return null;
+            return new Mark(start, HEADING, level, '\0', false, headingText(text, i, end));
+        }
+        if (c == '`' || c == '~') {
+            int n = 0;
+            while (i < end && text.charAt(i) == c) {
+                n++;
+                i++;
+            }
+            if (n < 3) return null;
+            String info = text.subSequence(i, end).toString().strip();
+            if (c == '`' && info.indexOf('`') >= 0) return null; // ``` 后面带反引号的是行内代码
+            return new Mark(start, FENCE, n, c, !info.isEmpty(), null);
+        }
+        return null;
+    }
+
+    // 去掉首尾空白和结尾的 # 序列 (## 标题 ## -> 标题)
+    private static String headingText(CharSequence text, int from, int to) {
+        String s = text.subSequence(from, to).toString().strip();
+        int j = s.length();
+        while (j > 0 && s.charAt(j - 1) == '#') j--;
+        if (j == 0) return "";
+        if (j < s.length() && (s.charAt(j - 1) == ' ' || s.charAt(j - 1) == '\t')) s = s.substring(0, j).strip();
+        return s;
+    }
+
+    private static int lineStart(CharSequence text, int pos) {
+        int i = Math.min(pos, text.length());
+        while (i > 0 && text.charAt(i - 1) != '\n') i--;
+        return i;
+    }
+
+    private static int lineEnd(CharSequence text, int pos) {
+        int i = pos;
+        while (i < text.length() && text.charAt(i) != '\n') i++;
+        return i;
+    }
+
+    // 第一个 offset >= pos 的记录
+    private int lowerBound(int pos) {
+        int lo = 0, hi = marks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (marks.get(mid).offset < pos) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
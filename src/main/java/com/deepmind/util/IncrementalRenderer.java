@@ -0,0 +1,229 @@
+package com.deepmind.util;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 块级增量渲染器
+ * 把文档切成顶层块，只重新渲染源码发生变化的块，
+ * 并与上一次已提交到页面的块列表做比较，生成最少的 insert / replace / remove 补丁。
+ *
+ * 使用方式：render() 计算结果 -> 把补丁或整页 HTML 交给 WebView -> 成功后 commit()
+ */
+public class IncrementalRenderer {
+
+    /**
+     * 一条 DOM 补丁，index 指的是按顺序执行到这一条时页面里的块下标
+     */
+    public record Patch(String op, int index, String html) {}
+
+    /**
+     * 一次渲染的结果
+     */
+    public static final class Result {
+        private final List<String> keys;
+        private final List<String> htmls;
+        private final List<Patch> patches;
+        private final List<String> baseKeys;
+        // 各块在源码中的起始行和行数 (与 keys 一一对应)
+        private final int[] startLines;
+        private final int[] lineCounts;
+
+        private Result(List<String> keys, List<String> htmls, List<Patch> patches, List<String> baseKeys,
+                       int[] startLines, int[] lineCounts) {
+            this.keys = keys;
+            this.htmls = htmls;
+            this.patches = patches;
+            this.baseKeys = baseKeys;
+            this.startLines = startLines;
+            this.lineCounts = lineCounts;
+        }
+
+        public List<Patch> getPatches() {
+            return patches;
+        }
+
+        public int getBlockCount() {
+            return keys.size();
+        }
+
+        /**
+         * 补丁序列化成 JSON (同时是合法的 JS 字面量，可直接拼进 executeScript)
+         */
+        public String getPatchesJson() {
+            return GSON.toJson(patches);
+        }
+
+        /**
+         * 整页的块 HTML (页面首次加载时使用)
+         */
+        public String getFullHtml() {
+            StringBuilder sb = new StringBuilder();
+            for (String html : htmls) {
+                sb.append(wrap(html));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final Gson GSON = new Gson();
+    private static final int RECENT_CACHE_SIZE = 256;
+
+    // 上一次渲染的所有块：块源码 -> HTML (始终覆盖整篇文档，不会因为块太多而失效)
+    private Map<String, String> lastRendered = new HashMap<>();
+
+    // 最近被替换掉的块 (LRU)，撤销或来回修改时直接命中
+    private final Map<String, String> recentCache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > RECENT_CACHE_SIZE;
+        }
+    };
+
+    // 当前页面上已经存在的块 (已提交)
+    private volatile List<String> committedKeys = Collections.emptyList();
+    private volatile Result committed = null;
+
+    /**
+     * 计算新的块列表以及相对于已提交状态的补丁
+     */
+    public synchronized Result render(String md) {
+        MarkdownBlockSplitter.Result split = MarkdownBlockSplitter.split(md);
+        String refs = split.references();
+        List<String> base = committedKeys;
+
+        int count = split.blocks().size();
+        List<String> keys = new ArrayList<>(count);
+        List<String> htmls = new ArrayList<>(count);
+        int[] startLines = new int[count];
+        int[] lineCounts = new int[count];
+        Map<String, String> rendered = new HashMap<>(count * 2);
+        for (MarkdownBlockSplitter.Block block : split.blocks()) {
+            String key = refs.isEmpty() ? block.text() : block.text() + "\n\n" + refs;
+            String html = renderBlock(key);
+            startLines[keys.size()] = block.startLine();
+            lineCounts[keys.size()] = block.lineCount();
+            keys.add(key);
+            htmls.add(html);
+            rendered.put(key, html);
+        }
+
+        // 本次没用到的旧块放进最近缓存
+        for (Map.Entry<String, String> entry : lastRendered.entrySet()) {
+            if (!rendered.containsKey(entry.getKey())) recentCache.put(entry.getKey(), entry.getValue());
+        }
+        lastRendered = rendered;
+
+        return new Result(keys, htmls, diff(base, keys, htmls), base, startLines, lineCounts);
+    }
+
+    /**
+     * 页面已经应用了该结果，把它记为新的基准
+     * @return false 表示在此期间基准已被其他结果替换，调用方应该整页重载
+     */
+    public synchronized boolean commit(Result result) {
+        if (result.baseKeys != committedKeys) {
+            return false;
+        }
+        committedKeys = result.keys;
+        committed = result;
+        return true;
+    }
+
+    /**
+     * 整页重载时使用：直接以该结果为基准，不关心补丁
+     */
+    public synchronized void commitFull(Result result) {
+        committedKeys = result.keys;
+        committed = result;
+    }
+
+    /**
+     * 切换笔记或页面被清空时调用
+     */
+    public synchronized void reset() {
+        committedKeys = Collections.emptyList();
+        committed = null;
+    }
+
+    /**
+     * 源码行 -> 页面位置 (编辑器切到预览时同步滚动)
+     * @param line 源码行号 (从 0 开始，小数部分表示滚过了这一行的多少)
+     * @return 已提交页面里的块下标 + 块内比例；页面上没有块时返回 -1
+     */
+    public double blockPosition(double line) {
+        Result result = committed;
+        if (result == null || result.startLines.length == 0) return -1;
+        int[] starts = result.startLines;
+        int lo = 0, hi = starts.length - 1; // 最后一个 startLine <= line 的块 (块之间的空行算在前一块末尾)
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= line) lo = mid;
+            else hi = mid - 1;
+        }
+        double within = (line - starts[lo]) / result.lineCounts[lo];
+        return lo + Math.max(0, Math.min(1, within));
+    }
+
+    /**
+     * 页面位置 -> 源码行 (预览切回编辑器时同步滚动)，blockPosition 的反过程；在页面顶部或页面上没有块时返回 0
+     */
+    public double linePosition(double blockPosition) {
+        Result result = committed;
+        if (result == null || result.startLines.length == 0 || blockPosition <= 0) return 0;
+        int index = Math.min((int) blockPosition, result.startLines.length - 1);
+        double within = Math.min(1, blockPosition - index);
+        return result.startLines[index] + within * result.lineCounts[index];
+    }
+
+    private String renderBlock(String key) {
+        String cached = lastRendered.get(key);
+        if (cached == null) cached = recentCache.get(key);
+        if (cached != null) return cached;
+        return MarkdownParser.render(key, MarkdownParser.Profile.PREVIEW);
+    }
+
+    // 公共前缀 + 公共后缀之外的区间才生成补丁，打字时通常只有一条 replace
+    private static List<Patch> diff(List<String> oldKeys, List<String> newKeys, List<String> newHtmls) {
+        int oldSize = oldKeys.size();
+        int newSize = newKeys.size();
+
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && oldKeys.get(prefix).equals(newKeys.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && oldKeys.get(oldSize - 1 - suffix).equals(newKeys.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+
+        int oldMiddle = oldSize - prefix - suffix;
+        int newMiddle = newSize - prefix - suffix;
+        List<Patch> patches = new ArrayList<>();
+
+        int common = Math.min(oldMiddle, newMiddle);
+        for (int i = 0; i < common; i++) {
+            // replace 不改变下标，对齐位置上没变的块可以跳过
+            if (oldKeys.get(prefix + i).equals(newKeys.get(prefix + i))) continue;
+            patches.add(new Patch("replace", prefix + i, newHtmls.get(prefix + i)));
+        }
+        for (int i = common; i < newMiddle; i++) {
+            patches.add(new Patch("insert", prefix + i, newHtmls.get(prefix + i)));
+        }
+        for (int i = common; i < oldMiddle; i++) {
+            patches.add(new Patch("remove", prefix + common, null));
+        }
+        return patches;
+    }
+
+    private static String wrap(String html) {
+        return "<div class=\"md-block\">" + html + "</div>";
+    }
+}
@@ -0,0 +1,363 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 双链索引
+ * 1. 保存时从正文提取 [[笔记标题]] / [[标题|别名]] / [[标题#小节]] 和 [文字](标题.md)
+ *    (代码块、行内代码里的不算)，链接目标写进 NoteMetadata.links
+ * 2. 内存里是一张邻接表：正向 (笔记 -> 它链接的目标) 和反向 (目标 -> 链接它的笔记)，
+ *    更新时只比较新旧两组出链，增删对应的反向条目，查反向链接不需要扫描整个笔记库
+ * 3. 链接目标可以写完整标题 (课程_Java)，也可以只写最后一段 (Java)；同名时完整标题优先，
+ *    否则取字典序第一篇
+ * 启动时从内存里的元数据建立；第一次启用时在后台把已有笔记提取一遍。
+ */
+public class LinkIndex {
+
+    private static final String BACKFILL_MARKER = ".meta/links-extracted";
+
+    private static final Pattern WIKI_LINK = Pattern.compile("\\[\\[([^\\[\\]\\n]+?)\\]\\]");
+    // [文字](标题.md) 或 [文字](<带空格的 标题.md>)，后面可以跟 #小节 和 "标题"
+    private static final Pattern MARKDOWN_LINK =
+            Pattern.compile("\\]\\((?:<([^<>\\n]+?\\.md)>|([^()<>\\s]+?\\.md))(?:#[^()\\s]*)?(?:\\s+\"[^\"]*\")?\\)");
+    private static final Pattern INLINE_CODE = Pattern.compile("`[^`]*`");
+
+    private static final LinkIndex INSTANCE = new LinkIndex();
+
+    public static LinkIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<String, Set<String>> forward = new HashMap<>();  // 笔记 -> 链接目标 (原样)
+    private final Map<String, Set<String>> backward = new HashMap<>(); // 链接目标 -> 笔记
+    private final Map<String, TreeSet<String>> byName = new HashMap<>(); // 最后一段名字 -> 完整标题
+    private boolean opened = false;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private LinkIndex() {
+    }
+
+    /**
+     * 从元数据建立索引，并开始跟随正文变化 (须在 NoteIndex.open 之前调用，才能收到启动对账时的更新)
+     */
+    public void open() {
+        synchronized (this) {
+            if (opened) return;
+            opened = true;
+            NoteCatalog catalog = NoteCatalog.getInstance();
+            for (String title : catalog.titles()) addName(title);
+            MetadataStore.getInstance().forEach((title, meta) -> {
+                if (meta.links != null && !meta.links.isEmpty() && catalog.contains(title)) {
+                    index(title, new HashSet<>(meta.links));
+                }
+            });
+        }
+        NoteIndex.getInstance().addContentListener(this::update);
+        // 重命名 = 旧标题 REMOVED + 新标题 ADDED，元数据此时已经跟着改名
+        NoteCatalog.getInstance().addListener(changes -> {
+            boolean changed = false;
+            synchronized (this) {
+                for (NoteCatalog.Change change : changes) {
+                    switch (change.type()) {
+                        case REMOVED -> {
+                            removeName(change.title());
+                            index(change.title(), Set.of());
+                            changed = true;
+                        }
+                        case ADDED -> {
+                            addName(change.title());
+                            List<String> links = MetadataStore.getInstance().get(change.title()).links;
+                            index(change.title(), links == null ? Set.of() : new HashSet<>(links));
+                            changed = true;
+                        }
+                        case MODIFIED -> { }
+                    }
+                }
+            }
+            if (changed) fire();
+        });
+    }
+
+    /**
+     * 笔记正文变化：重新提取出链，和上次的比较，有变化时写回元数据并调整反向条目
+     */
+    public void update(String title, String content) {
+        Set<String> links = extract(content);
+        MetadataStore store = MetadataStore.getInstance();
+        List<String> stored = store.get(title).links;
+        Set<String> old = stored == null ? Set.of() : new HashSet<>(stored);
+        if (!old.equals(links)) {
+            // 只改 links 字段 (在存储的锁内)，不覆盖同时写入的标签、复习字段
+            store.update(title, meta -> meta.links = new ArrayList<>(links));
+        }
+        boolean changed;
+        synchronized (this) {
+            changed = NoteCatalog.getInstance().contains(title) && index(title, links);
+        }
+        if (changed) fire();
+    }
+
+    /**
+     * 链接到这篇笔记的笔记 (已排序)
+     */
+    public synchronized List<String> backlinksOf(String title) {
+        Set<String> result = new TreeSet<>(backward.getOrDefault(title, Set.of()));
+        // 只写了最后一段名字的链接，要确认它确实指向这篇
+        String name = nameOf(title);
+        if (!name.equals(title) && title.equals(resolveLocked(name))) {
+            result.addAll(backward.getOrDefault(name, Set.of()));
+        }
+        result.remove(title);
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 这篇笔记链接出去的目标 (原样，已排序)
+     */
+    public synchronized List<String> linksOf(String title) {
+        return new ArrayList<>(new TreeSet<>(forward.getOrDefault(title, Set.of())));
+    }
+
+    /**
+     * 把链接目标解析成笔记标题，找不到返回 null
+     */
+    public synchronized String resolve(String target) {
+        return resolveLocked(normalize(target));
+    }
+
+    /**
+     * 出链或反向链接变化时回调 (可能在非 UI 线程)
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 从正文提取链接目标：[[链接]] (去掉别名、#小节 和 .md 后缀) 和指向笔记的相对链接 [文字](标题.md)
+     */
+    public static Set<String> extract(String content) {
+        Set<String> links = new LinkedHashSet<>();
+        scan(content, (start, end, target) -> links.add(target));
+        return links;
+    }
+
+    /**
+     * 改写正文里的链接目标 (代码块、行内代码里的不动)，别名、#小节、.md 后缀和 URL 编码方式保持原样
+     * @param mapper 规范化后的目标 -> 新目标，不需要改的返回 null
+     * @return 改写后的正文；没有任何改动时返回原字符串
+     */
+    public static String rewrite(String content, UnaryOperator<String> mapper) {
+        StringBuilder out = new StringBuilder(content.length() + 64);
+        int[] copied = {-1}; // 已经原样拷贝到的位置，-1 表示还没有改动
+        scan(content, (start, end, target) -> {
+            String replacement = mapper.apply(target);
+            if (replacement == null) return;
+            String raw = content.substring(start, end);
+            out.append(content, Math.max(copied[0], 0), start).append(replaceTarget(raw, replacement));
+            copied[0] = end;
+        });
+        if (copied[0] < 0) return content;
+        return out.append(content, copied[0], content.length()).toString();
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    /**
+     * 扫描到的一个链接：[start, end) 是链接目标在正文里的原文 (不含 [[ ]] 或 ( ))
+     */
+    private interface LinkVisitor {
+        void visit(int start, int end, String target);
+    }
+
+    private static void scan(String content, LinkVisitor visitor) {
+        if (content.indexOf("[[") < 0 && content.indexOf(".md") < 0) return;
+        String fence = null;
+        int lineStart = 0;
+        while (lineStart <= content.length()) {
+            int lineEnd = content.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = content.length();
+            String line = content.substring(lineStart, lineEnd);
+            String stripped = line.stripLeading();
+            if (fence != null) {
+                if (stripped.startsWith(fence)) fence = null;
+            } else if (stripped.startsWith("```") || stripped.startsWith("~~~")) {
+                fence = stripped.substring(0, 3);
+            } else {
+                scanLine(line, lineStart, visitor);
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static void scanLine(String line, int offset, LinkVisitor visitor) {
+        boolean wiki = line.contains("[[");
+        boolean markdown = line.contains(".md");
+        if (!wiki && !markdown) return;
+        List<int[]> code = new ArrayList<>();
+        if (line.indexOf('`') >= 0) {
+            Matcher c = INLINE_CODE.matcher(line);
+            while (c.find()) code.add(new int[]{c.start(), c.end()});
+        }
+        if (wiki) {
+            Matcher m = WIKI_LINK.matcher(line);
+            while (m.find()) {
+                if (inCode(code, m.start())) continue;
+                String target = normalize(m.group(1));
+                if (!target.isEmpty()) visitor.visit(offset + m.start(1), offset + m.end(1), target);
+            }
+        }
+        if (markdown) {
+            Matcher m = MARKDOWN_LINK.matcher(line);
+            while (m.find()) {
+                if (inCode(code, m.start())) continue;
+                int group = m.group(1) != null ? 1 : 2;
+                String target = noteOfPath(m.group(group));
+                if (target != null) visitor.visit(offset + m.start(group), offset + m.end(group), target);
+            }
+        }
+    }
+
+    private static boolean inCode(List<int[]> spans, int at) {
+        for (int[] span : spans) {
+            if (at >= span[0] && at < span[1]) return true;
+        }
+        return false;
+    }
+
+    // 相对链接 (可带 ./ 和 %20 之类的编码) 指向的笔记标题；网址、子目录、图片返回 null
+    private static String noteOfPath(String path) {
+        if (path.startsWith("./")) path = path.substring(2);
+        if (path.contains("/") || path.contains("\\") || path.contains(":")) return null;
+        if (path.indexOf('%') >= 0) {
+            try {
+                path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        String target = path.substring(0, path.length() - 3).strip();
+        return target.isEmpty() ? null : target;
+    }
+
+    // 只换目标本身：[[旧#小节|别名]] -> [[新#小节|别名]]，(旧.md) -> (新.md)
+    private static String replaceTarget(String raw, String replacement) {
+        if (raw.endsWith(".md") && !raw.contains("|") && !raw.contains("#")) {
+            // Markdown 相对链接：沿用原来的写法
+            String prefix = raw.startsWith("./") ? "./" : "";
+            String encoded;
+            if (raw.indexOf('%') >= 0) {
+                encoded = URLEncoder.encode(replacement, StandardCharsets.UTF_8).replace("+", "%20");
+            } else {
+                encoded = replacement.replace(" ", "%20");
+            }
+            return prefix + encoded + ".md";
+        }
+        int end = raw.length();
+        int bar = raw.indexOf('|');
+        if (bar >= 0) end = bar;
+        int hash = raw.indexOf('#');
+        if (hash >= 0 && hash < end) end = hash;
+        String suffix = raw.substring(end);
+        String target = raw.substring(0, end).strip();
+        return replacement + (target.endsWith(".md") ? ".md" : "") + suffix;
+    }
+
+    private static String normalize(String target) {
+        int bar = target.indexOf('|');
+        if (bar >= 0) target = target.substring(0, bar);
+        int hash = target.indexOf('#');
+        if (hash >= 0) target = target.substring(0, hash);
+        target = target.strip();
+        if (target.endsWith(".md")) target = target.substring(0, target.length() - 3).strip();
+        return target;
+    }
+
+    private static String nameOf(String title) {
+        return title.substring(title.lastIndexOf('_') + 1);
+    }
+
+    private String resolveLocked(String target) {
+        if (target.isEmpty()) return null;
+        if (NoteCatalog.getInstance().contains(target)) return target;
+        TreeSet<String> titles = byName.get(target);
+        return titles == null || titles.isEmpty() ? null : titles.first();
+    }
+
+    private void addName(String title) {
+        byName.computeIfAbsent(nameOf(title), n -> new TreeSet<>()).add(title);
+    }
+
+    private void removeName(String title) {
+        String name = nameOf(title);
+        TreeSet<String> titles = byName.get(name);
+        if (titles == null) return;
+        titles.remove(title);
+        if (titles.isEmpty()) byName.remove(name);
+    }
+
+    // 只处理新旧出链的差集
+    private boolean index(String title, Set<String> links) {
+        Set<String> old = forward.getOrDefault(title, Set.of());
+        if (old.equals(links)) return false;
+        for (String target : old) {
+            if (links.contains(target)) continue;
+            Set<String> sources = backward.get(target);
+            sources.remove(title);
+            if (sources.isEmpty()) backward.remove(target);
+        }
+        for (String target : links) {
+            if (!old.contains(target)) backward.computeIfAbsent(target, t -> new HashSet<>()).add(title);
+        }
+        if (links.isEmpty()) forward.remove(title);
+        else forward.put(title, links);
+        return true;
+    }
+
+    private void fire() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 是否还没把已有笔记的链接提取过 (第一次启用时由 FileUtil 在后台统一读一遍笔记，逐篇调用 update)
+     */
+    public boolean needsBackfill(Path notesDir) {
+        return !Files.exists(notesDir.resolve(BACKFILL_MARKER));
+    }
+
+    /**
+     * 已有笔记都提取过了，之后启动不再重复
+     */
+    public void markBackfilled(Path notesDir) {
+        Path marker = notesDir.resolve(BACKFILL_MARKER);
+        try {
+            Files.createDirectories(marker.getParent());
+            Files.writeString(marker, "1");
+        } catch (IOException e) {
+            System.err.println("提取链接失败: " + e.getMessage());
+        }
+    }
+}
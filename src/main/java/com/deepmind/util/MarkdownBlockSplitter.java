@@ -0,0 +1,232 @@
+package com.deepmind.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 把 Markdown 文档切分成互相独立的顶层块 (段落、标题、列表、表格、代码块...)
+ * 切分规则：
+ * 1. 围栏代码块 (``` / ~~~) 内部永远不切
+ * 2. 空行之后如果下一行没有缩进，则开启新块；有缩进说明是上一块的延续 (列表子项、缩进代码)
+ * 3. 例外：空行后是同一种列表标记 (- a 空行 - b 是一个松散列表)，或者 HTML 块还没闭合 (&lt;details&gt; 里有空行)，
+ *    都不切，否则单独渲染会变成两个列表、不配对的 HTML
+ * 4. 链接引用定义 ([id]: url) 单独收集，渲染每个块时追加，保证跨块引用仍然有效
+ */
+public class MarkdownBlockSplitter {
+
+    // CommonMark 第 6 类 HTML 块里有结束标签的容器元素：按开闭次数判断是否闭合
+    private static final Set<String> HTML_CONTAINERS = Set.of(
+            "address", "article", "aside", "blockquote", "body", "caption", "center", "colgroup", "dd", "details",
+            "dialog", "dir", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "frameset",
+            "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "html", "iframe", "legend", "li", "main", "menu",
+            "nav", "noframes", "ol", "optgroup", "option", "p", "search", "section", "summary", "table", "tbody",
+            "td", "tfoot", "th", "thead", "title", "tr", "ul");
+    // 第 1 类：内部不解析 Markdown，到结束标签为止
+    private static final Set<String> HTML_RAW = Set.of("script", "pre", "style", "textarea");
+    private static final Pattern HTML_OPEN_TAG = Pattern.compile("^ {0,3}<([A-Za-z][A-Za-z0-9]*)(?=[\\s/>]|$)");
+    private static final Pattern LIST_MARKER = Pattern.compile("^ {0,3}(?:([-*+])|\\d{1,9}([.)]))(?:[ \\t]|$)");
+
+    /**
+     * 一个顶层块
+     * @param text      块的源码 (不含首尾空行)
+     * @param startLine 块在文档中的起始行号 (从 0 开始)
+     * @param lineCount 块占用的行数
+     */
+    public record Block(String text, int startLine, int lineCount) {}
+
+    /**
+     * 切分结果
+     * @param blocks     所有顶层块
+     * @param references 文档中出现的所有链接引用定义，每行一个
+     */
+    public record Result(List<Block> blocks, String references) {}
+
+    public static Result split(String md) {
+        List<Block> blocks = new ArrayList<>();
+        StringBuilder refs = new StringBuilder();
+        if (md == null || md.isEmpty()) return new Result(blocks, "");
+
+        int blockStart = -1;      // 当前块起始字符位置
+        int blockStartLine = 0;
+        int lastContentEnd = -1;  // 当前块最后一个非空行的结束位置
+        int lastContentLine = 0;
+        boolean pendingBlank = false;
+
+        char fenceChar = 0;
+        int fenceLen = 0;
+        String htmlEnd = null;   // 第 1~5 类 HTML 块的结束标记 (-->、</pre> ...)
+        String htmlTag = null;   // 没闭合的容器元素
+        int htmlDepth = 0;
+        char listMarker = 0;     // 当前块里最近一个顶层列表项的标记 (- * + 或有序列表的 . ))
+
+        int lineNo = 0;
+        int pos = 0;
+        int length = md.length();
+        while (pos <= length) {
+            int end = md.indexOf('\n', pos);
+            if (end == -1) end = length;
+            String line = md.substring(pos, end);
+
+            if (fenceChar != 0) {
+                // 围栏内部：只判断是否结束
+                if (isFenceClose(line, fenceChar, fenceLen)) fenceChar = 0;
+                lastContentEnd = end;
+                lastContentLine = lineNo;
+            } else if (htmlEnd != null) {
+                // 原样输出的 HTML 块 (注释、<pre> ...)：空行也不切，到结束标记为止
+                if (line.toLowerCase(Locale.ROOT).contains(htmlEnd)) htmlEnd = null;
+                lastContentEnd = end;
+                lastContentLine = lineNo;
+            } else if (line.isBlank()) {
+                if (blockStart >= 0) pendingBlank = true;
+            } else {
+                char marker = listMarker(line);
+                boolean continues = htmlTag != null || (marker != 0 && marker == listMarker);
+                if (blockStart >= 0 && pendingBlank && !isIndented(line) && !continues) {
+                    blocks.add(new Block(md.substring(blockStart, lastContentEnd), blockStartLine, lastContentLine - blockStartLine + 1));
+                    blockStart = -1;
+                    listMarker = 0;
+                }
+                if (!isIndented(line)) {
+                    if (marker != 0) listMarker = marker;
+                    else if (pendingBlank) listMarker = 0; // 空行后的非列表行结束了列表
+                }
+                if (blockStart < 0) {
+                    blockStart = pos;
+                    blockStartLine = lineNo;
+                }
+                pendingBlank = false;
+                lastContentEnd = end;
+                lastContentLine = lineNo;
+
+                int fence = fenceLength(line);
+                if (htmlTag != null) {
+                    htmlDepth += tagBalance(line, htmlTag);
+                    if (htmlDepth <= 0) htmlTag = null;
+                } else if (fence > 0) {
+                    fenceChar = line.trim().charAt(0);
+                    fenceLen = fence;
+                } else if (isReferenceDefinition(line)) {
+                    refs.append(line.trim()).append('\n');
+                } else {
+                    htmlEnd = htmlBlockEnd(line);
+                    if (htmlEnd == null) {
+                        String tag = htmlContainer(line);
+                        int balance = tag == null ? 0 : tagBalance(line, tag);
+                        if (balance > 0) {
+                            htmlTag = tag;
+                            htmlDepth = balance;
+                        }
+                    }
+                }
+            }
+
+            if (end == length) break;
+            pos = end + 1;
+            lineNo++;
+        }
+
+        if (blockStart >= 0) {
+            blocks.add(new Block(md.substring(blockStart, lastContentEnd), blockStartLine, lastContentLine - blockStartLine + 1));
+        }
+        return new Result(blocks, refs.toString());
+    }
+
+    // 列表项的标记：无序列表返回 - * +，有序列表返回 . 或 )；不是列表项 (包括 * * * 分隔线) 返回 0
+    private static char listMarker(String line) {
+        Matcher m = LIST_MARKER.matcher(line);
+        if (!m.find()) return 0;
+        if (m.group(1) != null) {
+            String rest = line.strip();
+            if (rest.length() >= 3 && rest.replace(" ", "").replace("\t", "").chars().allMatch(c -> c == rest.charAt(0))) {
+                return 0; // 分隔线
+            }
+            return m.group(1).charAt(0);
+        }
+        return m.group(2).charAt(0);
+    }
+
+    // 第 1~5 类 HTML 块 (可以包含空行)：返回结束标记 (小写)；这一行里已经结束或不是这类块时返回 null
+    private static String htmlBlockEnd(String line) {
+        String trimmed = line.stripLeading();
+        if (line.length() - trimmed.length() > 3 || !trimmed.startsWith("<")) return null;
+        String lower = trimmed.toLowerCase(Locale.ROOT);
+        String end = null;
+        int from;
+        if (lower.startsWith("<!--")) {
+            end = "-->";
+            from = 4;
+        } else if (lower.startsWith("<![cdata[")) {
+            end = "]]>";
+            from = 9;
+        } else if (lower.startsWith("<?")) {
+            end = "?>";
+            from = 2;
+        } else {
+            Matcher m = HTML_OPEN_TAG.matcher(lower);
+            if (!m.find() || !HTML_RAW.contains(m.group(1))) return null;
+            end = "</" + m.group(1) + ">";
+            from = m.end();
+        }
+        return lower.indexOf(end, from) >= 0 ? null : end;
+    }
+
+    // 以容器元素开头的行 (第 6 类 HTML 块)，返回小写标签名
+    private static String htmlContainer(String line) {
+        Matcher m = HTML_OPEN_TAG.matcher(line);
+        if (!m.find()) return null;
+        String tag = m.group(1).toLowerCase(Locale.ROOT);
+        return HTML_CONTAINERS.contains(tag) ? tag : null;
+    }
+
+    // 这一行里 <tag 的个数减去 </tag> 的个数
+    private static int tagBalance(String line, String tag) {
+        String lower = line.toLowerCase(Locale.ROOT);
+        int balance = 0;
+        for (int i = lower.indexOf("<" + tag); i >= 0; i = lower.indexOf("<" + tag, i + 1)) {
+            int after = i + 1 + tag.length();
+            if (after == lower.length() || " \t>/".indexOf(lower.charAt(after)) >= 0) balance++;
+        }
+        for (int i = lower.indexOf("</" + tag); i >= 0; i = lower.indexOf("</" + tag, i + 1)) {
+            int after = i + 2 + tag.length();
+            if (after == lower.length() || " \t>".indexOf(lower.charAt(after)) >= 0) balance--;
+        }
+        return balance;
+    }
+
+    private static boolean isIndented(String line) {
+        return line.startsWith(" ") || line.startsWith("\t");
+    }
+
+    // 返回开启围栏的符号长度，不是围栏返回 0 (最多允许 3 个空格缩进)
+    private static int fenceLength(String line) {
+        int i = 0;
+        while (i < line.length() && i < 3 && line.charAt(i) == ' ') i++;
+        if (i >= line.length()) return 0;
+        char c = line.charAt(i);
+        if (c != '`' && c != '~') return 0;
+        int n = 0;
+        while (i + n < line.length() && line.charAt(i + n) == c) n++;
+        return n >= 3 ? n : 0;
+    }
+
+    private static boolean isFenceClose(String line, char fenceChar, int fenceLen) {
+        String trimmed = line.trim();
+        if (trimmed.length() < fenceLen) return false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (trimmed.charAt(i) != fenceChar) return false;
+        }
+        return true;
+    }
+
+    private static boolean isReferenceDefinition(String line) {
+        String trimmed = line.stripLeading();
+        if (line.length() - trimmed.length() > 3 || !trimmed.startsWith("[")) return false;
+        int close = trimmed.indexOf("]:");
+        return close > 1 && trimmed.charAt(1) != '^';
+    }
+}
@@ -1,68 +1,207 @@
 package com.deepmind.util;
 import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.ext.wikilink.WikiLinkExtension;
 
-import com.vladsch.flexmark.ext.ins.InsExtension;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.html.AttributeProvider;
 import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.IndependentAttributeProviderFactory;
+import com.vladsch.flexmark.html.renderer.AttributablePart;
+import com.vladsch.flexmark.html.renderer.LinkResolverContext;
 import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.MutableDataHolder;
 import com.vladsch.flexmark.util.data.MutableDataSet;
 import com.vladsch.flexmark.parser.ParserEmulationProfile;
 
 
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
+/**
+ * Markdown 渲染引擎
+ * 每种用途 (预览 / PDF 导出 / 纯 HTML) 的 Parser 与 HtmlRenderer 只在类加载时构建一次，
+ * 构建完成后不可变，可在多个线程之间共享，单次渲染只剩下解析本身的开销。
+ */
 public class MarkdownParser {
+
+    /**
+     * 渲染配置档
+     */
+    public enum Profile {
+        PREVIEW,     // WebView 实时预览
+        PDF_EXPORT,  // openhtmltopdf 导出，需要合法的 XHTML
+        RAW_HTML     // 导出网页
+    }
+
+    // 预编译的行内语法，避免每次调用 replaceAll 重新编译正则
+    private static final Pattern HIGHLIGHT_PATTERN = Pattern.compile("==([^=\\n]+)==");
+    private static final Pattern STRIKE_PATTERN = Pattern.compile("~~([^~\\n]+)~~");
+
+    /**
+     * 预览里 [[双链]] 的链接前缀
+     */
+    public static final String WIKI_LINK_SCHEME = "wiki:";
+
+    private static final Map<Profile, Pipeline> PIPELINES = new EnumMap<>(Profile.class);
+
+    static {
+        for (Profile profile : Profile.values()) {
+            PIPELINES.put(profile, new Pipeline(buildOptions(profile)));
+        }
+    }
+
+    // 核心：注入针对 WebView 的样式表
+    // 这里定义的 CSS 会直接作用于 WebView 渲染的内容
+    private static final String INTERNAL_CSS =
+            "<style>" +
+                    "  body { font-family: 'Microsoft YaHei', sans-serif; font-size: 16px; line-height: 1.6; color: #333; padding: 20px; }" +
+                    "  /* 统一段落和列表的间距 */" +
+                    "  p, ul, ol, table, pre { margin-top: 0; margin-bottom: 16px; }" +
+                    "  /* 解决列表项紧凑问题 */" +
+                    "  li { margin-bottom: 8px; }" +
+                    "  li p { margin-bottom: 0; }" + // 列表内的段落不需要底部间距
+                    "  /* 确保列表序号显示（左边距） */" +
+                    "  ul, ol { padding-left: 25px; }" +
+                    "  ol { list-style-type: decimal !important; }" +
+                    "  ul { list-style-type: disc !important; }" +
+                    "  /* 倾斜样式 */" +
+                    "  i, em { font-style: italic !important; display: inline-block; transform: skewX(-15deg); margin-right: 2px; } " +
+                    "  del { text-decoration: line-through; color: #a0a0a0; } " +
+                    "  mark { background-color: #ffeb3b; color: black; padding: 2px; border-radius: 3px; } " +
+                    "  /* 表格样式 */" +
+                    "  table { border-collapse: collapse; width: 100%; border: 1px solid #ddd; } " +
+                    "  th, td { border: 1px solid #ddd; padding: 8px; text-align: left; } " +
+                    "  th { background-color: #f5f5f5; } " +
+                    "  pre { background-color: #f5f5f5; padding: 10px; border-radius: 5px; overflow-x: auto; } " +
+                    "  code { font-family: 'Consolas', monospace; background-color: rgba(27,31,35,0.05); } " +
+                    "  img { max-width: 100%; height: auto; display: block; margin: 10px 0; } " + // 保证图片不超出
+                    "  pre code { background-color: transparent; padding: 0; } " +
+                    ":not(pre) > code { background-color: #f0f0f0; color: #e06c75; padding: 2px 4px; border-radius: 3px; }" +
+                    "</style>";
+
+    /**
+     * 兼容旧调用：返回一个带内置样式的完整 HTML 文档 (预览配置)
+     */
     public static String parse(String md) {
+        // 返回一个带样式的完整 HTML
+        return "<html><head>" + INTERNAL_CSS + "</head><body>" + render(md, Profile.PREVIEW) + "</body></html>";
+    }
+
+    /**
+     * 按指定配置档渲染，只返回 body 内的 HTML 片段
+     */
+    public static String render(String md, Profile profile) {
         if (md == null) return "";
-        // 1. 高亮: ==文本== -> <mark>文本</mark>
-        md = md.replaceAll("==([^=\\n]+)==", "<mark>$1</mark>");
+        Pipeline pipeline = PIPELINES.get(profile);
+        return pipeline.renderer.render(pipeline.parser.parse(preprocess(md)));
+    }
+
+    /**
+     * 只做解析，返回 AST (供需要复用语法树的调用方使用)
+     */
+    public static Node parseDocument(String md, Profile profile) {
+        return PIPELINES.get(profile).parser.parse(preprocess(md == null ? "" : md));
+    }
+
+    /**
+     * 将已解析的 AST (或其中某个节点) 渲染为 HTML
+     */
+    public static String renderNode(Node node, Profile profile) {
+        return PIPELINES.get(profile).renderer.render(node);
+    }
+
+    /**
+     * 预览页面使用的内置样式 (&lt;style&gt; 标签)
+     */
+    public static String getInternalCss() {
+        return INTERNAL_CSS;
+    }
+
+    private static String preprocess(String md) {
+        // 1. 高亮: ==文本== -> <mark>文本</mark>  (没有标记时直接跳过整篇扫描)
+        if (md.contains("==")) {
+            md = HIGHLIGHT_PATTERN.matcher(md).replaceAll("<mark>$1</mark>");
+        }
         // 2. 删除线: ~~文本~~ -> <del>文本</del>
-        md = md.replaceAll("~~([^~\\n]+)~~", "<del>$1</del>");
+        if (md.contains("~~")) {
+            md = STRIKE_PATTERN.matcher(md).replaceAll("<del>$1</del>");
+        }
+        return md;
+    }
 
-//        // 仅返回渲染后的 HTML 内容，如 <p>Hello</p>
-//        return renderer.render(parser.parse(md));
-        // 2. 标准解析
+    private static DataHolder buildOptions(Profile profile) {
         MutableDataSet options = new MutableDataSet();
         options.setFrom(ParserEmulationProfile.GITHUB_DOC);
-        // 允许表格解析
-        options.set(Parser.EXTENSIONS, Arrays.asList(TablesExtension.create()));
+        // 允许表格解析、[[双链]]
+        if (profile == Profile.PREVIEW) {
+            options.set(Parser.EXTENSIONS, Arrays.asList(TablesExtension.create(), WikiLinkExtension.create(), new OutlineMarkerExtension()));
+        } else {
+            options.set(Parser.EXTENSIONS, Arrays.asList(TablesExtension.create(), WikiLinkExtension.create()));
+        }
+        // [[目标|别名]]：目标在前；目标原样保留 (标题里的空格不替换成 -)
+        options.set(WikiLinkExtension.LINK_FIRST_SYNTAX, true);
+        options.set(WikiLinkExtension.LINK_ESCAPE_CHARS, "");
+        options.set(WikiLinkExtension.LINK_REPLACE_CHARS, "");
+        options.set(WikiLinkExtension.ALLOW_ANCHORS, true);
         options.set(Parser.LISTS_ITEM_TYPE_MISMATCH_TO_NEW_LIST, true);
         options.set(Parser.LISTS_ORDERED_LIST_MANUAL_START, true);
         options.set(HtmlRenderer.SOFT_BREAK, "<br />");
-        Parser parser = Parser.builder(options).build();
-        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
-        String contentHtml = renderer.render(parser.parse(md));
-
-        // 3. 核心：注入针对 WebView 的样式表
-        // 这里定义的 CSS 会直接作用于 WebView 渲染的内容
-        String internalCss =
-                "<style>" +
-                        "  body { font-family: 'Microsoft YaHei', sans-serif; font-size: 16px; line-height: 1.6; color: #333; padding: 20px; }" +
-                        "  /* 统一段落和列表的间距 */" +
-                        "  p, ul, ol, table, pre { margin-top: 0; margin-bottom: 16px; }" +
-                        "  /* 解决列表项紧凑问题 */" +
-                        "  li { margin-bottom: 8px; }" +
-                        "  li p { margin-bottom: 0; }" + // 列表内的段落不需要底部间距
-                        "  /* 确保列表序号显示（左边距） */" +
-                        "  ul, ol { padding-left: 25px; }" +
-                        "  ol { list-style-type: decimal !important; }" +
-                        "  ul { list-style-type: disc !important; }" +
-                        "  /* 倾斜样式 */" +
-                        "  i, em { font-style: italic !important; display: inline-block; transform: skewX(-15deg); margin-right: 2px; } " +
-                        "  del { text-decoration: line-through; color: #a0a0a0; } " +
-                        "  mark { background-color: #ffeb3b; color: black; padding: 2px; border-radius: 3px; } " +
-                        "  /* 表格样式 */" +
-                        "  table { border-collapse: collapse; width: 100%; border: 1px solid #ddd; } " +
-                        "  th, td { border: 1px solid #ddd; padding: 8px; text-align: left; } " +
-                        "  th { background-color: #f5f5f5; } " +
-                        "  pre { background-color: #f5f5f5; padding: 10px; border-radius: 5px; overflow-x: auto; } " +
-                        "  code { font-family: 'Consolas', monospace; background-color: rgba(27,31,35,0.05); } " +
-                        "  img { max-width: 100%; height: auto; display: block; margin: 10px 0; } " + // 保证图片不超出
-                        "  pre code { background-color: transparent; padding: 0; } " +
-                        ":not(pre) > code { background-color: #f0f0f0; color: #e06c75; padding: 2px 4px; border-radius: 3px; }" +
-                        "</style>";
 
-        // 返回一个带样式的完整 HTML
-        return "<html><head>" + internalCss + "</head><body>" + contentHtml + "</body></html>";
+        switch (profile) {
+            // 预览：wiki: 前缀的链接由预览页面拦截，交给 Java 打开对应笔记
+            case PREVIEW -> options.set(WikiLinkExtension.LINK_PREFIX, WIKI_LINK_SCHEME);
+            // PDF: 中文/空格路径需要编码，否则 openhtmltopdf 解析 XHTML 时报错
+            case PDF_EXPORT -> options.set(HtmlRenderer.PERCENT_ENCODE_URLS, true)
+                    .set(WikiLinkExtension.LINK_FILE_EXTENSION, ".md");
+            // 网页导出：给标题生成锚点 id，方便外部跳转
+            case RAW_HTML -> options.set(HtmlRenderer.GENERATE_HEADER_ID, true)
+                    .set(HtmlRenderer.RENDER_HEADER_ID, true)
+                    .set(WikiLinkExtension.LINK_FILE_EXTENSION, ".md");
+            default -> { }
+        }
+        return options.toImmutable();
+    }
+
+    /**
+     * 预览：给进大纲的标题 (顶层的 # 标题，与 HeadingIndex 的规则一致) 加上 data-outline 属性，
+     * 页面里 scrollToHeading(N) 只数这些标题，和编辑器大纲的第 N 项对应
+     */
+    private static final class OutlineMarkerExtension implements HtmlRenderer.HtmlRendererExtension {
+        @Override
+        public void rendererOptions(MutableDataHolder options) {
+        }
+
+        @Override
+        public void extend(HtmlRenderer.Builder builder, String rendererType) {
+            builder.attributeProviderFactory(new IndependentAttributeProviderFactory() {
+                @Override
+                public AttributeProvider apply(LinkResolverContext context) {
+                    return (node, part, attributes) -> {
+                        if (part == AttributablePart.NODE && node instanceof Heading heading
+                                && heading.isAtxHeading() && heading.getParent() instanceof Document) {
+                            attributes.addValue("data-outline", "1");
+                        }
+                    };
+                }
+            });
+        }
+    }
+
+    /**
+     * 一组不可变的 Parser + HtmlRenderer
+     */
+    private static final class Pipeline {
+        final Parser parser;
+        final HtmlRenderer renderer;
 
+        Pipeline(DataHolder options) {
+            this.parser = Parser.builder(options).build();
+            this.renderer = HtmlRenderer.builder(options).build();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,514 @@
+package com.deepmind.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 全部笔记的元数据 (取代每篇笔记一个 &lt;标题&gt;.json)
+ * 1. 启动时顺序读一次 notes/.meta/metadata.json (快照) 和 journal.jsonl (日志)，之后全部在内存里查询
+ * 2. 修改先记在内存，300ms 内的所有修改合并成一次追加写日志 + 一次 fsync (组提交)
+ * 3. 日志比快照还大时重写快照并清空日志；日志最后一条写了一半时丢弃它
+ *    快照和日志都记着代号：快照换成新一代之后，没来得及删掉的旧日志在启动时整体跳过 (里面的条目比快照旧)
+ * 4. 读写都用手写的 JsonReader / JsonWriter，不走 Gson 反射
+ * 第一次打开时把旧的 .json 附属文件导入进来，原文件移到 notes/.meta/sidecars/ 备查。
+ */
+public class MetadataStore {
+
+    private static final String META_DIR = ".meta";
+    private static final String SNAPSHOT = "metadata.json";
+    private static final String JOURNAL = "journal.jsonl";
+    private static final String SIDECAR_BACKUP = "sidecars";
+    private static final int FORMAT_VERSION = 1;
+    private static final long COMMIT_DELAY_MS = 300;
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private static final MetadataStore INSTANCE = new MetadataStore();
+
+    public static MetadataStore getInstance() {
+        return INSTANCE;
+    }
+
+    private Path dir;
+    private final Map<String, NoteMetadata> entries = new HashMap<>();
+    // 等待提交的标题 (已删除的不在 entries 里)
+    private final Set<String> dirty = new LinkedHashSet<>();
+
+    private long snapshotBytes = 0;
+    private long journalBytes = 0;
+    // 当前快照的代号，日志第一行记着它是跟在哪一代快照后面的 (只在载入和 commitLock 内访问)
+    private long generation = 0;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metadata-store");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingCommit;
+    // 已经排了一次还没开始的提交；提交一开始就清掉，提交过程中的新修改会再排一次
+    private boolean commitScheduled = false;
+    private final Object commitLock = new Object(); // 后台提交与退出时提交互斥
+
+    // 包内可见：单元测试对临时目录各建一个实例
+    MetadataStore() {
+    }
+
+    /**
+     * 载入元数据，并导入旧的 .json 附属文件
+     * @param notesDir 笔记目录
+     */
+    public void open(Path notesDir) {
+        synchronized (this) {
+            if (dir != null) return;
+            dir = notesDir.resolve(META_DIR);
+        }
+        boolean journalDamaged = false;
+        try {
+            Files.createDirectories(dir);
+            loadSnapshot();
+            journalDamaged = !replayJournal();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.err.println("读取元数据失败: " + e.getMessage());
+        }
+        int migrated = migrateSidecars(notesDir);
+        if (migrated > 0) System.out.println("已导入 " + migrated + " 个元数据文件");
+        if (journalDamaged || migrated > 0) {
+            synchronized (commitLock) {
+                commitLocked(true);
+            }
+        }
+    }
+
+    /**
+     * 某篇笔记的元数据 (副本，只读取时用；要修改请用 update)；没有记录时返回新对象
+     */
+    public synchronized NoteMetadata get(String title) {
+        NoteMetadata meta = entries.get(title);
+        if (meta == null) {
+            meta = new NoteMetadata();
+            meta.title = title;
+            return meta;
+        }
+        return copy(meta);
+    }
+
+    public synchronized boolean contains(String title) {
+        return entries.containsKey(title);
+    }
+
+    /**
+     * 全部元数据 (副本，用于跨笔记的视图，如复习队列、标签)
+     */
+    public synchronized Map<String, NoteMetadata> all() {
+        Map<String, NoteMetadata> result = new HashMap<>(entries.size() * 2);
+        entries.forEach((title, meta) -> result.put(title, copy(meta)));
+        return result;
+    }
+
+    /**
+     * 逐条查看全部元数据 (不复制，回调里不能修改，也不能再调用本类的方法)
+     */
+    public synchronized void forEach(BiConsumer<String, NoteMetadata> action) {
+        entries.forEach(action);
+    }
+
+    public synchronized void put(String title, NoteMetadata meta) {
+        NoteMetadata stored = copy(meta);
+        stored.title = title;
+        entries.put(title, stored);
+        markDirty(title);
+    }
+
+    /**
+     * 在锁内直接修改存着的那一份 (没有记录时新建)，再登记提交
+     * 标签、出链、复习各自只改自己的字段，用它不会像 get + put 那样把别人同时写入的字段覆盖掉；
+     * action 里不能再调用本类的方法
+     * @return 修改后的副本
+     */
+    public synchronized NoteMetadata update(String title, Consumer<NoteMetadata> action) {
+        NoteMetadata meta = entries.get(title);
+        if (meta == null) {
+            meta = new NoteMetadata();
+            meta.title = title;
+        }
+        action.accept(meta);
+        entries.put(title, meta);
+        markDirty(title);
+        return copy(meta);
+    }
+
+    public synchronized void remove(String title) {
+        if (entries.remove(title) != null) markDirty(title);
+    }
+
+    public synchronized void rename(String oldTitle, String newTitle) {
+        NoteMetadata meta = entries.remove(oldTitle);
+        if (meta == null) return;
+        meta.title = newTitle;
+        entries.put(newTitle, meta);
+        markDirty(oldTitle);
+        markDirty(newTitle);
+    }
+
+    /**
+     * 立即提交 (程序退出时调用)
+     */
+    public void flushNow() {
+        synchronized (this) {
+            if (pendingCommit != null) pendingCommit.cancel(false);
+        }
+        commit();
+    }
+
+    // ---------------------------------------------------------------- 组提交
+
+    private void markDirty(String title) {
+        dirty.add(title);
+        // 不重新计时：第一条修改之后 300ms 一定会提交
+        // (不能看 pendingCommit.isDone()：提交正在执行时它还没 done，这时的修改会一直留在内存里)
+        if (!commitScheduled) {
+            commitScheduled = true;
+            pendingCommit = worker.schedule(this::commit, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void commit() {
+        synchronized (this) {
+            commitScheduled = false;
+        }
+        if (dir == null) return;
+        synchronized (commitLock) {
+            commitLocked(false);
+        }
+    }
+
+    private void commitLocked(boolean forceSnapshot) {
+        List<String> titles;
+        synchronized (this) {
+            titles = new ArrayList<>(dirty);
+            dirty.clear();
+        }
+        try {
+            // 在锁内序列化这一批，写盘在锁外
+            StringWriter batch = new StringWriter();
+            boolean compact;
+            List<NoteMetadata> snapshot = null;
+            synchronized (this) {
+                for (String title : titles) {
+                    NoteMetadata meta = entries.get(title);
+                    JsonWriter writer = new JsonWriter(batch);
+                    if (meta != null) {
+                        write(writer, meta);
+                    } else {
+                        writer.beginObject().name("title").value(title).name("deleted").value(true).endObject();
+                    }
+                    writer.flush();
+                    batch.write('\n');
+                }
+                compact = forceSnapshot || journalBytes + batch.getBuffer().length() > Math.max(MIN_COMPACT_BYTES, snapshotBytes);
+                if (compact) snapshot = entries.values().stream().map(MetadataStore::copy).toList();
+            }
+            if (compact) {
+                writeSnapshot(snapshot);
+            } else if (batch.getBuffer().length() > 0) {
+                appendJournal(batch.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("保存元数据失败: " + e.getMessage());
+            synchronized (this) {
+                titles.forEach(this::markDirty); // 下次再试
+            }
+        }
+    }
+
+    private void appendJournal(String records) throws IOException {
+        if (journalBytes == 0) {
+            // 新日志：第一行写上跟随的快照代号
+            StringWriter header = new StringWriter();
+            JsonWriter writer = new JsonWriter(header);
+            writer.beginObject().name("generation").value(generation).endObject();
+            writer.flush();
+            records = header + "\n" + records;
+        }
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(dir.resolve(JOURNAL),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        synchronized (this) {
+            journalBytes += bytes.length;
+        }
+    }
+
+    // 快照整体替换后再清空日志；两步之间崩溃时日志里的条目比新快照旧，
+    // 快照的代号比日志记的大，启动时会整体跳过这份日志，不会拿旧条目覆盖快照
+    private void writeSnapshot(List<NoteMetadata> snapshot) throws IOException {
+        long next = generation + 1;
+        Path target = dir.resolve(SNAPSHOT);
+        Path temp = dir.resolve(SNAPSHOT + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("version").value(FORMAT_VERSION);
+            writer.name("generation").value(next);
+            writer.name("notes").beginArray();
+            for (NoteMetadata meta : snapshot) write(writer, meta);
+            writer.endArray();
+            writer.endObject();
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        generation = next;
+        Files.deleteIfExists(dir.resolve(JOURNAL));
+        synchronized (this) {
+            snapshotBytes = Files.size(target);
+            journalBytes = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------- 载入
+
+    private void loadSnapshot() throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) return;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("notes")) {
+                    reader.beginArray();
+                    synchronized (this) {
+                        while (reader.hasNext()) {
+                            NoteMetadata meta = read(reader);
+                            if (meta.title != null) entries.put(meta.title, meta);
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.equals("generation")) {
+                    generation = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        snapshotBytes = Files.size(file);
+    }
+
+    /**
+     * 按顺序重放日志
+     * @return 日志是否完整 (最后一行写了一半时返回 false，之后会重写快照)
+     */
+    private boolean replayJournal() throws IOException {
+        Path file = dir.resolve(JOURNAL);
+        if (!Files.exists(file)) return true;
+        journalBytes = Files.size(file);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            boolean first = true;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                if (first) {
+                    first = false;
+                    long journalGeneration = generationOf(line);
+                    if (Math.max(journalGeneration, 0) < generation) { // 没有代号行的旧日志算第 0 代
+                        // 快照已经换代，删日志之前崩溃了：这份日志已经全部包含在快照里
+                        in.close();
+                        Files.delete(file);
+                        journalBytes = 0;
+                        return true;
+                    }
+                    if (journalGeneration >= 0) continue;
+                }
+                try (JsonReader reader = new JsonReader(new java.io.StringReader(line))) {
+                    boolean[] deleted = new boolean[1];
+                    NoteMetadata meta = read(reader, deleted);
+                    if (meta.title == null) continue;
+                    synchronized (this) {
+                        if (deleted[0]) entries.remove(meta.title);
+                        else entries.put(meta.title, meta);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    System.err.println("元数据日志末尾不完整，已忽略: " + e.getMessage());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // 日志第一行的快照代号，不是代号行返回 -1
+    private static long generationOf(String line) {
+        try (JsonReader reader = new JsonReader(new java.io.StringReader(line))) {
+            reader.beginObject();
+            if (reader.hasNext() && reader.nextName().equals("generation")) return reader.nextLong();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // 写了一半的行交给后面的逐行重放处理
+        }
+        return -1;
+    }
+
+    /**
+     * 导入旧版本的 &lt;标题&gt;.json，导入后移到 .meta/sidecars/
+     * 已经有记录的笔记以新存储为准
+     */
+    private int migrateSidecars(Path notesDir) {
+        Gson gson = new Gson();
+        Path backup = dir.resolve(SIDECAR_BACKUP);
+        int count = 0;
+        try (var stream = Files.newDirectoryStream(notesDir, "*.json")) {
+            for (Path path : stream) {
+                if (!Files.isRegularFile(path)) continue;
+                String name = path.getFileName().toString();
+                String title = name.substring(0, name.length() - 5);
+                try {
+                    NoteMetadata meta = gson.fromJson(Files.readString(path), NoteMetadata.class);
+                    synchronized (this) {
+                        if (meta != null && !entries.containsKey(title)) {
+                            meta.title = title;
+                            if (meta.tags == null) meta.tags = new HashMap<>();
+                            if (meta.links == null) meta.links = new ArrayList<>();
+                            entries.put(title, meta);
+                        }
+                    }
+                    Files.createDirectories(backup);
+                    Files.move(path, backup.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                    count++;
+                } catch (IOException | JsonParseException e) {
+                    System.err.println("导入元数据失败 " + name + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("扫描元数据文件失败: " + e.getMessage());
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------- 序列化
+
+    private static void write(JsonWriter writer, NoteMetadata meta) throws IOException {
+        writer.beginObject();
+        writer.name("title").value(meta.title);
+        if (meta.lastMood != null) writer.name("lastMood").value(meta.lastMood);
+        if (meta.createDate != null) writer.name("createDate").value(meta.createDate);
+        if (meta.nextReviewDate != null) writer.name("nextReviewDate").value(meta.nextReviewDate);
+        if (meta.reviewCount != 0) writer.name("reviewCount").value(meta.reviewCount);
+        if (meta.easeFactor != 2.5) writer.name("easeFactor").value(meta.easeFactor);
+        if (meta.repetitions != 0) writer.name("repetitions").value(meta.repetitions);
+        if (meta.intervalDays != 0) writer.name("intervalDays").value(meta.intervalDays);
+        if (meta.lastReviewDate != null) writer.name("lastReviewDate").value(meta.lastReviewDate);
+        if (meta.tags != null && !meta.tags.isEmpty()) {
+            writer.name("tags").beginObject();
+            for (Map.Entry<String, String> tag : meta.tags.entrySet()) {
+                writer.name(tag.getKey()).value(tag.getValue());
+            }
+            writer.endObject();
+        }
+        if (meta.links != null && !meta.links.isEmpty()) {
+            writer.name("links").beginArray();
+            for (String link : meta.links) writer.value(link);
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+
+    private static NoteMetadata read(JsonReader reader) throws IOException {
+        return read(reader, new boolean[1]);
+    }
+
+    private static NoteMetadata read(JsonReader reader, boolean[] deleted) throws IOException {
+        NoteMetadata meta = new NoteMetadata();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "title" -> meta.title = reader.nextString();
+                case "lastMood" -> meta.lastMood = reader.nextString();
+                case "createDate" -> meta.createDate = reader.nextString();
+                case "nextReviewDate" -> meta.nextReviewDate = reader.nextString();
+                case "reviewCount" -> meta.reviewCount = reader.nextInt();
+                case "easeFactor" -> meta.easeFactor = reader.nextDouble();
+                case "repetitions" -> meta.repetitions = reader.nextInt();
+                case "intervalDays" -> meta.intervalDays = reader.nextInt();
+                case "lastReviewDate" -> meta.lastReviewDate = reader.nextString();
+                case "deleted" -> deleted[0] = reader.nextBoolean();
+                case "tags" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String tag = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) reader.nextNull();
+                        else meta.tags.put(tag, reader.nextString());
+                    }
+                    reader.endObject();
+                }
+                case "links" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (reader.peek() == JsonToken.NULL) reader.nextNull();
+                        else meta.links.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return meta;
+    }
+
+    private static NoteMetadata copy(NoteMetadata meta) {
+        NoteMetadata copy = new NoteMetadata();
+        copy.title = meta.title;
+        copy.lastMood = meta.lastMood;
+        copy.createDate = meta.createDate;
+        copy.nextReviewDate = meta.nextReviewDate;
+        copy.reviewCount = meta.reviewCount;
+        copy.easeFactor = meta.easeFactor;
+        copy.repetitions = meta.repetitions;
+        copy.intervalDays = meta.intervalDays;
+        copy.lastReviewDate = meta.lastReviewDate;
+        if (meta.tags != null) copy.tags = new HashMap<>(meta.tags);
+        if (meta.links != null) copy.links = new ArrayList<>(meta.links);
+        return copy;
+    }
+}
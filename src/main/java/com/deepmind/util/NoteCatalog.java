@@ -0,0 +1,370 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 笔记目录的内存目录 (唯一数据源)
+ * 启动时从存储后端列一次全部笔记，之后由 FileUtil 的保存 / 重命名 / 删除维护，外部修改由 VaultWatcher 补上，不再重复列目录。
+ * 标题按字典序保存在数组里 (二分查找)，大小、修改时间、最后一个 "_" 的位置放在平行的基本类型数组中；
+ * 每次变化都会通知监听器，界面据此只处理变化的部分。
+ */
+public class NoteCatalog {
+
+    public enum ChangeType { ADDED, REMOVED, MODIFIED }
+
+    /**
+     * 某个文件夹的直接下级
+     * @param folders 子文件夹名 (一段，已排序)
+     * @param notes   笔记完整标题 (按字典序)
+     */
+    public record Children(List<String> folders, List<String> notes) {}
+
+    /**
+     * 一条变化
+     * @param title    笔记标题；重命名表示为旧标题 REMOVED + 新标题 ADDED
+     * @param external 是否来自程序外部 (其他编辑器、git、同步工具)，由 VaultWatcher 发现
+     */
+    public record Change(ChangeType type, String title, boolean external) {}
+
+    private static final NoteCatalog INSTANCE = new NoteCatalog();
+
+    public static NoteCatalog getInstance() {
+        return INSTANCE;
+    }
+
+    private NoteStorage storage;
+
+    // 平行数组，按 titles 的字典序排列
+    private String[] titles = new String[0];
+    private long[] sizes = new long[0];
+    private long[] mtimes = new long[0];
+    private int[] lastSeparators = new int[0]; // 最后一个 "_" 的位置，没有为 -1
+    private int count = 0;
+
+    private final List<Consumer<List<Change>>> listeners = new CopyOnWriteArrayList<>();
+
+    private NoteCatalog() {
+    }
+
+    /**
+     * 列出存储里的全部笔记，建立目录 (启动时调用一次)
+     */
+    public void load(NoteStorage noteStorage) {
+        List<String> found = new ArrayList<>();
+        List<long[]> attrs = new ArrayList<>();
+        try {
+            for (NoteStorage.Entry entry : noteStorage.list()) {
+                found.add(entry.title());
+                attrs.add(new long[]{entry.size(), entry.lastModified()});
+            }
+        } catch (IOException e) {
+            System.err.println("扫描笔记目录失败: " + e.getMessage());
+        }
+
+        Integer[] order = new Integer[found.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> found.get(a).compareTo(found.get(b)));
+
+        synchronized (this) {
+            storage = noteStorage;
+            int n = order.length;
+            titles = new String[Math.max(16, n)];
+            sizes = new long[titles.length];
+            mtimes = new long[titles.length];
+            lastSeparators = new int[titles.length];
+            for (int i = 0; i < n; i++) {
+                String title = found.get(order[i]);
+                titles[i] = title;
+                sizes[i] = attrs.get(order[i])[0];
+                mtimes[i] = attrs.get(order[i])[1];
+                lastSeparators[i] = title.lastIndexOf('_');
+            }
+            count = n;
+        }
+    }
+
+    /**
+     * 所有笔记标题 (按字典序，返回副本)
+     */
+    public synchronized List<String> titles() {
+        return new ArrayList<>(Arrays.asList(titles).subList(0, count));
+    }
+
+    /**
+     * 以指定前缀开头的笔记 (比如某个文件夹 "学习_Java_" 下的全部笔记)
+     */
+    public synchronized List<String> titlesWithPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        int i = find(prefix);
+        if (i < 0) i = -i - 1;
+        for (; i < count && titles[i].startsWith(prefix); i++) result.add(titles[i]);
+        return result;
+    }
+
+    /**
+     * 以指定前缀开头的笔记数 (两次二分查找，不复制标题)
+     */
+    public synchronized int countWithPrefix(String prefix) {
+        if (prefix.isEmpty()) return count;
+        return lowerBound(prefix + '\uffff') - lowerBound(prefix);
+    }
+
+    /**
+     * 文件夹的直接下级 (文件树按需展开时使用)
+     * 遇到子文件夹后直接二分跳过它下面的全部笔记，代价与下级数量成正比，而不是与整个子树成正比
+     * @param folderPath 文件夹路径 ("A_B")，根为空串
+     */
+    public synchronized Children childrenOf(String folderPath) {
+        String prefix = folderPath.isEmpty() ? "" : folderPath + "_";
+        int end = prefix.isEmpty() ? count : lowerBound(prefix + '\uffff');
+        List<String> folders = new ArrayList<>();
+        List<String> notes = new ArrayList<>();
+        int i = lowerBound(prefix);
+        while (i < end) {
+            String title = titles[i];
+            int sep = title.indexOf('_', prefix.length());
+            if (sep < 0) {
+                notes.add(title);
+                i++;
+            } else {
+                folders.add(title.substring(prefix.length(), sep));
+                i = lowerBound(title.substring(0, sep + 1) + '\uffff');
+            }
+        }
+        folders.sort(null);
+        return new Children(folders, notes);
+    }
+
+    public synchronized boolean contains(String title) {
+        return title != null && find(title) >= 0;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * 笔记文件大小 (字节)，不存在返回 -1
+     */
+    public synchronized long sizeOf(String title) {
+        int i = find(title);
+        return i >= 0 ? sizes[i] : -1;
+    }
+
+    /**
+     * 笔记最后修改时间 (毫秒)，不存在返回 -1
+     */
+    public synchronized long lastModified(String title) {
+        int i = find(title);
+        return i >= 0 ? mtimes[i] : -1;
+    }
+
+    /**
+     * 文件夹部分 ("A_B_Note" -> "A_B")，没有文件夹返回空串
+     */
+    public synchronized String folderOf(String title) {
+        int i = find(title);
+        int sep = i >= 0 ? lastSeparators[i] : title.lastIndexOf('_');
+        return sep < 0 ? "" : title.substring(0, sep);
+    }
+
+    /**
+     * 按 "_" 拆分出的各级文件夹和笔记名 ("A_B_Note" -> [A, B, Note])
+     */
+    public static String[] segments(String title) {
+        return title.split("_");
+    }
+
+    public void addListener(Consumer<List<Change>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<List<Change>> listener) {
+        listeners.remove(listener);
+    }
+
+    // ---------------------------------------------------------------- 由 FileUtil 调用
+
+    /**
+     * 笔记已写入磁盘 (新建或修改)
+     */
+    public void saved(String title) {
+        ChangeType type;
+        synchronized (this) {
+            long[] attr = readAttributes(title);
+            int i = find(title);
+            if (i >= 0) {
+                type = ChangeType.MODIFIED;
+                sizes[i] = attr[0];
+                mtimes[i] = attr[1];
+            } else {
+                type = ChangeType.ADDED;
+                insert(-i - 1, title, attr);
+            }
+        }
+        fire(List.of(new Change(type, title, false)));
+    }
+
+    /**
+     * 笔记已从磁盘删除
+     */
+    public void deleted(String title) {
+        synchronized (this) {
+            int i = find(title);
+            if (i < 0) return;
+            remove(i);
+        }
+        fire(List.of(new Change(ChangeType.REMOVED, title, false)));
+    }
+
+    /**
+     * 笔记已重命名
+     */
+    public void renamed(String oldTitle, String newTitle) {
+        synchronized (this) {
+            int i = find(oldTitle);
+            long[] attr = i >= 0 ? new long[]{sizes[i], mtimes[i]} : readAttributes(newTitle);
+            if (i >= 0) remove(i);
+            int j = find(newTitle);
+            if (j < 0) insert(-j - 1, newTitle, attr);
+        }
+        fire(List.of(new Change(ChangeType.REMOVED, oldTitle, false), new Change(ChangeType.ADDED, newTitle, false)));
+    }
+
+    /**
+     * 一批笔记已重命名 (文件夹改名等)，合并成一次通知
+     */
+    public void renamedAll(Map<String, String> renames) {
+        if (renames.isEmpty()) return;
+        List<Change> changes = new ArrayList<>(renames.size() * 2);
+        synchronized (this) {
+            for (Map.Entry<String, String> rename : renames.entrySet()) {
+                int i = find(rename.getKey());
+                long[] attr = i >= 0 ? new long[]{sizes[i], mtimes[i]} : readAttributes(rename.getValue());
+                if (i >= 0) remove(i);
+                int j = find(rename.getValue());
+                if (j < 0) insert(-j - 1, rename.getValue(), attr);
+                changes.add(new Change(ChangeType.REMOVED, rename.getKey(), false));
+                changes.add(new Change(ChangeType.ADDED, rename.getValue(), false));
+            }
+        }
+        fire(changes);
+    }
+
+    // ---------------------------------------------------------------- 由 VaultWatcher 调用
+
+    /**
+     * 重新检查一批笔记在磁盘上的状态 (外部修改)，所有变化合并成一次通知
+     * @return 实际发生的变化 (大小和修改时间都没变的忽略，比如程序自己刚保存的文件)
+     */
+    public List<Change> refresh(Collection<String> candidates) {
+        List<Change> changes = new ArrayList<>();
+        synchronized (this) {
+            for (String title : candidates) {
+                long[] attr = statOrNull(title);
+                int i = find(title);
+                if (attr == null) {
+                    if (i >= 0) {
+                        remove(i);
+                        changes.add(new Change(ChangeType.REMOVED, title, true));
+                    }
+                } else if (i < 0) {
+                    insert(-i - 1, title, attr);
+                    changes.add(new Change(ChangeType.ADDED, title, true));
+                } else if (sizes[i] != attr[0] || mtimes[i] != attr[1]) {
+                    sizes[i] = attr[0];
+                    mtimes[i] = attr[1];
+                    changes.add(new Change(ChangeType.MODIFIED, title, true));
+                }
+            }
+        }
+        if (!changes.isEmpty()) fire(changes);
+        return changes;
+    }
+
+    /**
+     * 整个目录重新扫描 (监听事件溢出时使用)，与当前内容比较后通知变化
+     */
+    public List<Change> rescan() {
+        Set<String> known;
+        synchronized (this) {
+            known = new HashSet<>(Arrays.asList(titles).subList(0, count));
+        }
+        Set<String> candidates = new HashSet<>(known);
+        try {
+            for (NoteStorage.Entry entry : storage.list()) {
+                candidates.add(entry.title());
+            }
+        } catch (IOException e) {
+            System.err.println("扫描笔记目录失败: " + e.getMessage());
+            return new ArrayList<>();
+        }
+        return refresh(candidates);
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    private int find(String title) {
+        return Arrays.binarySearch(titles, 0, count, title);
+    }
+
+    // 第一个不小于 key 的位置
+    private int lowerBound(String key) {
+        int i = find(key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private void insert(int at, String title, long[] attr) {
+        if (count == titles.length) {
+            int capacity = Math.max(16, titles.length * 2);
+            titles = Arrays.copyOf(titles, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            mtimes = Arrays.copyOf(mtimes, capacity);
+            lastSeparators = Arrays.copyOf(lastSeparators, capacity);
+        }
+        int tail = count - at;
+        System.arraycopy(titles, at, titles, at + 1, tail);
+        System.arraycopy(sizes, at, sizes, at + 1, tail);
+        System.arraycopy(mtimes, at, mtimes, at + 1, tail);
+        System.arraycopy(lastSeparators, at, lastSeparators, at + 1, tail);
+        titles[at] = title;
+        sizes[at] = attr[0];
+        mtimes[at] = attr[1];
+        lastSeparators[at] = title.lastIndexOf('_');
+        count++;
+    }
+
+    private void remove(int at) {
+        int tail = count - at - 1;
+        System.arraycopy(titles, at + 1, titles, at, tail);
+        System.arraycopy(sizes, at + 1, sizes, at, tail);
+        System.arraycopy(mtimes, at + 1, mtimes, at, tail);
+        System.arraycopy(lastSeparators, at + 1, lastSeparators, at, tail);
+        titles[--count] = null;
+    }
+
+    private long[] statOrNull(String title) {
+        NoteStorage.Entry entry = storage.stat(title);
+        return entry == null ? null : new long[]{entry.size(), entry.lastModified()};
+    }
+
+    private long[] readAttributes(String title) {
+        long[] attr = statOrNull(title);
+        return attr != null ? attr : new long[]{0, 0};
+    }
+
+    private void fire(List<Change> changes) {
+        for (Consumer<List<Change>> listener : listeners) {
+            listener.accept(changes);
+        }
+    }
+}
@@ -0,0 +1,953 @@
+package com.deepmind.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 笔记正文全文索引 (倒排索引)
+ * 1. 分词：拉丁字母 / 数字按单词切分并转小写；中日韩文字按二元组 (bigram) 切分，单独一个汉字时保留单字
+ * 2. 每篇笔记的新版本都追加一个新的文档号，旧文档号只打删除标记，倒排表因此始终按文档号递增，
+ *    用变长整数 + 差值编码压缩在 byte[] 里；删除标记过多时在落盘前压实
+ * 3. 查询用 BM25 打分取前 K 名，摘要从索引自带的正文存储里截取，不读 .md 文件
+ * 4. 索引保存在 notes/.index 下：index.dat (文档表 + 倒排表) 和 store-&lt;代号&gt;.dat (正文)，
+ *    压实时正文写进下一代的新文件，index.dat 换成记着新文件名的版本之后才删除旧文件，中途崩溃时旧的一对仍然一致；
+ *    修改后在后台防抖落盘；启动时按文件修改时间和大小与磁盘对账，补上索引关闭期间的外部修改
+ */
+public class NoteIndex {
+
+    /**
+     * 一条搜索结果
+     * @param title   笔记标题 (文件名)
+     * @param score   BM25 得分
+     * @param snippet 命中位置附近的正文片段
+     */
+    public record Hit(String title, double score, String snippet) {}
+
+    private static final int MAGIC = 0x444D4958; // "DMIX"
+    private static final int FORMAT_VERSION = 2;
+    private static final String INDEX_DIR = ".index";
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final int MAX_WORD_LENGTH = 64;
+    private static final int SNIPPET_BEFORE = 20;
+    private static final int SNIPPET_AFTER = 60;
+
+    // BM25 参数
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final NoteIndex INSTANCE = new NoteIndex();
+
+    public static NoteIndex getInstance() {
+        return INSTANCE;
+    }
+
+    // --- 文档表 (按文档号下标) ---
+    private String[] titles = new String[1024];
+    private int[] lengths = new int[1024];          // 词元数量
+    private long[] mtimes = new long[1024];         // 建索引时 .md 的修改时间
+    private long[] sizes = new long[1024];          // 建索引时 .md 的字节数
+    private long[] storeOffsets = new long[1024];   // 正文在当前正文文件中的位置，-1 表示还没写入
+    private int[] storeLengths = new int[1024];
+    private boolean[] alive = new boolean[1024];
+    private Postings[][] docTerms = new Postings[1024][]; // 存活文档出现过的词元，删除时扣掉各词元的存活文档数
+    private int docCount = 0;                       // 已分配的文档号数量 (含已删除)
+    private int aliveCount = 0;
+    private long totalLength = 0;                   // 存活文档的词元总数，用于平均长度
+
+    private final Map<String, Integer> titleToDoc = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    // 汉字 -> 含这个字的二元组的倒排表；单字查询直接取，不用扫整个词典
+    private final Map<Character, Set<Postings>> bigramsByChar = new HashMap<>();
+
+    // 还没写进正文文件的正文
+    private final Map<Integer, String> pendingText = new HashMap<>();
+
+    private Path dir;
+    private NoteStorage storage;
+    private long storeGeneration = 0;               // 当前正文文件的代号 (index.dat 里记着)
+    private long storeSize = 0;
+    private volatile boolean staleStores = false;    // 压实后旧的正文文件还没删
+    // 搜索读正文 (读锁) 与删除被替换掉的正文文件 (写锁) 互斥
+    private final ReentrantReadWriteLock storeFiles = new ReentrantReadWriteLock();
+    private boolean dirty = false;
+
+    // 查询用的累加器，按需扩容后复用
+    private float[] scoreAcc = new float[0];
+    private short[] matchAcc = new short[0];
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "note-index");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingFlush;
+    private final List<BiConsumer<String, String>> contentListeners = new CopyOnWriteArrayList<>();
+    private final Object flushLock = new Object(); // 后台落盘与退出时落盘互斥
+
+    private NoteIndex() {
+    }
+
+    /**
+     * 打开 (或新建) 索引，并在后台与笔记存储对账
+     * @param notesDir 笔记目录 (索引放在它下面)
+     * @param noteStorage 笔记正文所在的存储后端
+     */
+    public synchronized void open(Path notesDir, NoteStorage noteStorage) {
+        if (dir != null) return;
+        dir = notesDir.resolve(INDEX_DIR);
+        storage = noteStorage;
+        boolean loaded = false;
+        try {
+            Files.createDirectories(dir);
+            loaded = load();
+        } catch (IOException e) {
+            System.err.println("全文索引损坏，将重新建立: " + e.getMessage());
+            clear();
+        }
+        // 只留下 index.dat 指向的正文文件 (压实中途崩溃留下的新文件、旧版的 store.dat 都删掉)；没有可用的索引时全部删掉
+        deleteStoresExcept(loaded ? storeName(storeGeneration) : null);
+        worker.execute(this::reconcile);
+    }
+
+    /**
+     * 笔记保存后调用：重新索引该笔记
+     */
+    public void update(String title, String content) {
+        NoteStorage.Entry stat = storage == null ? null : storage.stat(title);
+        long mtime = stat == null ? 0 : stat.lastModified();
+        long size = stat == null ? 0 : stat.size();
+        // 分词放在锁外面
+        Map<String, Integer> terms = new HashMap<>();
+        int length = tokenize(content, (term) -> terms.merge(term, 1, Integer::sum));
+        synchronized (this) {
+            removeDoc(title);
+            int doc = allocateDoc(title, length, mtime, size);
+            Postings[] lists = new Postings[terms.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : terms.entrySet()) {
+                Postings list = postingsFor(entry.getKey());
+                list.add(doc, entry.getValue());
+                lists[i++] = list;
+            }
+            docTerms[doc] = lists;
+            pendingText.put(doc, content);
+            markDirty();
+        }
+        for (BiConsumer<String, String> listener : contentListeners) {
+            listener.accept(title, content);
+        }
+    }
+
+    /**
+     * 笔记正文被重新索引时回调 (保存、外部修改、启动对账都会经过 update)，参数为标题和新正文
+     * 标签、链接等其他按正文建立的索引挂在这里，不必各自再读文件
+     */
+    public void addContentListener(BiConsumer<String, String> listener) {
+        contentListeners.add(listener);
+    }
+
+    /**
+     * 笔记删除后调用
+     */
+    public synchronized void remove(String title) {
+        if (removeDoc(title)) markDirty();
+    }
+
+    /**
+     * 笔记重命名后调用：正文没变，只改文档表里的标题
+     */
+    public synchronized void rename(String oldTitle, String newTitle) {
+        Integer doc = titleToDoc.remove(oldTitle);
+        if (doc == null) return;
+        removeDoc(newTitle); // 目标名如果有旧索引，先作废
+        titles[doc] = newTitle;
+        titleToDoc.put(newTitle, doc);
+        markDirty();
+    }
+
+    /**
+     * 全文搜索
+     * @param query 查询语句，按同样的规则分词；所有词元都命中的笔记优先，没有时退化为任一词元命中
+     * @param limit 最多返回多少条
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>(queryTerms(query));
+        if (queryTerms.isEmpty() || limit <= 0) return new ArrayList<>();
+
+        // 取位置到读完正文之间持有读锁，压实后被替换的正文文件不会在这期间被删掉
+        storeFiles.readLock().lock();
+        try {
+            return search(query, limit, queryTerms);
+        } finally {
+            storeFiles.readLock().unlock();
+        }
+    }
+
+    private List<Hit> search(String query, int limit, List<String> queryTerms) {
+        List<Integer> topDocs;
+        List<Double> topScores = new ArrayList<>();
+        List<String> hitTitles = new ArrayList<>();
+        List<Object> hitTexts = new ArrayList<>(); // 未落盘的正文 (String) 或正文文件中的位置 (long[])
+        Path storePath;
+        synchronized (this) {
+            if (aliveCount == 0) return new ArrayList<>();
+            // 单个汉字不在词典里时，展开成包含它的所有二元组
+            List<List<Postings>> groups = new ArrayList<>();
+            for (String term : queryTerms) {
+                List<Postings> group = expand(term);
+                if (!group.isEmpty()) groups.add(group);
+                else if (!isSingleCjk(term)) groups.add(List.of()); // 普通词元缺失：AND 必然为空
+            }
+            topDocs = rank(groups, limit, true, topScores);
+            if (topDocs.isEmpty()) topDocs = rank(groups, limit, false, topScores);
+            // 文档号和正文文件在压实时会变，离开锁之前把需要的信息取出来
+            storePath = dir.resolve(storeName(storeGeneration));
+            for (int doc : topDocs) {
+                hitTitles.add(titles[doc]);
+                String pending = pendingText.get(doc);
+                hitTexts.add(pending != null ? pending : new long[]{storeOffsets[doc], storeLengths[doc]});
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(topDocs.size());
+        FileChannel store = null;
+        try {
+            for (int i = 0; i < hitTitles.size(); i++) {
+                String text;
+                if (hitTexts.get(i) instanceof String pending) {
+                    text = pending;
+                } else {
+                    if (store == null) store = FileChannel.open(storePath, StandardOpenOption.READ);
+                    long[] location = (long[]) hitTexts.get(i);
+                    text = readText(store, location[0], (int) location[1]);
+                }
+                hits.add(new Hit(hitTitles.get(i), topScores.get(i), snippet(text, query)));
+            }
+        } catch (IOException e) {
+            System.err.println("读取索引正文失败: " + e.getMessage());
+        } finally {
+            if (store != null) {
+                try { store.close(); } catch (IOException ignored) {}
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 在后台与笔记存储重新对账 (文件监听事件溢出时使用)
+     */
+    public synchronized void reconcileAsync() {
+        if (dir == null) return;
+        worker.execute(this::reconcile);
+    }
+
+    /**
+     * 立即把修改写入磁盘 (程序退出时调用)
+     */
+    public void flushNow() {
+        synchronized (this) {
+            if (pendingFlush != null) pendingFlush.cancel(false);
+        }
+        flush();
+    }
+
+    // ---------------------------------------------------------------- 打分
+
+    private List<Integer> rank(List<List<Postings>> groups, int limit, boolean requireAll, List<Double> outScores) {
+        outScores.clear();
+        if (groups.isEmpty() || (requireAll && groups.stream().anyMatch(List::isEmpty))) {
+            return new ArrayList<>();
+        }
+        if (scoreAcc.length < docCount) {
+            scoreAcc = new float[docCount + docCount / 2];
+            matchAcc = new short[scoreAcc.length];
+        }
+        double avgLength = aliveCount == 0 ? 1 : Math.max(1, (double) totalLength / aliveCount);
+        int[] touched = new int[16];
+        int touchedCount = 0;
+
+        // 文档最少的组先算，AND 模式下后面的组只需要处理幸存文档
+        List<List<Postings>> ordered = new ArrayList<>(groups);
+        ordered.sort(Comparator.comparingLong(group -> group.stream().mapToLong(list -> list.count).sum()));
+
+        short groupNo = 0;
+        for (List<Postings> group : ordered) {
+            groupNo++;
+            for (Postings list : group) {
+                // 用存活文档数：count 含已删除的文档，会比 aliveCount 还大，idf 变成负数
+                double idf = Math.log(1 + (aliveCount - list.live + 0.5) / (list.live + 0.5));
+                int pos = 0;
+                int doc = 0;
+                while (pos < list.length) {
+                    int delta = 0, shift = 0, b;
+                    do { b = list.data[pos++]; delta |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+                    int tf = 0; shift = 0;
+                    do { b = list.data[pos++]; tf |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+                    doc += delta;
+                    if (!alive[doc]) continue;
+                    if (requireAll && matchAcc[doc] < groupNo - 1) continue; // 前面的组没命中
+
+                    double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * lengths[doc] / avgLength));
+                    if (matchAcc[doc] == 0) {
+                        if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                        touched[touchedCount++] = doc;
+                    }
+                    scoreAcc[doc] += (float) (idf * norm);
+                    // 同一组 (一个查询词元展开出的多个词) 只记一次命中
+                    if (matchAcc[doc] < groupNo) matchAcc[doc] = groupNo;
+                }
+            }
+            if (requireAll) {
+                // 下一组开始前淘汰没有命中当前组的文档，减少后续累加
+                int kept = 0;
+                for (int i = 0; i < touchedCount; i++) {
+                    int doc = touched[i];
+                    if (matchAcc[doc] == groupNo) touched[kept++] = doc;
+                    else { scoreAcc[doc] = 0; matchAcc[doc] = 0; }
+                }
+                touchedCount = kept;
+            }
+        }
+
+        // 小顶堆取前 K 名
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, (x, y) -> Float.compare(scoreAcc[x], scoreAcc[y]));
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            if (heap.size() < limit) heap.add(doc);
+            else if (scoreAcc[doc] > scoreAcc[heap.peek()]) {
+                heap.poll();
+                heap.add(doc);
+            }
+        }
+        List<Integer> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) result.add(heap.poll());
+        Collections.reverse(result);
+        for (int doc : result) outScores.add((double) scoreAcc[doc]);
+
+        // 清空累加器供下次复用
+        for (int i = 0; i < touchedCount; i++) {
+            scoreAcc[touched[i]] = 0;
+            matchAcc[touched[i]] = 0;
+        }
+        return result;
+    }
+
+    private List<Postings> expand(String term) {
+        Postings exact = postings.get(term);
+        if (!isSingleCjk(term)) return exact == null ? List.of() : List.of(exact);
+
+        List<Postings> group = new ArrayList<>();
+        if (exact != null) group.add(exact);
+        group.addAll(bigramsByChar.getOrDefault(term.charAt(0), Set.of()));
+        return group;
+    }
+
+    // 取 (没有就新建) 一个词元的倒排表，新建的二元组登记到 bigramsByChar
+    private Postings postingsFor(String term) {
+        Postings list = postings.get(term);
+        if (list == null) {
+            list = new Postings();
+            postings.put(term, list);
+            indexBigram(term, list);
+        }
+        return list;
+    }
+
+    private void indexBigram(String term, Postings list) {
+        if (term.length() != 2 || !isCjk(term.charAt(0)) || !isCjk(term.charAt(1))) return;
+        bigramsByChar.computeIfAbsent(term.charAt(0), k -> new HashSet<>()).add(list);
+        bigramsByChar.computeIfAbsent(term.charAt(1), k -> new HashSet<>()).add(list);
+    }
+
+    private void unindexBigram(String term, Postings list) {
+        for (int i = 0; i < term.length() && term.length() == 2; i++) {
+            Set<Postings> lists = bigramsByChar.get(term.charAt(i));
+            if (lists != null && lists.remove(list) && lists.isEmpty()) bigramsByChar.remove(term.charAt(i));
+        }
+    }
+
+    // ---------------------------------------------------------------- 摘要
+
+    private static String snippet(String text, String query) {
+        if (text == null || text.isEmpty()) return "";
+
+        String lower = text.toLowerCase();
+        int hit = -1;
+        int hitLength = 0;
+        // 优先完整查询，其次按空格拆开的每个词
+        List<String> needles = new ArrayList<>();
+        needles.add(query.trim().toLowerCase());
+        needles.addAll(Arrays.asList(query.trim().toLowerCase().split("\\s+")));
+        for (String needle : needles) {
+            if (needle.isEmpty()) continue;
+            int idx = lower.indexOf(needle);
+            if (idx >= 0) {
+                hit = idx;
+                hitLength = needle.length();
+                break;
+            }
+        }
+        if (hit < 0) {
+            hit = 0;
+            hitLength = 0;
+        }
+        int from = Math.max(0, hit - SNIPPET_BEFORE);
+        int to = Math.min(text.length(), hit + hitLength + SNIPPET_AFTER);
+        String snippet = text.substring(from, to).replaceAll("\\s+", " ").trim();
+        return (from > 0 ? "…" : "") + snippet + (to < text.length() ? "…" : "");
+    }
+
+    private static String readText(FileChannel store, long offset, int length) throws IOException {
+        if (offset < 0) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (store.read(buffer, offset + buffer.position()) < 0) break;
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------- 文档表维护
+
+    private int allocateDoc(String title, int length, long mtime, long size) {
+        if (docCount == titles.length) {
+            int capacity = titles.length * 2;
+            titles = Arrays.copyOf(titles, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            mtimes = Arrays.copyOf(mtimes, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            storeOffsets = Arrays.copyOf(storeOffsets, capacity);
+            storeLengths = Arrays.copyOf(storeLengths, capacity);
+            alive = Arrays.copyOf(alive, capacity);
+            docTerms = Arrays.copyOf(docTerms, capacity);
+        }
+        int doc = docCount++;
+        titles[doc] = title;
+        lengths[doc] = length;
+        mtimes[doc] = mtime;
+        sizes[doc] = size;
+        storeOffsets[doc] = -1;
+        storeLengths[doc] = 0;
+        alive[doc] = true;
+        docTerms[doc] = null;
+        aliveCount++;
+        totalLength += length;
+        titleToDoc.put(title, doc);
+        return doc;
+    }
+
+    private boolean removeDoc(String title) {
+        Integer doc = titleToDoc.get(title);
+        if (doc == null) return false;
+        killDoc(doc);
+        return true;
+    }
+
+    private void killDoc(int doc) {
+        if (!alive[doc]) return;
+        alive[doc] = false;
+        aliveCount--;
+        totalLength -= lengths[doc];
+        if (docTerms[doc] != null) {
+            for (Postings list : docTerms[doc]) list.live--;
+            docTerms[doc] = null;
+        }
+        pendingText.remove(doc);
+        // 只有标题仍指向这个文档号时才移除 (重命名后旧文档号可能与新文档同名)
+        titleToDoc.remove(titles[doc], doc);
+    }
+
+    private void clear() {
+        Arrays.fill(titles, 0, docCount, null);
+        Arrays.fill(docTerms, 0, docCount, null);
+        docCount = 0;
+        aliveCount = 0;
+        totalLength = 0;
+        titleToDoc.clear();
+        postings.clear();
+        bigramsByChar.clear();
+        pendingText.clear();
+        storeSize = 0;
+        dirty = true;
+    }
+
+    // ---------------------------------------------------------------- 对账
+
+    private void reconcile() {
+        Map<String, long[]> onDisk = new HashMap<>();
+        try {
+            for (NoteStorage.Entry entry : storage.list()) {
+                onDisk.put(entry.title(), new long[]{entry.lastModified(), entry.size()});
+            }
+        } catch (IOException e) {
+            System.err.println("全文索引对账失败: " + e.getMessage());
+            return;
+        }
+
+        List<String> stale = new ArrayList<>();
+        synchronized (this) {
+            for (String title : new ArrayList<>(titleToDoc.keySet())) {
+                if (!onDisk.containsKey(title)) removeDoc(title);
+            }
+            for (Map.Entry<String, long[]> entry : onDisk.entrySet()) {
+                Integer doc = titleToDoc.get(entry.getKey());
+                if (doc == null || mtimes[doc] != entry.getValue()[0] || sizes[doc] != entry.getValue()[1]) {
+                    stale.add(entry.getKey());
+                }
+            }
+            if (!stale.isEmpty() || dirty) markDirty();
+        }
+        for (String title : stale) {
+            try {
+                update(title, storage.read(title));
+            } catch (IOException e) {
+                System.err.println("索引笔记失败 " + title + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- 持久化
+
+    private void markDirty() {
+        dirty = true;
+        if (pendingFlush != null) pendingFlush.cancel(false);
+        pendingFlush = worker.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        if (dir == null) return;
+        synchronized (flushLock) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        try {
+            synchronized (this) {
+                if (!dirty) return;
+                // 删除的文档超过四分之一时压实，文档号和正文存储一起重排
+                if (docCount > 0 && aliveCount < docCount * 3 / 4) compact();
+                appendPendingText();
+                dirty = false;
+            }
+            Snapshot snapshot = snapshot();
+            writeIndex(snapshot);
+            // index.dat 已经指向新的正文文件，旧的这时才能删 (这次写 index.dat 失败时留到下一次)
+            if (staleStores) {
+                staleStores = false;
+                deleteStoresExcept(snapshot.storeName());
+            }
+        } catch (IOException e) {
+            System.err.println("全文索引保存失败: " + e.getMessage());
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private void appendPendingText() throws IOException {
+        if (pendingText.isEmpty()) return;
+        try (FileChannel channel = FileChannel.open(dir.resolve(storeName(storeGeneration)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.position(storeSize);
+            for (Map.Entry<Integer, String> entry : pendingText.entrySet()) {
+                byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                storeOffsets[entry.getKey()] = storeSize;
+                storeLengths[entry.getKey()] = bytes.length;
+                storeSize += bytes.length;
+            }
+            channel.force(false);
+        }
+        pendingText.clear();
+    }
+
+    private void compact() throws IOException {
+        int[] remap = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            remap[doc] = alive[doc] ? next++ : -1;
+        }
+
+        // 1. 正文：存活文档拷贝到下一代的正文文件 (旧文件保留，等 index.dat 换掉之后再删)
+        Path oldStore = dir.resolve(storeName(storeGeneration));
+        long newGeneration = storeGeneration + 1;
+        long[] newOffsets = Arrays.copyOf(storeOffsets, docCount);
+        long newSize = 0;
+        try (FileChannel out = FileChannel.open(dir.resolve(storeName(newGeneration)), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FileChannel in = Files.exists(oldStore) ? FileChannel.open(oldStore, StandardOpenOption.READ) : null;
+            try {
+                for (int doc = 0; doc < docCount; doc++) {
+                    if (!alive[doc] || storeOffsets[doc] < 0 || in == null) continue;
+                    in.transferTo(storeOffsets[doc], storeLengths[doc], out);
+                    newOffsets[doc] = newSize;
+                    newSize += storeLengths[doc];
+                }
+            } finally {
+                if (in != null) in.close();
+            }
+            out.force(false);
+        }
+        // 新文件完整写好之后才切换，复制失败时内存里仍然指向旧文件
+        System.arraycopy(newOffsets, 0, storeOffsets, 0, docCount);
+        storeGeneration = newGeneration;
+        storeSize = newSize;
+        staleStores = true;
+
+        // 2. 倒排表：去掉已删除的文档并重新编号
+        // (原地替换内容，docTerms 和 bigramsByChar 里的引用仍然有效)
+        for (var it = postings.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Postings> entry = it.next();
+            Postings list = entry.getValue();
+            Postings rebuilt = new Postings();
+            list.forEach((doc, tf) -> {
+                if (remap[doc] >= 0) rebuilt.add(remap[doc], tf);
+            });
+            if (rebuilt.count == 0) {
+                it.remove();
+                unindexBigram(entry.getKey(), list);
+            } else {
+                list.replaceWith(rebuilt);
+            }
+        }
+
+        // 3. 文档表
+        Map<Integer, String> movedPending = new HashMap<>();
+        for (int doc = 0; doc < docCount; doc++) {
+            int target = remap[doc];
+            if (target < 0) continue;
+            titles[target] = titles[doc];
+            lengths[target] = lengths[doc];
+            mtimes[target] = mtimes[doc];
+            sizes[target] = sizes[doc];
+            storeOffsets[target] = storeOffsets[doc];
+            storeLengths[target] = storeLengths[doc];
+            alive[target] = true;
+            docTerms[target] = docTerms[doc];
+            String pending = pendingText.get(doc);
+            if (pending != null) movedPending.put(target, pending);
+        }
+        Arrays.fill(titles, next, docCount, null);
+        Arrays.fill(alive, next, docCount, false);
+        Arrays.fill(docTerms, next, docCount, null);
+        docCount = next;
+        pendingText.clear();
+        pendingText.putAll(movedPending);
+        titleToDoc.clear();
+        for (int doc = 0; doc < docCount; doc++) titleToDoc.put(titles[doc], doc);
+    }
+
+    /**
+     * 落盘用的快照：倒排表只追加，记录当前长度即可，写文件时不用持有锁
+     */
+    private record Snapshot(String storeName, String[] titles, int[] lengths, long[] mtimes, long[] sizes,
+                            long[] storeOffsets, int[] storeLengths, boolean[] alive, int docCount,
+                            String[] terms, byte[][] data, int[] dataLengths, int[] counts) {}
+
+    private synchronized Snapshot snapshot() {
+        String[] terms = new String[postings.size()];
+        byte[][] data = new byte[terms.length][];
+        int[] dataLengths = new int[terms.length];
+        int[] counts = new int[terms.length];
+        int i = 0;
+        for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+            terms[i] = entry.getKey();
+            data[i] = entry.getValue().data;
+            dataLengths[i] = entry.getValue().length;
+            counts[i] = entry.getValue().count;
+            i++;
+        }
+        return new Snapshot(storeName(storeGeneration), Arrays.copyOf(titles, docCount), Arrays.copyOf(lengths, docCount),
+                Arrays.copyOf(mtimes, docCount), Arrays.copyOf(sizes, docCount),
+                Arrays.copyOf(storeOffsets, docCount), Arrays.copyOf(storeLengths, docCount),
+                Arrays.copyOf(alive, docCount), docCount, terms, data, dataLengths, counts);
+    }
+
+    private void writeIndex(Snapshot s) throws IOException {
+        Path tmp = dir.resolve("index.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(s.storeName());
+            out.writeInt(s.docCount());
+            for (int doc = 0; doc < s.docCount(); doc++) {
+                // 还没写入正文的文档 (落盘后又有修改) 记为已删除，下次启动对账时重新索引
+                boolean live = s.alive()[doc] && s.storeOffsets()[doc] >= 0;
+                out.writeBoolean(live);
+                out.writeUTF(s.titles()[doc] == null ? "" : s.titles()[doc]);
+                out.writeInt(s.lengths()[doc]);
+                out.writeLong(s.mtimes()[doc]);
+                out.writeLong(s.sizes()[doc]);
+                out.writeLong(s.storeOffsets()[doc]);
+                out.writeInt(s.storeLengths()[doc]);
+            }
+            out.writeInt(s.terms().length);
+            for (int i = 0; i < s.terms().length; i++) {
+                out.writeUTF(s.terms()[i]);
+                out.writeInt(s.counts()[i]);
+                out.writeInt(s.dataLengths()[i]);
+                out.write(s.data()[i], 0, s.dataLengths()[i]);
+            }
+        }
+        Files.move(tmp, dir.resolve("index.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 载入 index.dat 和它指向的正文文件
+     * @return false 表示还没有索引 (第一次使用)
+     */
+    private boolean load() throws IOException {
+        Path file = dir.resolve("index.dat");
+        if (!Files.exists(file)) {
+            clear();
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) throw new IOException("索引格式不匹配");
+            storeGeneration = parseGeneration(in.readUTF());
+            Path store = dir.resolve(storeName(storeGeneration));
+            storeSize = Files.exists(store) ? Files.size(store) : 0;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                boolean live = in.readBoolean();
+                String title = in.readUTF();
+                int length = in.readInt();
+                long mtime = in.readLong();
+                long size = in.readLong();
+                long offset = in.readLong();
+                int storeLength = in.readInt();
+                int doc = allocateDoc(title, length, mtime, size);
+                storeOffsets[doc] = offset;
+                storeLengths[doc] = storeLength;
+                if (!live || offset + storeLength > storeSize) killDoc(doc);
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                Postings list = new Postings();
+                list.count = in.readInt();
+                list.length = in.readInt();
+                list.data = new byte[list.length];
+                in.readFully(list.data);
+                list.lastDoc = list.decodeLastDoc();
+                postings.put(term, list);
+                indexBigram(term, list);
+            }
+        }
+        // 存活文档数和每篇文档的词元表不落盘，按倒排表重新数一遍
+        int[] termCounts = new int[docCount];
+        for (Postings list : postings.values()) {
+            list.forEach((doc, tf) -> {
+                if (alive[doc]) termCounts[doc]++;
+            });
+        }
+        for (int doc = 0; doc < docCount; doc++) {
+            if (alive[doc]) docTerms[doc] = new Postings[termCounts[doc]];
+        }
+        for (Postings list : postings.values()) {
+            list.forEach((doc, tf) -> {
+                if (!alive[doc]) return;
+                docTerms[doc][--termCounts[doc]] = list;
+                list.live++;
+            });
+        }
+        dirty = false;
+        return true;
+    }
+
+    private static String storeName(long generation) {
+        return "store-" + generation + ".dat";
+    }
+
+    private static long parseGeneration(String name) throws IOException {
+        if (!name.startsWith("store-") || !name.endsWith(".dat")) throw new IOException("正文文件名不对: " + name);
+        try {
+            return Long.parseLong(name.substring(6, name.length() - 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("正文文件名不对: " + name);
+        }
+    }
+
+    // 删除除 keep 以外的正文文件 (keep 为 null 时全部删除)；持有写锁，不会删掉搜索正在读的文件
+    private void deleteStoresExcept(String keep) {
+        storeFiles.writeLock().lock();
+        try (var stream = Files.newDirectoryStream(dir, "store*")) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().equals(keep)) Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            System.err.println("清理旧的索引正文失败: " + e.getMessage());
+        } finally {
+            storeFiles.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- 分词
+
+    private interface TermSink {
+        void accept(String term);
+    }
+
+    /**
+     * 分词，返回词元数量
+     */
+    private static int tokenize(String text, TermSink sink) {
+        if (text == null) return 0;
+        int count = 0;
+        StringBuilder word = new StringBuilder();
+        char prevCjk = 0;
+        boolean cjkRunSingle = false;
+
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (isCjk(c)) {
+                if (word.length() > 0) {
+                    sink.accept(word.toString());
+                    count++;
+                    word.setLength(0);
+                }
+                if (prevCjk != 0) {
+                    sink.accept(new String(new char[]{prevCjk, c}));
+                    count++;
+                    cjkRunSingle = false;
+                } else {
+                    cjkRunSingle = true;
+                }
+                prevCjk = c;
+                continue;
+            }
+            // 汉字串结束：只有一个字时保留单字
+            if (prevCjk != 0 && cjkRunSingle) {
+                sink.accept(String.valueOf(prevCjk));
+                count++;
+            }
+            prevCjk = 0;
+            cjkRunSingle = false;
+
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_WORD_LENGTH) word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                sink.accept(word.toString());
+                count++;
+                word.setLength(0);
+            }
+        }
+        return count;
+    }
+
+    private static Set<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        tokenize(query, terms::add);
+        return terms;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static boolean isSingleCjk(String term) {
+        return term.length() == 1 && isCjk(term.charAt(0));
+    }
+
+    // ---------------------------------------------------------------- 倒排表
+
+    private interface PostingVisitor {
+        void visit(int doc, int tf);
+    }
+
+    /**
+     * 一个词元的倒排表：(文档号差值, 词频) 依次用变长整数编码
+     */
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int length = 0;
+        int count = 0;      // 含已删除文档
+        int live = 0;       // 只算存活文档，idf 用它
+        int lastDoc = 0;
+
+        void add(int doc, int tf) {
+            ensureCapacity(10);
+            writeVarInt(count == 0 ? doc : doc - lastDoc);
+            writeVarInt(tf);
+            lastDoc = doc;
+            count++;
+            live++;
+        }
+
+        void forEach(PostingVisitor visitor) {
+            int pos = 0;
+            int doc = 0;
+            while (pos < length) {
+                int delta = 0, shift = 0, b;
+                do { b = data[pos++]; delta |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+                int tf = 0; shift = 0;
+                do { b = data[pos++]; tf |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+                doc += delta;
+                visitor.visit(doc, tf);
+            }
+        }
+
+        int decodeLastDoc() {
+            int[] last = {0};
+            forEach((doc, tf) -> last[0] = doc);
+            return last[0];
+        }
+
+        // 压实时整体替换：不能原地修改旧数组，落盘快照可能还在读它
+        void replaceWith(Postings other) {
+            data = other.data;
+            length = other.length;
+            count = other.count;
+            live = other.live;
+            lastDoc = other.lastDoc;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+}
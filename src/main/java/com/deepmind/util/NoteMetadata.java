@@ -1,6 +1,8 @@
 package com.deepmind.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class NoteMetadata {
@@ -9,8 +11,15 @@ public class NoteMetadata {
     public String createDate;     // 创建日期
     public String nextReviewDate; // 遗忘曲线计算出的下次复习日期
     public int reviewCount = 0;   // 已复习次数
+    // SM-2 复习调度 (由 ReviewScheduler 维护)
+    public double easeFactor = 2.5; // 难度系数，最低 1.3
+    public int repetitions = 0;     // 连续答对的次数，答错归零
+    public int intervalDays = 0;    // 当前复习间隔 (天)
+    public String lastReviewDate;   // 最近一次复习日期
 
     // 如果你想做更高级的，可以加这个：
     public Map<String, String> tags = new HashMap<>();
+    // 正文里 [[链接]] 的目标 (由 LinkIndex 维护)
+    public List<String> links = new ArrayList<>();
 
 }
@@ -0,0 +1,60 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 笔记正文的存储后端
+ * FileUtil 只通过这个接口读写笔记，界面上的操作对两种后端完全一样：
+ * FileNoteStorage —— 每篇笔记一个 notes/&lt;标题&gt;.md (默认)；
+ * PackedNoteStorage —— 所有笔记追加写入少量段文件，适合十万篇以上的笔记库。
+ */
+public interface NoteStorage {
+
+    /**
+     * 一篇笔记的概要
+     * @param size         正文字节数 (UTF-8)
+     * @param lastModified 最后修改时间 (毫秒)
+     */
+    record Entry(String title, long size, long lastModified) {}
+
+    /**
+     * 全部笔记
+     */
+    List<Entry> list() throws IOException;
+
+    /**
+     * 单篇笔记的概要，不存在返回 null
+     */
+    Entry stat(String title);
+
+    String read(String title) throws IOException;
+
+    void write(String title, String content) throws IOException;
+
+    void delete(String title) throws IOException;
+
+    /**
+     * @throws IOException 新标题已存在
+     */
+    void rename(String oldTitle, String newTitle) throws IOException;
+
+    /**
+     * 把这些笔记的正文和改名强制写到磁盘上 (fsync)，之后断电也不会丢
+     * 普通保存不调用；重命名删除日志之前调用，日志删掉以后就没法再补了
+     */
+    void sync(Collection<String> titles) throws IOException;
+
+    /**
+     * 笔记直接对应的 .md 文件 (可以内存映射、被外部程序修改)；打包存储返回 null
+     */
+    Path fileOf(String title);
+
+    /**
+     * 把全部笔记导出为普通的 .md 文件
+     * @return 导出的篇数
+     */
+    int exportTo(Path targetDir) throws IOException;
+}
@@ -0,0 +1,484 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * 打包存储：所有笔记追加写入 notes/.pack/ 下的段文件 (每段最多 64 MB)
+ * 1. 保存 = 在当前段末尾追加一条 PUT 记录，删除 = 追加 DELETE 记录 (墓碑)，重命名 = PUT 新标题 + DELETE 旧标题
+ * 2. 内存里只保存 "标题 -> 记录位置" 的偏移索引，读取一篇笔记只需一次定位读
+ * 3. 每条记录带全局递增的序号：启动时按任意顺序重放所有段，同一标题只认序号最大的记录；
+ *    每条记录都校验 CRC，一段里遇到第一条坏记录就停止；
+ *    崩溃时正在写的段 (含最大序号的那一段，压缩后它不一定是编号最大的段) 末尾写了一半的记录会被截掉
+ * 4. 失效的字节超过有效字节时在后台压缩：先切换到新段，把旧段里仍有效的记录原样复制到新段，再删除旧段
+ *    旧段先整体写进 dropped.list 再逐个删除，启动时先删掉清单里的段再重放：
+ *    一组旧段要么全在要么全不在，不会出现墓碑所在的段没了、更早的 PUT 副本还在，删掉的笔记又回来的情况
+ *
+ * 记录格式：[int 体长][byte 类型][long 序号][long 修改时间][int 标题长][标题][int 正文长][正文 (仅 PUT)][int CRC32]
+ */
+public class PackedNoteStorage implements NoteStorage {
+
+    private static final int MAGIC = 0x444D504B; // "DMPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long SEGMENT_LIMIT = 64L << 20;
+    private static final long COMPACT_MIN_DEAD = 8L << 20;
+    private static final String DROPPED = "dropped.list";
+
+    // 一条有效记录的位置
+    private record Loc(int segment, long recordOffset, int recordLength,
+                       long contentOffset, int contentLength, long seq, long mtime) {}
+
+    private final Path dir;
+    private final Map<String, Loc> index = new HashMap<>();
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private int active;
+    private long activeSize;
+    private long seq = 0;
+
+    private long totalBytes = 0; // 所有段的记录字节数
+    private long liveBytes = 0;  // 其中仍有效的
+
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "pack-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private PackedNoteStorage(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 打开 (或新建) 打包存储
+     */
+    public static PackedNoteStorage open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        PackedNoteStorage storage = new PackedNoteStorage(dir);
+        storage.load();
+        return storage;
+    }
+
+    /**
+     * 把目录里的 .md 文件导入 (第一次启用打包存储时调用，原文件保留不动)
+     * @return 导入的篇数
+     */
+    public int importFrom(Path notesDir) throws IOException {
+        int count = 0;
+        for (Entry entry : new FileNoteStorage(notesDir).list()) {
+            String content = Files.readString(notesDir.resolve(entry.title() + ".md"));
+            synchronized (this) {
+                put(entry.title(), content.getBytes(StandardCharsets.UTF_8), entry.lastModified(), false);
+            }
+            count++;
+        }
+        synchronized (this) {
+            segments.get(active).force(false);
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------- NoteStorage
+
+    @Override
+    public synchronized List<Entry> list() {
+        List<Entry> entries = new ArrayList<>(index.size());
+        index.forEach((title, loc) -> entries.add(new Entry(title, loc.contentLength(), loc.mtime())));
+        return entries;
+    }
+
+    @Override
+    public synchronized Entry stat(String title) {
+        Loc loc = index.get(title);
+        return loc == null ? null : new Entry(title, loc.contentLength(), loc.mtime());
+    }
+
+    @Override
+    public synchronized String read(String title) throws IOException {
+        Loc loc = index.get(title);
+        if (loc == null) throw new java.nio.file.NoSuchFileException(title);
+        return new String(readContent(loc), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(String title, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8); // 编码放在锁外面
+        synchronized (this) {
+            put(title, bytes, System.currentTimeMillis(), true);
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public void delete(String title) throws IOException {
+        synchronized (this) {
+            Loc old = index.get(title);
+            if (old == null) return;
+            append(DELETE, title, null, System.currentTimeMillis());
+            segments.get(active).force(false);
+            index.remove(title);
+            liveBytes -= old.recordLength();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public void rename(String oldTitle, String newTitle) throws IOException {
+        synchronized (this) {
+            if (index.containsKey(newTitle)) throw new IOException("目标文件名已存在");
+            Loc old = index.get(oldTitle);
+            if (old == null) throw new java.nio.file.NoSuchFileException(oldTitle);
+            put(newTitle, readContent(old), old.mtime(), false);
+            append(DELETE, oldTitle, null, System.currentTimeMillis());
+            segments.get(active).force(false);
+            index.remove(oldTitle);
+            liveBytes -= old.recordLength();
+        }
+        maybeCompact();
+    }
+
+    /**
+     * 记录都在段文件里：把各段 fsync 一遍 (导入时和切换新段时旧段不一定落过盘)
+     */
+    @Override
+    public synchronized void sync(Collection<String> titles) throws IOException {
+        for (FileChannel channel : segments.values()) channel.force(false);
+    }
+
+    @Override
+    public Path fileOf(String title) {
+        return null;
+    }
+
+    @Override
+    public int exportTo(Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        List<Entry> entries = list();
+        for (Entry entry : entries) {
+            Path file = targetDir.resolve(entry.title() + ".md");
+            Files.writeString(file, read(entry.title()));
+            Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime.fromMillis(entry.lastModified()));
+        }
+        return entries.size();
+    }
+
+    // ---------------------------------------------------------------- 写入
+
+    private void put(String title, byte[] content, long mtime, boolean sync) throws IOException {
+        Loc loc = append(PUT, title, content, mtime);
+        if (sync) segments.get(active).force(false);
+        Loc old = index.put(title, loc);
+        liveBytes += loc.recordLength() - (old == null ? 0 : old.recordLength());
+    }
+
+    private Loc append(byte type, String title, byte[] content, long mtime) throws IOException {
+        if (activeSize >= SEGMENT_LIMIT) roll();
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 8 + 8 + 4 + titleBytes.length + (type == PUT ? 4 + content.length : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bodyLength + 4);
+        long recordSeq = ++seq;
+        buffer.putInt(bodyLength).put(type).putLong(recordSeq).putLong(mtime).putInt(titleBytes.length).put(titleBytes);
+        if (type == PUT) buffer.putInt(content.length).put(content);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, bodyLength);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        long offset = activeSize;
+        writeFully(segments.get(active), buffer, offset);
+        activeSize += buffer.limit();
+        totalBytes += buffer.limit();
+
+        long contentOffset = offset + 4 + 1 + 8 + 8 + 4 + titleBytes.length + 4;
+        int contentLength = type == PUT ? content.length : 0;
+        return new Loc(active, offset, buffer.limit(), contentOffset, contentLength, recordSeq, mtime);
+    }
+
+    // 切换到新的一段
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        segments.put(id, createSegment(id));
+        active = id;
+        activeSize = HEADER_SIZE;
+    }
+
+    private FileChannel createSegment(int id) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(id),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(channel, header, 0);
+        return channel;
+    }
+
+    private byte[] readContent(Loc loc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(loc.contentLength());
+        FileChannel channel = segments.get(loc.segment());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, loc.contentOffset() + buffer.position()) < 0) {
+                throw new IOException("段文件被截断: " + segmentPath(loc.segment()));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return dir.resolve(String.format("%08d.pack", id));
+    }
+
+    // ---------------------------------------------------------------- 启动时重放
+
+    private void load() throws IOException {
+        finishDrop();
+        List<Integer> ids = new ArrayList<>();
+        try (var stream = Files.newDirectoryStream(dir, "*.pack")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Integer.parseInt(name.substring(0, name.length() - 5)));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        ids.sort(null);
+
+        Map<String, Long> latestSeq = new HashMap<>(); // 包括删除记录的序号
+        Map<Integer, Long> validEnds = new HashMap<>();  // 段 -> 最后一条有效记录之后的位置
+        int target = -1;                                 // 含最大序号的段 = 崩溃前正在写的段
+        for (int id : ids) {
+            FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(id, channel);
+            long before = seq;
+            validEnds.put(id, replay(id, channel, latestSeq));
+            if (seq > before) target = id;
+        }
+        if (segments.isEmpty()) {
+            roll();
+            return;
+        }
+        active = target >= 0 ? target : segments.lastKey();
+        FileChannel channel = segments.get(active);
+        long end = validEnds.get(active);
+        if (end < channel.size()) {
+            System.err.println("段文件末尾有不完整的记录，已截断: " + segmentPath(active));
+            channel.truncate(end);
+        }
+        activeSize = channel.size();
+        validEnds.forEach((id, valid) -> {
+            try {
+                if (id != active && valid < segments.get(id).size()) {
+                    System.err.println("段文件损坏，后面的记录被忽略: " + segmentPath(id));
+                }
+            } catch (IOException ignored) {}
+        });
+    }
+
+    /**
+     * 重放一段，返回最后一条有效记录之后的位置
+     */
+    private long replay(int id, FileChannel channel, Map<String, Long> latestSeq) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            // 创建段时崩溃：补上文件头
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(channel, header, 0);
+            return HEADER_SIZE;
+        }
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (map.getInt(0) != MAGIC) throw new IOException("不是笔记段文件: " + segmentPath(id));
+
+        long pos = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (pos + 4 <= size) {
+            int bodyLength = map.getInt((int) pos);
+            if (bodyLength < 21 || pos + 4 + bodyLength + 4 > size) break; // 写了一半
+            int p = (int) pos + 4;
+            // 每条都校验：崩溃时正在写的段不一定是编号最大的段 (压缩会在它后面新建段)
+            crc.reset();
+            crc.update(map.slice(p, bodyLength));
+            if ((int) crc.getValue() != map.getInt(p + bodyLength)) break;
+            byte type = map.get(p);
+            long recordSeq = map.getLong(p + 1);
+            long mtime = map.getLong(p + 9);
+            int titleLength = map.getInt(p + 17);
+            if (!wellFormed(map, p, bodyLength, type, titleLength)) break;
+            byte[] titleBytes = new byte[titleLength];
+            map.get(p + 21, titleBytes);
+            String title = new String(titleBytes, StandardCharsets.UTF_8);
+            int recordLength = 4 + bodyLength + 4;
+            totalBytes += recordLength;
+            seq = Math.max(seq, recordSeq);
+
+            Long previous = latestSeq.get(title);
+            if (previous == null || recordSeq > previous) {
+                latestSeq.put(title, recordSeq);
+                Loc old;
+                if (type == PUT) {
+                    int contentLength = map.getInt(p + 21 + titleLength);
+                    Loc loc = new Loc(id, pos, recordLength, pos + 4 + 21 + titleLength + 4, contentLength, recordSeq, mtime);
+                    old = index.put(title, loc);
+                    liveBytes += recordLength;
+                } else {
+                    old = index.remove(title);
+                }
+                if (old != null) liveBytes -= old.recordLength();
+            }
+            pos += recordLength;
+        }
+        return pos;
+    }
+
+    // CRC 通过后再核对各长度字段，保证按它们取数据不会越界
+    private static boolean wellFormed(MappedByteBuffer map, int p, int bodyLength, byte type, int titleLength) {
+        if (titleLength < 0 || 21 + titleLength > bodyLength) return false;
+        if (type == DELETE) return 21 + titleLength == bodyLength;
+        if (type != PUT || 21 + titleLength + 4 > bodyLength) return false;
+        return 21 + titleLength + 4 + map.getInt(p + 21 + titleLength) == bodyLength;
+    }
+
+    // ---------------------------------------------------------------- 后台压缩
+
+    private void maybeCompact() {
+        long dead;
+        synchronized (this) {
+            dead = totalBytes - liveBytes;
+        }
+        if (dead < COMPACT_MIN_DEAD || dead < liveBytes) return;
+        if (compacting.compareAndSet(false, true)) compactor.execute(this::compact);
+    }
+
+    private void compact() {
+        try {
+            List<Integer> oldSegments;
+            List<Map.Entry<String, Loc>> live = new ArrayList<>();
+            synchronized (this) {
+                roll(); // 之后的写入都进新段，旧段不再变化
+                oldSegments = new ArrayList<>(segments.headMap(active).keySet());
+                for (Map.Entry<String, Loc> entry : index.entrySet()) {
+                    if (entry.getValue().segment() != active) live.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+            // 按原位置顺序复制，读取是顺序的
+            live.sort(Comparator.comparingInt((Map.Entry<String, Loc> e) -> e.getValue().segment())
+                    .thenComparingLong(e -> e.getValue().recordOffset()));
+
+            Map<String, Loc[]> moved = new HashMap<>(); // 标题 -> {旧位置, 新位置}
+            FileChannel out = null;
+            int outId = 0;
+            long outSize = 0;
+            for (Map.Entry<String, Loc> entry : live) {
+                Loc loc = entry.getValue();
+                if (out == null || outSize >= SEGMENT_LIMIT) {
+                    if (out != null) out.force(false);
+                    synchronized (this) {
+                        outId = segments.lastKey() + 1;
+                        out = createSegment(outId);
+                        segments.put(outId, out);
+                    }
+                    outSize = HEADER_SIZE;
+                }
+                ByteBuffer record = ByteBuffer.allocate(loc.recordLength());
+                FileChannel source;
+                synchronized (this) {
+                    source = segments.get(loc.segment());
+                }
+                while (record.hasRemaining()) {
+                    if (source.read(record, loc.recordOffset() + record.position()) < 0) throw new IOException("段文件被截断");
+                }
+                record.flip();
+                writeFully(out, record, outSize);
+                Loc copy = new Loc(outId, outSize, loc.recordLength(),
+                        outSize + (loc.contentOffset() - loc.recordOffset()), loc.contentLength(), loc.seq(), loc.mtime());
+                moved.put(entry.getKey(), new Loc[]{loc, copy});
+                outSize += loc.recordLength();
+            }
+            if (out != null) out.force(false);
+
+            synchronized (this) {
+                for (Map.Entry<String, Loc[]> entry : moved.entrySet()) {
+                    // 复制期间又被修改 / 删除的笔记，复制出来的记录直接作废
+                    if (entry.getValue()[0].equals(index.get(entry.getKey()))) {
+                        index.put(entry.getKey(), entry.getValue()[1]);
+                    }
+                }
+                // 先记下整组要删的段，再逐个删除：中途崩溃时启动会把剩下的删完
+                for (int id : oldSegments) segments.remove(id).close();
+                writeDropList(oldSegments);
+                finishDrop();
+                totalBytes = 0;
+                for (FileChannel channel : segments.values()) totalBytes += channel.size() - HEADER_SIZE;
+                liveBytes = 0;
+                for (Loc loc : index.values()) liveBytes += loc.recordLength();
+            }
+        } catch (IOException e) {
+            System.err.println("压缩笔记段文件失败: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    // 原子写入待删除段的清单 (新段已经 fsync 过，清单落盘之后旧段在逻辑上就不存在了)
+    private void writeDropList(List<Integer> ids) throws IOException {
+        Path temp = dir.resolve(DROPPED + ".tmp");
+        StringBuilder text = new StringBuilder();
+        for (int id : ids) text.append(id).append('\n');
+        Files.writeString(temp, text);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, dir.resolve(DROPPED), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, dir.resolve(DROPPED), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDir();
+    }
+
+    // 删除清单里的段，全部删完再删清单 (段编号只增不减，清单里的编号不会被新段重用)
+    private void finishDrop() throws IOException {
+        Path list = dir.resolve(DROPPED);
+        if (!Files.exists(list)) return;
+        for (String line : Files.readAllLines(list)) {
+            if (!line.isBlank()) Files.deleteIfExists(segmentPath(Integer.parseInt(line.trim())));
+        }
+        syncDir();
+        Files.delete(list);
+    }
+
+    private void syncDir() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows 上目录不能这样打开，那里的改名本身就是同步的
+        }
+    }
+}
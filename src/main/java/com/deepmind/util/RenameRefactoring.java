@@ -0,0 +1,259 @@
+package com.deepmind.util;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+/**
+ * 链接感知的重命名 (笔记改名、移动、文件夹改名)
+ * 1. 从 LinkIndex 的反向表找出引用了这些笔记的笔记，只读取、改写它们，不扫描整个笔记库
+ * 2. 先把整批操作 (改名列表 + 每篇要写回的新正文) 写进 notes/.meta/rename-journal.jsonl，
+ *    fsync 后原子换名，再依次改名、写回，全部完成后删除日志
+ * 3. 中途退出时日志还在，下次启动按日志重做一遍：已经改过名的跳过，正文直接覆盖，结果和一次做完相同
+ * 图片在 notes/images/ 下按相对路径引用，和笔记标题无关，改名后不需要改写。
+ */
+public class RenameRefactoring {
+
+    /**
+     * 进度回调 (在执行重命名的线程上)
+     */
+    public interface Progress {
+        void update(int done, int total);
+    }
+
+    /**
+     * @param renamed   实际改名的笔记 (旧标题 -> 新标题)
+     * @param rewritten 正文里的链接被改写的笔记 (改名后的标题)
+     * @param targets   链接目标怎么改 (规范化后的旧目标 -> 新目标)，编辑器里还没保存的正文用它同样改写
+     */
+    public record Result(Map<String, String> renamed, Set<String> rewritten, Map<String, String> targets) {
+
+        /**
+         * 按这次重命名改写一段正文里的链接，没有改动时返回原字符串
+         */
+        public String rewrite(String content) {
+            return LinkIndex.rewrite(content, targets::get);
+        }
+    }
+
+    private static final String JOURNAL = ".meta/rename-journal.jsonl";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final RenameRefactoring INSTANCE = new RenameRefactoring();
+
+    public static RenameRefactoring getInstance() {
+        return INSTANCE;
+    }
+
+    private Path journal;
+
+    private RenameRefactoring() {
+    }
+
+    /**
+     * 记下日志位置；上次留下的日志说明有一批重命名没做完，按日志补完
+     * (须在各个索引 open 之后调用)
+     */
+    public synchronized void open(Path notesDir) {
+        journal = notesDir.resolve(JOURNAL);
+        if (!Files.exists(journal)) return;
+        try {
+            Map<String, String> renames = new LinkedHashMap<>();
+            Map<String, String> writes = new LinkedHashMap<>();
+            readJournal(renames, writes);
+            System.out.println("继续上次未完成的重命名: " + renames.size() + " 篇改名, " + writes.size() + " 篇改写链接");
+            apply(renames, writes, null);
+            Files.deleteIfExists(journal);
+        } catch (IOException | RuntimeException e) {
+            // 日志保留，下次启动再试
+            System.err.println("恢复重命名失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 重命名一批笔记，并改写所有指向它们的 [[链接]] 和 (标题.md) 链接
+     * @param renames  旧标题 -> 新标题
+     * @param progress 进度回调，可以为 null
+     * @throws IOException 笔记不存在、目标已存在、等不到排队中的保存写完，或者读写失败
+     *                     (失败前已改好的部分保留，日志留待下次启动补完)
+     */
+    public synchronized Result run(Map<String, String> renames, Progress progress) throws IOException {
+        // 排队中的写入先落盘，下面读到的才是最新正文；等不到就不改，否则改写基于旧正文，晚到的写入又会把链接改回去
+        if (!SaveQueue.getInstance().flush(2000)) throw new IOException("等待保存完成超时，已取消重命名");
+        NoteCatalog catalog = NoteCatalog.getInstance();
+        Map<String, String> plan = new LinkedHashMap<>();
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            if (rename.getKey().equals(rename.getValue())) continue;
+            if (!catalog.contains(rename.getKey())) throw new IOException("笔记不存在: " + rename.getKey());
+            if (catalog.contains(rename.getValue()) || renames.containsKey(rename.getValue())) {
+                throw new IOException("目标文件名已存在: " + rename.getValue());
+            }
+            plan.put(rename.getKey(), rename.getValue());
+        }
+        if (plan.isEmpty()) return new Result(Map.of(), Set.of(), Map.of());
+
+        // 1. 链接目标怎么改：完整标题换成新标题；只写了最后一段名字且确实指向它的，名字变了才换
+        LinkIndex links = LinkIndex.getInstance();
+        Map<String, String> targets = new HashMap<>(plan);
+        Set<String> sources = new TreeSet<>();
+        for (Map.Entry<String, String> rename : plan.entrySet()) {
+            String oldName = nameOf(rename.getKey());
+            String newName = nameOf(rename.getValue());
+            if (!oldName.equals(newName) && rename.getKey().equals(links.resolve(oldName))) {
+                targets.putIfAbsent(oldName, newName);
+            }
+            sources.addAll(links.backlinksOf(rename.getKey()));
+        }
+
+        // 2. 只读引用了它们的笔记，算出改写后的正文 (按改名后的标题记)
+        // 进度按 "读一篇、改一个名、写一篇" 计数；还不知道要写几篇时先按全部要写估计
+        // 还没写盘的正文 (在保存线程上调用时 flush 等不了，flush 之后又新排的也可能有) 从队列里取走，
+        // 以它为准改写并一起写回，免得队列随后用旧链接覆盖
+        int estimate = sources.size() + plan.size() + sources.size();
+        int read = 0;
+        Map<String, String> writes = new LinkedHashMap<>();
+        Map<String, String> taken = new LinkedHashMap<>();
+        try {
+            for (String source : sources) {
+                String content = SaveQueue.getInstance().take(source);
+                if (content != null) taken.put(source, content);
+                else content = FileUtil.read(source);
+                String rewritten = LinkIndex.rewrite(content, targets::get);
+                if (taken.containsKey(source) || !rewritten.equals(content)) {
+                    writes.put(plan.getOrDefault(source, source), rewritten);
+                }
+                if (progress != null) progress.update(++read, estimate);
+            }
+
+            // 3. 先落日志，再动笔记
+            writeJournal(plan, writes);
+        } catch (IOException | RuntimeException e) {
+            taken.forEach(SaveQueue.getInstance()::submit); // 没开始改：取走的内容放回队列
+            throw e;
+        }
+        int base = read;
+        int total = base + plan.size() + writes.size();
+        apply(plan, writes, progress == null ? null : n -> progress.update(base + n, total));
+        Files.deleteIfExists(journal);
+        return new Result(Collections.unmodifiableMap(plan), Collections.unmodifiableSet(writes.keySet()),
+                Collections.unmodifiableMap(targets));
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    // 可重复执行：已经改过名的跳过 (元数据没来得及提交的补上)，正文整篇覆盖
+    private void apply(Map<String, String> renames, Map<String, String> writes, IntConsumer step) throws IOException {
+        NoteCatalog catalog = NoteCatalog.getInstance();
+        MetadataStore store = MetadataStore.getInstance();
+        Map<String, String> pending = new LinkedHashMap<>();
+        int skipped = 0;
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            String from = rename.getKey();
+            String to = rename.getValue();
+            if (catalog.contains(from) && !catalog.contains(to)) {
+                pending.put(from, to);
+            } else {
+                if (store.contains(from) && !store.contains(to)) store.rename(from, to);
+                skipped++;
+            }
+        }
+        int offset = skipped;
+        FileUtil.renameAll(pending, step == null ? null : n -> step.accept(offset + n));
+        store.flushNow(); // 改名后的元数据和正文一样落盘，日志删掉之后不会再丢
+
+        int count = renames.size();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            if (catalog.contains(write.getKey())) {
+                FileUtil.save(write.getKey(), write.getValue());
+                SaveQueue.getInstance().loaded(write.getKey(), write.getValue());
+            }
+            if (step != null) step.accept(++count);
+        }
+
+        // 普通保存不 fsync；调用方接着就要删日志，删之前确保改名和改写过的正文都已经在磁盘上
+        Set<String> touched = new TreeSet<>(renames.values());
+        touched.addAll(writes.keySet());
+        FileUtil.storage().sync(touched);
+    }
+
+    // 写临时文件、fsync 后原子换名：日志要么完整存在，要么不存在
+    private void writeJournal(Map<String, String> renames, Map<String, String> writes) throws IOException {
+        Files.createDirectories(journal.getParent());
+        Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(line(w -> w.name("version").value(FORMAT_VERSION)));
+            for (Map.Entry<String, String> rename : renames.entrySet()) {
+                out.write(line(w -> w.name("rename").value(rename.getKey()).name("to").value(rename.getValue())));
+            }
+            for (Map.Entry<String, String> write : writes.entrySet()) {
+                out.write(line(w -> w.name("write").value(write.getKey()).name("content").value(write.getValue())));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private interface Fields {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private static String line(Fields fields) throws IOException {
+        StringWriter buffer = new StringWriter();
+        JsonWriter writer = new JsonWriter(buffer);
+        writer.beginObject();
+        fields.write(writer);
+        writer.endObject();
+        writer.flush();
+        return buffer.append('\n').toString();
+    }
+
+    private void readJournal(Map<String, String> renames, Map<String, String> writes) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = in.readLine()) != null) {
+                if (text.isBlank()) continue;
+                JsonReader reader = new JsonReader(new StringReader(text));
+                Map<String, String> fields = new HashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.STRING) fields.put(name, reader.nextString());
+                    else reader.skipValue();
+                }
+                reader.endObject();
+                if (fields.containsKey("rename")) renames.put(fields.get("rename"), fields.get("to"));
+                else if (fields.containsKey("write")) writes.put(fields.get("write"), fields.get("content"));
+            }
+        }
+    }
+
+    private static String nameOf(String title) {
+        return title.substring(title.lastIndexOf('_') + 1);
+    }
+}
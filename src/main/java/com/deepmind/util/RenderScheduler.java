@@ -0,0 +1,72 @@
+package com.deepmind.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 后台渲染调度器
+ * 耗时的解析 / HTML 拼接放在单独的工作线程里执行，每次渲染都带上文档版本号：
+ * 开始计算前、计算完成后、交给 UI 线程前三处检查版本，只要文档已经被再次修改就直接丢弃，
+ * 只有最终的 DOM 交接在 UI 线程上执行。
+ */
+public class RenderScheduler {
+
+    private final LongSupplier currentVersion;
+    private final Executor uiExecutor;
+    private final ExecutorService worker;
+
+    /**
+     * @param name           工作线程名称
+     * @param currentVersion 返回文档当前版本号 (在 UI 线程上递增)
+     * @param uiExecutor     UI 线程执行器，一般传 Platform::runLater
+     */
+    public RenderScheduler(String name, LongSupplier currentVersion, Executor uiExecutor) {
+        this.currentVersion = currentVersion;
+        this.uiExecutor = uiExecutor;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true); // 不阻止程序退出
+            return t;
+        });
+    }
+
+    /**
+     * 提交一次渲染
+     * @param version 发起渲染时的文档版本号
+     * @param compute 在工作线程执行的计算
+     * @param apply   在 UI 线程执行的交接，只有版本仍是最新时才会调用
+     */
+    public <T> void submit(long version, Supplier<T> compute, Consumer<T> apply) {
+        worker.execute(() -> {
+            if (isStale(version)) return; // 排队期间又有新的编辑，跳过
+
+            T result;
+            try {
+                result = compute.get();
+            } catch (Exception e) {
+                System.err.println("后台渲染失败: " + e.getMessage());
+                return;
+            }
+
+            if (isStale(version)) return;
+            uiExecutor.execute(() -> {
+                if (!isStale(version)) apply.accept(result);
+            });
+        });
+    }
+
+    private boolean isStale(long version) {
+        return version != currentVersion.getAsLong();
+    }
+
+    /**
+     * 停止工作线程 (窗口关闭时调用)
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+}
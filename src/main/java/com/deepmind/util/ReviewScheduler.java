@@ -0,0 +1,295 @@
+package com.deepmind.util;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 间隔重复 (SM-2) 复习调度
+ * 1. 按到期日分桶：TreeMap&lt;到期日, 标题集合&gt;，另有 "标题 -> 到期日" 的反查表，
+ *    加入、移出、记录一次复习都是 O(log n)；"今天到期" 的列表按到期日从早到晚取前几个
+ * 2. 到期数量 (到期日 &lt;= 今天) 随每次修改增减，日期变化时才按桶重新累加一次；
+ *    每天零点后台换一次日，有新到期的笔记就通知监听者 (界面上的到期数不用等别的修改才刷新)
+ * 3. 数据本身保存在 MetadataStore (nextReviewDate 等字段)，启动时从内存里的元数据建桶，不读任何文件；
+ *    笔记重命名 / 删除通过 NoteCatalog 的变化通知同步
+ */
+public class ReviewScheduler {
+
+    /**
+     * 复习时的自评，对应 SM-2 的回答质量 (0~5)
+     */
+    public enum Grade {
+        AGAIN(1), HARD(3), GOOD(4), EASY(5);
+
+        final int quality;
+
+        Grade(int quality) {
+            this.quality = quality;
+        }
+    }
+
+    private static final double MIN_EASE = 1.3;
+
+    private static final ReviewScheduler INSTANCE = new ReviewScheduler();
+
+    public static ReviewScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private final TreeMap<Long, Set<String>> buckets = new TreeMap<>(); // 到期日 (epochDay) -> 标题
+    private final Map<String, Long> dueDays = new HashMap<>();
+    private long today = LocalDate.now().toEpochDay();
+    private int dueCount = 0; // 到期日 <= today 的笔记数
+    private boolean opened = false;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService midnight = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "review-day");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ReviewScheduler() {
+    }
+
+    /**
+     * 从元数据建立到期索引 (MetadataStore.open 之后调用)
+     */
+    public void open() {
+        synchronized (this) {
+            if (opened) return;
+            opened = true;
+            NoteCatalog catalog = NoteCatalog.getInstance();
+            MetadataStore.getInstance().forEach((title, meta) -> {
+                Long day = parseDay(meta.nextReviewDate);
+                if (day != null && catalog.contains(title)) index(title, day);
+            });
+        }
+        // 重命名 = 旧标题 REMOVED + 新标题 ADDED，元数据此时已经跟着改名
+        NoteCatalog.getInstance().addListener(changes -> {
+            boolean changed = false;
+            synchronized (this) {
+                for (NoteCatalog.Change change : changes) {
+                    switch (change.type()) {
+                        case REMOVED -> changed |= unindex(change.title());
+                        case ADDED -> {
+                            Long day = parseDay(MetadataStore.getInstance().get(change.title()).nextReviewDate);
+                            if (day != null) changed |= index(change.title(), day);
+                        }
+                        case MODIFIED -> { }
+                    }
+                }
+            }
+            if (changed) fire();
+        });
+        scheduleMidnight();
+    }
+
+    /**
+     * 今天 (含以前) 到期的笔记数
+     */
+    public int dueCount() {
+        boolean rolled;
+        int count;
+        synchronized (this) {
+            rolled = rollDay();
+            count = dueCount;
+        }
+        if (rolled) fire();
+        return count;
+    }
+
+    /**
+     * 今天 (含以前) 到期的笔记，最早到期的在前
+     */
+    public List<String> dueTitles(int limit) {
+        boolean rolled;
+        List<String> result;
+        synchronized (this) {
+            rolled = rollDay();
+            result = new ArrayList<>(Math.min(limit, dueCount));
+            collect:
+            for (Set<String> bucket : buckets.headMap(today, true).values()) {
+                for (String title : bucket) {
+                    if (result.size() >= limit) break collect;
+                    result.add(title);
+                }
+            }
+        }
+        if (rolled) fire();
+        return result;
+    }
+
+    public synchronized boolean isScheduled(String title) {
+        return dueDays.containsKey(title);
+    }
+
+    /**
+     * 下次复习日期，没加入复习计划返回 null
+     */
+    public synchronized LocalDate nextReview(String title) {
+        Long day = dueDays.get(title);
+        return day == null ? null : LocalDate.ofEpochDay(day);
+    }
+
+    /**
+     * 加入复习计划 (今天就到期)；已经在计划里的不变
+     */
+    public void schedule(String title) {
+        boolean changed;
+        synchronized (this) {
+            changed = rollDay();
+            if (!dueDays.containsKey(title)) {
+                String date = LocalDate.ofEpochDay(today).toString();
+                MetadataStore.getInstance().update(title, meta -> meta.nextReviewDate = date);
+                index(title, today);
+                changed = true;
+            }
+        }
+        if (changed) fire();
+    }
+
+    /**
+     * 移出复习计划 (保留复习次数，重新加入时从头开始排)
+     */
+    public void unschedule(String title) {
+        synchronized (this) {
+            if (!unindex(title)) return;
+            MetadataStore.getInstance().update(title, meta -> {
+                meta.nextReviewDate = null;
+                meta.repetitions = 0;
+                meta.intervalDays = 0;
+            });
+        }
+        fire();
+    }
+
+    /**
+     * 记录一次复习，按 SM-2 计算下次复习日期
+     * @return 下次复习日期
+     */
+    public LocalDate record(String title, Grade grade) {
+        LocalDate next;
+        synchronized (this) {
+            rollDay();
+            LocalDate now = LocalDate.ofEpochDay(today);
+            int q = grade.quality;
+            NoteMetadata meta = MetadataStore.getInstance().update(title, m -> {
+                if (q < 3) {
+                    // 没记住：从头开始，明天再看
+                    m.repetitions = 0;
+                    m.intervalDays = 1;
+                } else {
+                    m.repetitions++;
+                    if (m.repetitions == 1) m.intervalDays = 1;
+                    else if (m.repetitions == 2) m.intervalDays = 6;
+                    else m.intervalDays = (int) Math.round(m.intervalDays * m.easeFactor);
+                }
+                m.easeFactor = Math.max(MIN_EASE, m.easeFactor + 0.1 - (5 - q) * (0.08 + (5 - q) * 0.02));
+                m.reviewCount++;
+                m.lastReviewDate = now.toString();
+                m.nextReviewDate = now.plusDays(m.intervalDays).toString();
+            });
+            next = now.plusDays(meta.intervalDays);
+            index(title, next.toEpochDay());
+        }
+        fire();
+        return next;
+    }
+
+    /**
+     * 到期数量或列表变化时回调 (可能在非 UI 线程)
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    // 放进对应的桶；已有的先移出
+    private boolean index(String title, long day) {
+        Long old = dueDays.put(title, day);
+        if (old != null) {
+            if (old == day) return false;
+            removeFromBucket(title, old);
+        }
+        buckets.computeIfAbsent(day, d -> new TreeSet<>()).add(title);
+        if (day <= today) dueCount++;
+        return true;
+    }
+
+    private boolean unindex(String title) {
+        Long old = dueDays.remove(title);
+        if (old == null) return false;
+        removeFromBucket(title, old);
+        return true;
+    }
+
+    private void removeFromBucket(String title, long day) {
+        Set<String> bucket = buckets.get(day);
+        if (bucket == null) return;
+        bucket.remove(title);
+        if (bucket.isEmpty()) buckets.remove(day);
+        if (day <= today) dueCount--;
+    }
+
+    // 过了零点：重新累加到期数量
+    /**
+     * 日期变了就重新累加到期数量
+     * @return 到期数量是否变了 (调用方在锁外 fire)
+     */
+    private boolean rollDay() {
+        long now = LocalDate.now().toEpochDay();
+        if (now == today) return false;
+        today = now;
+        int before = dueCount;
+        dueCount = 0;
+        for (Set<String> bucket : buckets.headMap(today, true).values()) dueCount += bucket.size();
+        return dueCount != before;
+    }
+
+    // 零点过后换日；没人查询到期数时界面也能按时刷新
+    private void scheduleMidnight() {
+        LocalDateTime now = LocalDateTime.now();
+        long delay = Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay()).toMillis() + 1000;
+        midnight.schedule(() -> {
+            boolean rolled;
+            synchronized (this) {
+                rolled = rollDay();
+            }
+            if (rolled) fire();
+            scheduleMidnight();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static Long parseDay(String date) {
+        if (date == null || date.isBlank()) return null;
+        try {
+            return LocalDate.parse(date.trim()).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void fire() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
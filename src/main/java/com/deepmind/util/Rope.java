@@ -0,0 +1,377 @@
+package com.deepmind.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不可变的绳索 (rope) 文本
+ * 1. 正文切成不超过 LEAF_SIZE 的块挂在叶子上，内部节点记录子树长度，整棵树按 AVL 规则保持平衡
+ * 2. replace / substring / charAt 都沿树走一条路径，O(log n)，不复制整篇正文
+ * 3. 每次修改返回新的 Rope，没改到的子树直接共用；旧版本不受影响，
+ *    可以把某个版本交给后台线程慢慢读 (例如预览渲染)，不用加锁
+ * 4. 每个节点同时记录子树里的换行符个数，行号 <-> 位置的换算也是沿树走一条路径 (lineOf / lineStart)，
+ *    这份行索引随每次修改自动更新，不需要另外维护行首数组
+ */
+public final class Rope implements CharSequence {
+
+    private static final int LEAF_SIZE = 1024;
+
+    public static final Rope EMPTY = new Rope(null);
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+        final int newlines; // 子树里 '\n' 的个数
+
+        Node(int length, int height, int newlines) {
+            this.length = length;
+            this.height = height;
+            this.newlines = newlines;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0, countNewlines(text, 0, text.length()));
+            this.text = text;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1, left.newlines + right.newlines);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * 按顺序接收一段段文本 (substring / indexOf 等按块处理，不拼出全文)
+     */
+    public interface ChunkVisitor {
+        /**
+         * @param chunk  一块文本
+         * @param offset 这块在全文中的起始位置
+         * @return false 表示提前结束
+         */
+        boolean visit(String chunk, int offset);
+    }
+
+    private final Node root;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope of(CharSequence text) {
+        if (text == null || text.isEmpty()) return EMPTY;
+        return new Rope(build(text.toString()));
+    }
+
+    @Override
+    public int length() {
+        return root == null ? 0 : root.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        Node node = root;
+        while (node instanceof Branch branch) {
+            if (index < branch.left.length) {
+                node = branch.left;
+            } else {
+                index -= branch.left.length;
+                node = branch.right;
+            }
+        }
+        return ((Leaf) node).text.charAt(index);
+    }
+
+    // ---------------------------------------------------------------- 行
+
+    /**
+     * 行数 (换行符个数 + 1，空文本也算一行)
+     */
+    public int lineCount() {
+        return root == null ? 1 : root.newlines + 1;
+    }
+
+    /**
+     * offset 所在的行号 (从 0 开始)，即 [0, offset) 里的换行符个数
+     */
+    public int lineOf(int offset) {
+        if (offset < 0 || offset > length()) throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+        if (root == null) return 0;
+        int line = 0;
+        Node node = root;
+        while (node instanceof Branch branch) {
+            if (offset < branch.left.length) {
+                node = branch.left;
+            } else {
+                line += branch.left.newlines;
+                offset -= branch.left.length;
+                node = branch.right;
+            }
+        }
+        return line + countNewlines(((Leaf) node).text, 0, offset);
+    }
+
+    /**
+     * 第 line 行 (从 0 开始) 的起始位置，即第 line 个换行符之后的位置
+     */
+    public int lineStart(int line) {
+        if (line < 0 || line >= lineCount()) throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount());
+        if (line == 0) return 0;
+        int base = 0;
+        Node node = root;
+        while (node instanceof Branch branch) {
+            if (line <= branch.left.newlines) {
+                node = branch.left;
+            } else {
+                line -= branch.left.newlines;
+                base += branch.left.length;
+                node = branch.right;
+            }
+        }
+        String text = ((Leaf) node).text;
+        int i = -1;
+        for (int n = 0; n < line; n++) i = text.indexOf('\n', i + 1);
+        return base + i + 1;
+    }
+
+    /**
+     * 把 [start, end) 换成 text，返回新的 Rope
+     */
+    public Rope replace(int start, int end, CharSequence text) {
+        checkRange(start, end);
+        Node[] head = split(root, start);
+        Node[] tail = split(head[1], end - start);
+        Node inserted = text == null || text.isEmpty() ? null : build(text.toString());
+        return new Rope(join(join(head[0], inserted), tail[1]));
+    }
+
+    public Rope insert(int index, CharSequence text) {
+        return replace(index, index, text);
+    }
+
+    public Rope delete(int start, int end) {
+        return replace(start, end, "");
+    }
+
+    /**
+     * [start, end) 的文本 (只复制这一段)
+     */
+    public String substring(int start, int end) {
+        checkRange(start, end);
+        if (start == end) return "";
+        StringBuilder sb = new StringBuilder(end - start);
+        forEachChunk(start, end, (chunk, offset) -> {
+            sb.append(chunk);
+            return true;
+        });
+        return sb.toString();
+    }
+
+    /**
+     * 子序列直接返回 String (只复制这一段)，正则等按字符读取时不用每次从根走到叶子
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * 依次访问 [start, end) 的各块文本
+     */
+    public void forEachChunk(int start, int end, ChunkVisitor visitor) {
+        checkRange(start, end);
+        if (start < end) visit(root, 0, start, end, visitor);
+    }
+
+    /**
+     * query 从 from 起第一次出现的位置，没有返回 -1 (按块查找，块边界处保留 query 长度 - 1 个字符的重叠)
+     */
+    public int indexOf(String query, int from) {
+        int length = length();
+        from = Math.max(0, from);
+        if (query.isEmpty()) return from <= length ? from : -1;
+        if (from >= length) return -1;
+        int[] found = {-1};
+        StringBuilder window = new StringBuilder();
+        int[] windowStart = {from};
+        forEachChunk(from, length, (chunk, offset) -> {
+            window.append(chunk);
+            int i = window.indexOf(query);
+            if (i >= 0) {
+                found[0] = windowStart[0] + i;
+                return false;
+            }
+            int keep = Math.min(window.length(), query.length() - 1);
+            window.delete(0, window.length() - keep);
+            windowStart[0] = offset + chunk.length() - keep;
+            return true;
+        });
+        return found[0];
+    }
+
+    public boolean startsWith(String prefix) {
+        return prefix.length() <= length() && substring(0, prefix.length()).equals(prefix);
+    }
+
+    /**
+     * 内容是否与 text 相同 (逐块比较)
+     */
+    public boolean contentEquals(CharSequence text) {
+        if (text.length() != length()) return false;
+        boolean[] equal = {true};
+        forEachChunk(0, length(), (chunk, offset) -> {
+            for (int i = 0; i < chunk.length(); i++) {
+                if (chunk.charAt(i) != text.charAt(offset + i)) {
+                    equal[0] = false;
+                    return false;
+                }
+            }
+            return true;
+        });
+        return equal[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * 拼出全文 (保存、导出时用)
+     */
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    /**
+     * 整棵树是否满足 AVL 平衡，各节点记的长度、高度、换行数是否和子树一致 (单元测试用)
+     */
+    boolean isBalanced() {
+        return root == null || checkNode(root) >= 0;
+    }
+
+    // 返回子树高度，不满足时返回 -1
+    private static int checkNode(Node node) {
+        if (node instanceof Leaf leaf) {
+            return leaf.length > 0 && leaf.height == 0 ? 0 : -1;
+        }
+        Branch branch = (Branch) node;
+        int left = checkNode(branch.left);
+        int right = checkNode(branch.right);
+        if (left < 0 || right < 0 || Math.abs(left - right) > 1) return -1;
+        if (branch.height != Math.max(left, right) + 1
+                || branch.length != branch.left.length + branch.right.length
+                || branch.newlines != branch.left.newlines + branch.right.newlines) {
+            return -1;
+        }
+        return branch.height;
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length());
+        }
+    }
+
+    // 访问 node 子树 (在全文中从 base 开始) 与 [start, end) 重叠的部分；返回 false 表示提前结束
+    private static boolean visit(Node node, int base, int start, int end, ChunkVisitor visitor) {
+        if (node instanceof Leaf leaf) {
+            int from = Math.max(start - base, 0);
+            int to = Math.min(end - base, leaf.length);
+            return visitor.visit(from == 0 && to == leaf.length ? leaf.text : leaf.text.substring(from, to), base + from);
+        }
+        Branch branch = (Branch) node;
+        int mid = base + branch.left.length;
+        if (start < mid && !visit(branch.left, base, start, end, visitor)) return false;
+        return end <= mid || visit(branch.right, mid, start, end, visitor);
+    }
+
+    private static int countNewlines(String text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    // 切成不超过 LEAF_SIZE 的块，再按区间对半递归建树：两半的叶子数最多差一，高度最多差一，满足 AVL
+    // (逐层两两配对时落单的节点直接升上去，会出现高度差 2 的分支，join / balance 依赖的前提就不成立了)
+    private static Node build(String text) {
+        List<Node> leaves = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += LEAF_SIZE) {
+            leaves.add(new Leaf(text.substring(i, Math.min(text.length(), i + LEAF_SIZE))));
+        }
+        return leaves.isEmpty() ? null : build(leaves, 0, leaves.size());
+    }
+
+    private static Node build(List<Node> leaves, int from, int to) {
+        if (to - from == 1) return leaves.get(from);
+        int mid = (from + to) >>> 1;
+        return new Branch(build(leaves, from, mid), build(leaves, mid, to));
+    }
+
+    // 在 pos 处切开：[0, pos) 和 [pos, length)，空的一边为 null
+    private static Node[] split(Node node, int pos) {
+        if (node == null) return new Node[]{null, null};
+        if (pos <= 0) return new Node[]{null, node};
+        if (pos >= node.length) return new Node[]{node, null};
+        if (node instanceof Leaf leaf) {
+            return new Node[]{new Leaf(leaf.text.substring(0, pos)), new Leaf(leaf.text.substring(pos))};
+        }
+        Branch branch = (Branch) node;
+        if (pos < branch.left.length) {
+            Node[] parts = split(branch.left, pos);
+            return new Node[]{parts[0], join(parts[1], branch.right)};
+        }
+        Node[] parts = split(branch.right, pos - branch.left.length);
+        return new Node[]{join(branch.left, parts[0]), parts[1]};
+    }
+
+    // 顺序拼接两棵树 (AVL join)：较矮的一棵沿较高一棵的边缘挂下去，回溯时旋转
+    private static Node join(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a instanceof Leaf x && b instanceof Leaf y && x.length + y.length <= LEAF_SIZE) {
+            return new Leaf(x.text + y.text); // 小块合并，避免反复编辑后叶子越切越碎
+        }
+        if (a.height > b.height + 1) {
+            Branch branch = (Branch) a;
+            return balance(branch.left, join(branch.right, b));
+        }
+        if (b.height > a.height + 1) {
+            Branch branch = (Branch) b;
+            return balance(join(a, branch.left), branch.right);
+        }
+        return new Branch(a, b);
+    }
+
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            Branch l = (Branch) left;
+            if (l.left.height >= l.right.height) return new Branch(l.left, new Branch(l.right, right));
+            Branch lr = (Branch) l.right;
+            return new Branch(new Branch(l.left, lr.left), new Branch(lr.right, right));
+        }
+        if (right.height > left.height + 1) {
+            Branch r = (Branch) right;
+            if (r.right.height >= r.left.height) return new Branch(new Branch(left, r.left), r.right);
+            Branch rl = (Branch) r.left;
+            return new Branch(new Branch(left, rl.left), new Branch(rl.right, r.right));
+        }
+        return new Branch(left, right);
+    }
+}
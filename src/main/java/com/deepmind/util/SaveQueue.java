@@ -0,0 +1,213 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 后台保存队列
+ * 1. 保存请求只记下 "标题 -> 最新内容"，真正的写盘在单独的后台线程里进行，UI 线程不再等磁盘
+ * 2. 同一篇笔记在写盘前被多次保存时合并成一次，只写最后的内容
+ * 3. 写盘前算内容的 SHA-256 摘要，和上次写入 (或载入) 时一样就直接跳过 (CRC32 会碰撞，碰上就丢了一次保存)
+ * 4. 写入走 FileUtil.save：先写临时文件再原子替换，中途失败不会留下写了一半的笔记
+ * 重命名也排进同一个线程，保证和之前排队的写入按顺序执行。
+ */
+public class SaveQueue {
+
+    public enum Status { PENDING, SAVED, FAILED }
+
+    /**
+     * 一次状态变化
+     * @param message 失败原因，其他情况为 null
+     */
+    public record StatusEvent(String title, Status status, String message) {}
+
+    private static final SaveQueue INSTANCE = new SaveQueue();
+
+    public static SaveQueue getInstance() {
+        return INSTANCE;
+    }
+
+    private volatile Thread workerThread;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "save-queue");
+        thread.setDaemon(true);
+        workerThread = thread;
+        return thread;
+    });
+
+    // 还没写盘的最新内容；同一标题只保留一份
+    private final Map<String, String> pending = new HashMap<>();
+    // 正在写盘的 "标题 -> 内容" (受 pending 的锁保护)：写完之前别人还得能看到这份内容，否则切回来会读到磁盘上的旧文
+    private final Map<String, String> inFlight = new HashMap<>();
+    // 最近一次写入 / 载入的内容摘要 (只在后台线程访问)
+    private final Map<String, byte[]> savedChecksums = new HashMap<>();
+
+    private final List<Consumer<StatusEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    private SaveQueue() {
+        // 文件在外部被改过：记下的校验值不再代表磁盘内容
+        NoteCatalog.getInstance().addListener(changes -> changes.stream()
+                .filter(NoteCatalog.Change::external)
+                .forEach(change -> worker.execute(() -> savedChecksums.remove(change.title()))));
+    }
+
+    /**
+     * 排队保存 (立即返回)
+     */
+    public void submit(String title, String content) {
+        boolean scheduled;
+        synchronized (pending) {
+            scheduled = pending.put(title, content) != null;
+        }
+        fire(new StatusEvent(title, Status.PENDING, null));
+        if (!scheduled) worker.execute(() -> write(title));
+    }
+
+    /**
+     * 笔记刚从磁盘载入：记下内容校验值，没改动的保存可以直接跳过
+     * 这篇还有排队或正在写的内容时不记：读到的磁盘内容已经过时，记下来会让后面真正的修改被当成没改动跳过
+     */
+    public void loaded(String title, String content) {
+        synchronized (pending) {
+            if (pending.containsKey(title) || inFlight.containsKey(title)) return;
+        }
+        worker.execute(() -> savedChecksums.put(title, checksum(content)));
+    }
+
+    /**
+     * 排队重命名，排在此前所有写入之后执行；还没写盘的内容跟着换成新标题，其他笔记里指向它的链接一起改写
+     */
+    public void rename(String oldTitle, String newTitle) {
+        worker.execute(() -> {
+            String content;
+            synchronized (pending) {
+                content = pending.get(oldTitle);
+            }
+            if (content != null) write(oldTitle); // 先把旧标题下的内容落盘，再整体改名
+            try {
+                RenameRefactoring.getInstance().run(Map.of(oldTitle, newTitle), null);
+                byte[] checksum = savedChecksums.remove(oldTitle);
+                if (checksum != null) savedChecksums.put(newTitle, checksum);
+            } catch (IOException e) {
+                System.err.println("重命名失败 " + oldTitle + " -> " + newTitle + ": " + e.getMessage());
+                fire(new StatusEvent(oldTitle, Status.FAILED, "重命名失败: " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * 还没写盘 (或正在写盘) 的内容 (切回一篇刚保存的笔记时应以它为准，而不是磁盘上的旧内容)，没有返回 null
+     */
+    public String pendingContent(String title) {
+        synchronized (pending) {
+            String content = pending.get(title);
+            return content != null ? content : inFlight.get(title);
+        }
+    }
+
+    /**
+     * 取走某篇笔记还没写盘的内容 (删除、重命名之前调用)，没有返回 null
+     * 正好在写这一篇时等它写完，只等这一篇，不等整条队列；取走之后队列不会再把它写回旧标题
+     */
+    public String take(String title) {
+        synchronized (pending) {
+            while (inFlight.containsKey(title)) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return pending.remove(title);
+        }
+    }
+
+    /**
+     * 等待队列里的写入全部完成 (程序退出、批量重命名读取正文之前调用)
+     * 在保存线程自己身上调用时直接返回 true (之前排的写入还没执行，需要最新正文的调用方自己 take)
+     * @return 是否在时限内全部写完
+     */
+    public boolean flush(long timeoutMs) {
+        if (isWorkerThread()) return true;
+        var done = worker.submit(() -> { });
+        try {
+            done.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            System.err.println("等待保存完成超时: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 当前线程是否就是保存线程 (在它上面等队列会等到自己)
+     */
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == workerThread;
+    }
+
+    /**
+     * 保存状态变化 (在保存线程或调用 submit 的线程上回调)
+     */
+    public void addListener(Consumer<StatusEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<StatusEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    private void write(String title) {
+        String content;
+        synchronized (pending) {
+            content = pending.remove(title);
+            if (content == null) return; // 已经被前面的任务一起写掉了 (或者被 take 取走了)
+            inFlight.put(title, content);
+        }
+        try {
+            byte[] checksum = checksum(content);
+            byte[] previous = savedChecksums.get(title);
+            if (Arrays.equals(previous, checksum) && NoteCatalog.getInstance().contains(title)) {
+                fire(new StatusEvent(title, Status.SAVED, null));
+                return;
+            }
+            FileUtil.save(title, content);
+            savedChecksums.put(title, checksum);
+            fire(new StatusEvent(title, Status.SAVED, null));
+        } catch (IOException e) {
+            System.err.println("保存笔记失败 " + title + ": " + e.getMessage());
+            fire(new StatusEvent(title, Status.FAILED, e.getMessage()));
+        } finally {
+            synchronized (pending) {
+                inFlight.remove(title);
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private static byte[] checksum(String content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 每个 JDK 都带 SHA-256
+        }
+    }
+
+    private void fire(StatusEvent event) {
+        for (Consumer<StatusEvent> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+}
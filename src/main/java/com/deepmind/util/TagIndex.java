@@ -0,0 +1,304 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 标签索引
+ * 1. 保存时从正文提取标签：行内的 #标签 (代码块、行内代码里的不算) 和 front matter 里的 tags: 列表，
+ *    结果写进 NoteMetadata.tags (标签 -> 来源)
+ * 2. 每篇笔记 (不论有没有标签) 分配一个紧凑的整数编号 (删除后复用)，每个标签的倒排表是编号上的 CompressedBitmap
+ * 3. 侧边栏的标签筛选直接做位图运算：#a #b 同时有，#a | #b 任一，-#a 排除
+ * 启动时从内存里的元数据建立；第一次启用时在后台把已有笔记提取一遍。
+ */
+public class TagIndex {
+
+    private static final String BACKFILL_MARKER = ".meta/tags-extracted";
+    private static final String SOURCE_INLINE = "inline";
+    private static final String SOURCE_FRONT_MATTER = "front-matter";
+
+    // 前面不能是字母数字、#、/、& 等 (排除标题、网址锚点、HTML 实体、链接里的 (#anchor))
+    private static final Pattern INLINE_TAG =
+            Pattern.compile("(?<![\\p{L}\\p{N}_#/&(\\\\])#([\\p{L}\\p{N}_][\\p{L}\\p{N}_/\\-]*)");
+    private static final Pattern INLINE_CODE = Pattern.compile("`[^`]*`");
+    private static final Pattern FRONT_MATTER_TAGS = Pattern.compile("^tags\\s*:\\s*(.*)$");
+
+    private static final TagIndex INSTANCE = new TagIndex();
+
+    public static TagIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<String, Integer> ids = new HashMap<>();      // 标题 -> 编号
+    private final List<String> titles = new ArrayList<>();         // 编号 -> 标题，空位为 null
+    private final List<Set<String>> noteTags = new ArrayList<>();  // 编号 -> 标签
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final Map<String, CompressedBitmap> postings = new HashMap<>();
+    private final CompressedBitmap live = new CompressedBitmap(); // 全部笔记
+    private boolean opened = false;
+
+    private TagIndex() {
+    }
+
+    /**
+     * 从元数据建立索引，并开始跟随正文变化 (须在 NoteIndex.open 之前调用，才能收到启动对账时的更新)
+     */
+    public void open() {
+        synchronized (this) {
+            if (opened) return;
+            opened = true;
+            NoteCatalog catalog = NoteCatalog.getInstance();
+            for (String title : catalog.titles()) idOf(title);
+            MetadataStore.getInstance().forEach((title, meta) -> {
+                if (meta.tags != null && !meta.tags.isEmpty() && catalog.contains(title)) {
+                    index(title, new HashSet<>(meta.tags.keySet()));
+                }
+            });
+        }
+        NoteIndex.getInstance().addContentListener(this::update);
+        // 重命名 = 旧标题 REMOVED + 新标题 ADDED，元数据此时已经跟着改名
+        NoteCatalog.getInstance().addListener(changes -> {
+            synchronized (this) {
+                for (NoteCatalog.Change change : changes) {
+                    switch (change.type()) {
+                        case REMOVED -> unindex(change.title());
+                        case ADDED -> {
+                            Map<String, String> tags = MetadataStore.getInstance().get(change.title()).tags;
+                            index(change.title(), tags == null ? Set.of() : new HashSet<>(tags.keySet()));
+                        }
+                        case MODIFIED -> { }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 笔记正文变化：重新提取标签，有变化时写回元数据
+     */
+    public void update(String title, String content) {
+        Map<String, String> tags = extract(content);
+        MetadataStore store = MetadataStore.getInstance();
+        Map<String, String> old = store.get(title).tags;
+        if (!(old == null ? Map.of() : old).equals(tags)) {
+            // 只改 tags 字段 (在存储的锁内)，不覆盖同时写入的出链、复习字段
+            store.update(title, meta -> meta.tags = new HashMap<>(tags));
+        }
+        synchronized (this) {
+            if (NoteCatalog.getInstance().contains(title)) index(title, new HashSet<>(tags.keySet()));
+        }
+    }
+
+    /**
+     * 某篇笔记的标签 (已排序)
+     */
+    public synchronized List<String> tagsOf(String title) {
+        Integer id = ids.get(title);
+        if (id == null) return List.of();
+        List<String> result = new ArrayList<>(noteTags.get(id));
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * 全部标签及使用次数 (按标签排序)
+     */
+    public synchronized Map<String, Integer> tagCounts() {
+        Map<String, Integer> result = new TreeMap<>();
+        postings.forEach((tag, bitmap) -> result.put(tag, bitmap.cardinality()));
+        return result;
+    }
+
+    /**
+     * 输入是否是标签筛选 (每一项都是 #标签、-#标签 或 |)
+     */
+    public static boolean isTagQuery(String query) {
+        String[] tokens = query.trim().split("\\s+");
+        boolean hasTag = false;
+        for (String token : tokens) {
+            if (token.equals("|") || token.equalsIgnoreCase("OR")) continue;
+            String tag = token.startsWith("-") ? token.substring(1) : token;
+            if (tag.length() < 2 || tag.charAt(0) != '#') return false;
+            hasTag = true;
+        }
+        return hasTag;
+    }
+
+    /**
+     * 标签筛选：空格分隔的项同时满足，| 分隔的组满足任一组，-#标签 排除
+     * 例如 "#java #并发 | #go -#草稿" = (java 且 并发) 或 (go 且不是 草稿)
+     * @return 符合条件的笔记标题 (按字典序)
+     */
+    public synchronized List<String> query(String query) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (String group : query.trim().split("\\s*(?:\\||\\s(?i:OR)\\s)\\s*")) {
+            CompressedBitmap acc = null;
+            List<CompressedBitmap> excluded = new ArrayList<>();
+            for (String token : group.trim().split("\\s+")) {
+                if (token.isEmpty()) continue;
+                boolean negative = token.startsWith("-");
+                String tag = normalize(token.substring(negative ? 2 : 1));
+                CompressedBitmap posting = postings.getOrDefault(tag, new CompressedBitmap());
+                if (negative) excluded.add(posting);
+                else acc = acc == null ? posting.copy() : CompressedBitmap.and(acc, posting);
+            }
+            if (acc == null) {
+                if (excluded.isEmpty()) continue;
+                acc = live; // 只有排除项：从全部笔记里排除
+            }
+            for (CompressedBitmap posting : excluded) acc = CompressedBitmap.andNot(acc, posting);
+            result = CompressedBitmap.or(result, acc);
+        }
+        List<String> hits = new ArrayList<>(result.cardinality());
+        result.forEach(id -> hits.add(titles.get(id)));
+        hits.sort(null);
+        return hits;
+    }
+
+    /**
+     * 从正文提取标签
+     * @return 标签 (规范化后) -> 来源
+     */
+    public static Map<String, String> extract(String content) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        String[] lines = content.split("\n", -1);
+        int start = 0;
+
+        // front matter：开头的 --- 到下一个 ---
+        if (lines.length > 0 && lines[0].strip().equals("---")) {
+            int end = 1;
+            while (end < lines.length && !lines[end].strip().equals("---")) end++;
+            if (end < lines.length) {
+                for (int i = 1; i < end; i++) {
+                    Matcher m = FRONT_MATTER_TAGS.matcher(lines[i].strip());
+                    if (!m.matches()) continue;
+                    String value = m.group(1).strip();
+                    if (value.isEmpty()) {
+                        // 多行列表：  - a
+                        while (i + 1 < end && lines[i + 1].strip().startsWith("-")) {
+                            addTag(tags, lines[++i].strip().substring(1), SOURCE_FRONT_MATTER);
+                        }
+                    } else {
+                        if (value.startsWith("[") && value.endsWith("]")) value = value.substring(1, value.length() - 1);
+                        for (String item : value.split("[,\\s]+")) addTag(tags, item, SOURCE_FRONT_MATTER);
+                    }
+                }
+                start = end + 1;
+            }
+        }
+
+        String fence = null;
+        for (int i = start; i < lines.length; i++) {
+            String line = lines[i];
+            String stripped = line.stripLeading();
+            if (fence != null) {
+                if (stripped.startsWith(fence)) fence = null;
+                continue;
+            }
+            if (stripped.startsWith("```") || stripped.startsWith("~~~")) {
+                fence = stripped.substring(0, 3);
+                continue;
+            }
+            if (line.indexOf('#') < 0) continue;
+            Matcher m = INLINE_TAG.matcher(INLINE_CODE.matcher(line).replaceAll(""));
+            while (m.find()) {
+                String tag = m.group(1);
+                if (tag.chars().allMatch(Character::isDigit)) continue; // #123 多半是编号
+                if (!tags.containsKey(normalize(tag))) addTag(tags, tag, SOURCE_INLINE);
+            }
+        }
+        return tags;
+    }
+
+    // ---------------------------------------------------------------- 内部
+
+    private static void addTag(Map<String, String> tags, String raw, String source) {
+        String tag = raw.strip();
+        if (tag.length() > 1 && (tag.startsWith("\"") || tag.startsWith("'"))) tag = tag.substring(1, tag.length() - 1);
+        if (tag.startsWith("#")) tag = tag.substring(1);
+        tag = normalize(tag);
+        if (!tag.isEmpty()) tags.putIfAbsent(tag, source);
+    }
+
+    private static String normalize(String tag) {
+        return tag.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private int idOf(String title) {
+        Integer id = ids.get(title);
+        if (id != null) return id;
+        id = freeIds.isEmpty() ? titles.size() : freeIds.poll();
+        if (id == titles.size()) {
+            titles.add(title);
+            noteTags.add(Set.of());
+        } else {
+            titles.set(id, title);
+        }
+        ids.put(title, id);
+        live.add(id);
+        return id;
+    }
+
+    private void index(String title, Set<String> tags) {
+        int id = idOf(title);
+        Set<String> old = noteTags.get(id);
+        if (old.equals(tags)) return;
+        for (String tag : old) {
+            if (tags.contains(tag)) continue;
+            CompressedBitmap posting = postings.get(tag);
+            posting.remove(id);
+            if (posting.isEmpty()) postings.remove(tag);
+        }
+        for (String tag : tags) {
+            if (!old.contains(tag)) postings.computeIfAbsent(tag, t -> new CompressedBitmap()).add(id);
+        }
+        noteTags.set(id, tags);
+    }
+
+    private void unindex(String title) {
+        Integer id = ids.remove(title);
+        if (id == null) return;
+        for (String tag : noteTags.get(id)) {
+            CompressedBitmap posting = postings.get(tag);
+            posting.remove(id);
+            if (posting.isEmpty()) postings.remove(tag);
+        }
+        noteTags.set(id, Set.of());
+        titles.set(id, null);
+        live.remove(id);
+        freeIds.add(id);
+    }
+
+    /**
+     * 是否还没把已有笔记的标签提取过 (第一次启用时由 FileUtil 在后台统一读一遍笔记，逐篇调用 update)
+     */
+    public boolean needsBackfill(Path notesDir) {
+        return !Files.exists(notesDir.resolve(BACKFILL_MARKER));
+    }
+
+    /**
+     * 已有笔记都提取过了，之后启动不再重复
+     */
+    public void markBackfilled(Path notesDir) {
+        Path marker = notesDir.resolve(BACKFILL_MARKER);
+        try {
+            Files.createDirectories(marker.getParent());
+            Files.writeString(marker, "1");
+        } catch (IOException e) {
+            System.err.println("提取标签失败: " + e.getMessage());
+        }
+    }
+}
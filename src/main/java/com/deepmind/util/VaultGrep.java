@@ -0,0 +1,270 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 全库内容搜索 (不依赖全文索引，支持正则)
+ * 每篇笔记交给一个虚拟线程：普通文件存储整篇读入后解码匹配，打包存储按记录读出正文；
+ * 同时读取的文件数受信号量限制。每个文件的匹配有时间上限，防止灾难性回溯的正则卡死整次搜索。
+ * 结果按文件陆续回调 (合并成批交给 UI 线程)，新的查询开始前调用 cancel() 终止旧的搜索。
+ */
+public class VaultGrep {
+
+    /**
+     * 一处命中
+     * @param title    笔记标题
+     * @param line     行号 (从 1 开始)
+     * @param column   列号 (从 1 开始)
+     * @param offset   在全文中的字符位置
+     * @param length   命中的字符数
+     * @param lineText 命中所在行 (过长时截断)
+     */
+    public record Match(String title, int line, int column, int offset, int length, String lineText) {}
+
+    /**
+     * 一个文件的搜索结果
+     * @param timedOut 匹配超时，matches 只包含超时前找到的部分
+     */
+    public record FileResult(String title, List<Match> matches, boolean timedOut) {}
+
+    private static final long FILE_TIMEOUT_MS = 500;
+    private static final int MAX_MATCHES_PER_FILE = 200;
+    private static final int MAX_LINE_TEXT = 160;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore openFiles = new Semaphore(Runtime.getRuntime().availableProcessors() * 2);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    private final Queue<FileResult> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private VaultGrep() {
+    }
+
+    /**
+     * 把用户输入编译成查询
+     * @param regex 是否按正则解释 (否则按字面量)
+     * @throws java.util.regex.PatternSyntaxException 正则语法错误
+     */
+    public static Pattern compile(String query, boolean regex, boolean caseSensitive) {
+        int flags = Pattern.MULTILINE;
+        if (!caseSensitive) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return Pattern.compile(regex ? query : Pattern.quote(query), flags);
+    }
+
+    /**
+     * 开始搜索
+     * @param storage    笔记存储
+     * @param pattern    查询
+     * @param uiExecutor 回调执行器，一般传 Platform::runLater
+     * @param onResults  有命中的文件 (一批)
+     * @param onDone     全部结束：参数为扫描的文件数；取消后不会回调
+     */
+    public static VaultGrep start(NoteStorage storage, Pattern pattern, Executor uiExecutor,
+                                  Consumer<List<FileResult>> onResults, Consumer<Integer> onDone) {
+        VaultGrep grep = new VaultGrep();
+        grep.run(storage, pattern, uiExecutor, onResults, onDone);
+        return grep;
+    }
+
+    /**
+     * 终止搜索，已经排队的结果也不再回调
+     */
+    public void cancel() {
+        cancelled.set(true);
+        executor.shutdownNow();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private void run(NoteStorage storage, Pattern pattern, Executor uiExecutor,
+                     Consumer<List<FileResult>> onResults, Consumer<Integer> onDone) {
+        executor.execute(() -> {
+            List<String> files = new ArrayList<>();
+            try {
+                storage.list().forEach(entry -> files.add(entry.title()));
+            } catch (IOException e) {
+                System.err.println("全库搜索失败: " + e.getMessage());
+            }
+
+            AtomicInteger remaining = new AtomicInteger(files.size());
+            if (files.isEmpty()) {
+                uiExecutor.execute(() -> {
+                    if (!isCancelled()) onDone.accept(0);
+                });
+                return;
+            }
+            for (String title : files) {
+                if (isCancelled()) return;
+                try {
+                    submitFile(storage, title, pattern, uiExecutor, onResults, onDone, remaining, files.size());
+                } catch (RejectedExecutionException e) {
+                    return; // 已取消
+                }
+            }
+        });
+    }
+
+    private void submitFile(NoteStorage storage, String title, Pattern pattern, Executor uiExecutor, Consumer<List<FileResult>> onResults,
+                            Consumer<Integer> onDone, AtomicInteger remaining, int total) {
+        executor.execute(() -> {
+            FileResult result = searchFile(storage, title, pattern);
+            if (result != null && (!result.matches().isEmpty() || result.timedOut())) {
+                ready.add(result);
+                scheduleDrain(uiExecutor, onResults);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                uiExecutor.execute(() -> {
+                    if (isCancelled()) return;
+                    drain(onResults);
+                    onDone.accept(total);
+                });
+            }
+        });
+    }
+
+    // 多个文件的结果合并成一次 UI 回调，避免常见词把 UI 队列塞满
+    private void scheduleDrain(Executor uiExecutor, Consumer<List<FileResult>> onResults) {
+        if (drainScheduled.compareAndSet(false, true)) {
+            uiExecutor.execute(() -> {
+                drainScheduled.set(false);
+                if (!isCancelled()) drain(onResults);
+            });
+        }
+    }
+
+    private void drain(Consumer<List<FileResult>> onResults) {
+        List<FileResult> batch = new ArrayList<>();
+        FileResult result;
+        while ((result = ready.poll()) != null) batch.add(result);
+        if (!batch.isEmpty()) onResults.accept(batch);
+    }
+
+    private FileResult searchFile(NoteStorage storage, String title, Pattern pattern) {
+        if (isCancelled()) return null;
+        try {
+            openFiles.acquire();
+        } catch (InterruptedException e) {
+            return null;
+        }
+        Path file = storage.fileOf(title);
+        if (file == null) {
+            try {
+                String content = storage.read(title);
+                return content.isEmpty() ? null : match(title, CharBuffer.wrap(content), pattern);
+            } catch (IOException e) {
+                if (!isCancelled()) System.err.println("读取失败 " + title + ": " + e.getMessage());
+                return null;
+            } finally {
+                openFiles.release();
+            }
+        }
+        try {
+            // 普通读取：反正要整篇解码到堆上，映射省不了拷贝；映射还会在 Windows 上锁住文件直到 GC，
+            // 搜索之后保存 (原子替换)、删除、重命名这些笔记都会失败
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length == 0) return null;
+            return match(title, CharBuffer.wrap(new String(bytes, StandardCharsets.UTF_8)), pattern); // 非法字节替换成 U+FFFD
+        } catch (IOException e) {
+            if (!isCancelled()) System.err.println("读取失败 " + title + ": " + e.getMessage());
+            return null;
+        } finally {
+            openFiles.release();
+        }
+    }
+
+    private FileResult match(String title, CharBuffer text, Pattern pattern) {
+        List<Match> matches = new ArrayList<>();
+        DeadlineCharSequence guarded = new DeadlineCharSequence(text, System.nanoTime() + FILE_TIMEOUT_MS * 1_000_000L);
+        Matcher matcher = pattern.matcher(guarded);
+
+        int line = 1;
+        int lineStart = 0;
+        int scanned = 0; // 已统计换行的位置
+        try {
+            while (matches.size() < MAX_MATCHES_PER_FILE && matcher.find()) {
+                int start = matcher.start();
+                for (; scanned < start; scanned++) {
+                    if (text.get(scanned) == '\n') {
+                        line++;
+                        lineStart = scanned + 1;
+                    }
+                }
+                int lineEnd = lineStart;
+                while (lineEnd < text.length() && text.get(lineEnd) != '\n') lineEnd++;
+                String lineText = text.subSequence(lineStart, Math.min(lineEnd, lineStart + MAX_LINE_TEXT)).toString().strip();
+
+                matches.add(new Match(title, line, start - lineStart + 1, start, matcher.end() - start, lineText));
+            }
+        } catch (DeadlineExceeded e) {
+            return isCancelled() ? null : new FileResult(title, matches, true);
+        }
+        return new FileResult(title, matches, false);
+    }
+
+    private static final class DeadlineExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceeded() {
+            super(null, null, false, false); // 不需要栈信息
+        }
+    }
+
+    /**
+     * 带截止时间的字符序列：正则引擎每次取字符都会经过 charAt，
+     * 每 4096 次检查一下时间和取消标记，超时就抛异常中断匹配
+     */
+    private final class DeadlineCharSequence implements CharSequence {
+        private final CharBuffer text;
+        private final long deadline;
+        private int calls = 0;
+
+        DeadlineCharSequence(CharBuffer text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++calls & 0xFFF) == 0 && (System.nanoTime() > deadline || isCancelled())) {
+                throw new DeadlineExceeded();
+            }
+            return text.get(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.deepmind.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 笔记目录监听 (外部修改实时同步)
+ * 后台线程用 WatchService 监听 notes/ 和 notes/images，事件先攒起来：安静 QUIET_MS 后 (或最多攒 MAX_BATCH_MS)
+ * 作为一批交给 NoteCatalog.refresh 重新核对，再把真正变化的笔记更新到全文索引。
+ * 这样 git checkout 一次改动几千个文件也只会产生一次目录通知。
+ * 程序自己保存的文件在 NoteCatalog 里大小和修改时间已经是最新的，核对时会被忽略。
+ * 事件溢出 (OVERFLOW) 时无法知道具体哪些文件变了，改为整个目录重新扫描。
+ */
+public class VaultWatcher {
+
+    private static final long QUIET_MS = 250;
+    private static final long MAX_BATCH_MS = 2000;
+
+    private static final VaultWatcher INSTANCE = new VaultWatcher();
+
+    public static VaultWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    private WatchService service;
+    private Path notesDir;
+    private Path imagesDir;
+    private WatchKey imagesKey;
+
+    private final List<Runnable> imageListeners = new CopyOnWriteArrayList<>();
+
+    private VaultWatcher() {
+    }
+
+    /**
+     * 开始监听 (重复调用只启动一次)
+     */
+    public synchronized void start(Path notesDir) {
+        if (service != null) return;
+        this.notesDir = notesDir;
+        this.imagesDir = notesDir.resolve("images");
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            register(notesDir);
+            if (Files.isDirectory(imagesDir)) imagesKey = register(imagesDir);
+        } catch (IOException e) {
+            System.err.println("无法监听笔记目录: " + e.getMessage());
+            service = null;
+            return;
+        }
+        Thread thread = new Thread(this::loop, "vault-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * notes/images 下的图片有变化 (在监听线程上回调)
+     */
+    public void addImageListener(Runnable listener) {
+        imageListeners.add(listener);
+    }
+
+    public void removeImageListener(Runnable listener) {
+        imageListeners.remove(listener);
+    }
+
+    private WatchKey register(Path dir) throws IOException {
+        return dir.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                WatchKey first = service.take();
+                Set<String> titles = new LinkedHashSet<>();
+                boolean[] flags = new boolean[2]; // [0] 溢出，[1] 图片有变化
+                collect(first, titles, flags);
+
+                // 攒批：直到安静一段时间或达到上限
+                long deadline = System.currentTimeMillis() + MAX_BATCH_MS;
+                WatchKey key;
+                while (System.currentTimeMillis() < deadline
+                        && (key = service.poll(QUIET_MS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, titles, flags);
+                }
+                apply(titles, flags[0], flags[1]);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 程序退出
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> titles, boolean[] flags) {
+        boolean images = key == imagesKey;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                flags[0] = true;
+                continue;
+            }
+            Path name = (Path) event.context();
+            if (images) {
+                flags[1] = true;
+                continue;
+            }
+            String fileName = name.toString();
+            if (fileName.endsWith(".md")) {
+                titles.add(fileName.substring(0, fileName.length() - 3));
+            } else if (fileName.equals("images") && imagesKey == null && Files.isDirectory(imagesDir)) {
+                // 第一次插入图片时才创建 images 目录
+                try {
+                    imagesKey = register(imagesDir);
+                } catch (IOException e) {
+                    System.err.println("无法监听图片目录: " + e.getMessage());
+                }
+            }
+        }
+        if (!key.reset() && images) imagesKey = null;
+    }
+
+    private void apply(Set<String> titles, boolean overflow, boolean imagesChanged) {
+        NoteCatalog catalog = NoteCatalog.getInstance();
+        NoteIndex index = NoteIndex.getInstance();
+        if (overflow) {
+            catalog.rescan();
+            index.reconcileAsync();
+        } else if (!titles.isEmpty()) {
+            for (NoteCatalog.Change change : catalog.refresh(titles)) {
+                if (change.type() == NoteCatalog.ChangeType.REMOVED) {
+                    index.remove(change.title());
+                    continue;
+                }
+                try {
+                    index.update(change.title(), Files.readString(notesDir.resolve(change.title() + ".md")));
+                } catch (IOException e) {
+                    System.err.println("读取外部修改失败 " + change.title() + ": " + e.getMessage());
+                }
+            }
+        }
+        if (imagesChanged) imageListeners.forEach(Runnable::run);
+    }
+}
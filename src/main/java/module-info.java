@@ -24,13 +24,15 @@ module com.deepmind {
     requires org.apache.pdfbox;
     requires org.apache.poi.poi;
     requires flexmark.ext.autolink;
+    requires flexmark.ext.wikilink;
+    requires jdk.jsobject; // 预览页面里的 JS 回调 Java (点击 [[双链]])
     requires flexmark.util.misc;
 
 
     //允许 Gson 访问你的 util 包进行数据的序列化和反序列化
     opens com.deepmind.util to com.google.gson;
-    // 3. 允许 JavaFX 反射访问你的控制器（极其重要）
-    opens com.deepmind.controller to javafx.fxml;
+    // 3. 允许 JavaFX 反射访问你的控制器（极其重要）；javafx.base 用于 FXML 给 SourceEditor 设置属性
+    opens com.deepmind.controller to javafx.fxml, javafx.web, javafx.base;
 
     // 4. 导出主程序所在的包
     exports com.deepmind;
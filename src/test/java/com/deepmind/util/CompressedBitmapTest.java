@@ -0,0 +1,95 @@
+package com.deepmind.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * CompressedBitmap 与 TreeSet 对照，稀疏块 (char[]) 和稠密块 (long[]) 的各种组合都要覆盖到
+ */
+class CompressedBitmapTest {
+
+    @Test
+    void setOperationsMatchTreeSet() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> expectedA = new TreeSet<>();
+            TreeSet<Integer> expectedB = new TreeSet<>();
+            CompressedBitmap a = fill(random, expectedA);
+            CompressedBitmap b = fill(random, expectedB);
+
+            TreeSet<Integer> and = new TreeSet<>(expectedA);
+            and.retainAll(expectedB);
+            TreeSet<Integer> or = new TreeSet<>(expectedA);
+            or.addAll(expectedB);
+            TreeSet<Integer> andNot = new TreeSet<>(expectedA);
+            andNot.removeAll(expectedB);
+
+            assertContents(and, CompressedBitmap.and(a, b));
+            assertContents(or, CompressedBitmap.or(a, b));
+            assertContents(andNot, CompressedBitmap.andNot(a, b));
+            // 运算不改动参数
+            assertContents(expectedA, a);
+            assertContents(expectedB, b);
+        }
+    }
+
+    @Test
+    void addAndRemoveAcrossContainerKinds() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // 超过 4096 个元素转成位图块，删到 4096 以下再转回数组块
+        for (int i = 0; i < 6000; i++) {
+            assertTrue(bitmap.add(i * 3));
+            expected.add(i * 3);
+        }
+        assertFalse(bitmap.add(0));
+        assertContents(expected, bitmap);
+        for (int i = 0; i < 6000; i += 2) {
+            assertTrue(bitmap.remove(i * 3));
+            expected.remove(i * 3);
+        }
+        assertFalse(bitmap.remove(0));
+        assertContents(expected, bitmap);
+
+        CompressedBitmap copy = bitmap.copy();
+        copy.add(1);
+        assertFalse(bitmap.contains(1));
+        assertTrue(copy.contains(1));
+
+        for (int value : new ArrayList<>(expected)) bitmap.remove(value);
+        assertTrue(bitmap.isEmpty());
+    }
+
+    // 几个高 16 位不同的块，有的稀疏有的稠密
+    private static CompressedBitmap fill(Random random, TreeSet<Integer> expected) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        int blocks = 1 + random.nextInt(5);
+        for (int block = 0; block < blocks; block++) {
+            int high = random.nextInt(6) << 16;
+            int count = random.nextBoolean() ? random.nextInt(200) : 3000 + random.nextInt(20000);
+            for (int i = 0; i < count; i++) {
+                int value = high | random.nextInt(1 << 16);
+                bitmap.add(value);
+                expected.add(value);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertContents(TreeSet<Integer> expected, CompressedBitmap bitmap) {
+        assertEquals(expected.size(), bitmap.cardinality());
+        assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        List<Integer> actual = new ArrayList<>();
+        bitmap.forEach(actual::add);
+        assertEquals(new ArrayList<>(expected), actual);
+        for (int value : expected) assertTrue(bitmap.contains(value));
+    }
+}
@@ -0,0 +1,107 @@
+package com.deepmind.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 元数据的快照 + 日志恢复
+ */
+class MetadataStoreTest {
+
+    @TempDir
+    Path notesDir;
+
+    @Test
+    void journalIsReplayedOnReopen() {
+        MetadataStore store = open();
+        store.put("a", meta("开心"));
+        store.put("b", meta("平静"));
+        store.update("a", m -> m.reviewCount = 3);
+        store.remove("b");
+        store.flushNow();
+        assertTrue(Files.exists(notesDir.resolve(".meta/journal.jsonl")));
+
+        MetadataStore reopened = open();
+        assertTrue(reopened.contains("a"));
+        assertEquals("开心", reopened.get("a").lastMood);
+        assertEquals(3, reopened.get("a").reviewCount);
+        assertFalse(reopened.contains("b"));
+    }
+
+    @Test
+    void tornLastJournalLineIsDropped() throws IOException {
+        MetadataStore store = open();
+        store.put("a", meta("开心"));
+        store.flushNow();
+        Files.writeString(notesDir.resolve(".meta/journal.jsonl"), "{\"title\":\"b\",\"lastMo",
+                StandardOpenOption.APPEND);
+
+        MetadataStore reopened = open();
+        assertEquals("开心", reopened.get("a").lastMood);
+        assertFalse(reopened.contains("b"));
+        // 不完整的日志在打开时被新快照取代
+        assertFalse(Files.exists(notesDir.resolve(".meta/journal.jsonl")));
+        assertEquals("开心", open().get("a").lastMood);
+    }
+
+    @Test
+    void staleJournalDoesNotOverwriteNewerSnapshot() throws IOException {
+        // 快照已经换成第 2 代 (a 的心情是新的、b 已删除)，删日志之前崩溃，留下第 1 代的日志
+        Path meta = Files.createDirectories(notesDir.resolve(".meta"));
+        Files.writeString(meta.resolve("metadata.json"),
+                "{\"version\":1,\"generation\":2,\"notes\":[{\"title\":\"a\",\"lastMood\":\"新\"}]}");
+        Files.writeString(meta.resolve("journal.jsonl"), """
+                {"generation":1}
+                {"title":"a","lastMood":"旧"}
+                {"title":"b","lastMood":"旧"}
+                """);
+
+        MetadataStore store = open();
+        assertEquals("新", store.get("a").lastMood);
+        assertFalse(store.contains("b"));
+        assertFalse(Files.exists(meta.resolve("journal.jsonl")));
+
+        // 之后的修改写进跟随第 2 代的新日志，重开时照常重放
+        store.put("c", meta("平静"));
+        store.flushNow();
+        MetadataStore reopened = open();
+        assertEquals("新", reopened.get("a").lastMood);
+        assertEquals("平静", reopened.get("c").lastMood);
+    }
+
+    @Test
+    void legacyJournalWithoutGenerationIsReplayed() throws IOException {
+        Path meta = Files.createDirectories(notesDir.resolve(".meta"));
+        Files.writeString(meta.resolve("metadata.json"),
+                "{\"version\":1,\"notes\":[{\"title\":\"a\",\"lastMood\":\"旧\"}]}");
+        Files.writeString(meta.resolve("journal.jsonl"), """
+                {"title":"a","lastMood":"新"}
+                {"title":"b","deleted":true}
+                """);
+
+        MetadataStore store = open();
+        assertEquals("新", store.get("a").lastMood);
+        assertFalse(store.contains("b"));
+    }
+
+    private MetadataStore open() {
+        MetadataStore store = new MetadataStore();
+        store.open(notesDir);
+        return store;
+    }
+
+    private static NoteMetadata meta(String mood) {
+        NoteMetadata meta = new NoteMetadata();
+        meta.lastMood = mood;
+        return meta;
+    }
+}
@@ -0,0 +1,149 @@
+package com.deepmind.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 打包存储的重放：正常重开、写了一半的记录、损坏的记录、压缩中途崩溃
+ */
+class PackedNoteStorageTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenReplaysPutsDeletesAndRenames() throws IOException {
+        PackedNoteStorage storage = PackedNoteStorage.open(dir);
+        storage.write("a", "第一版");
+        storage.write("a", "第二版");
+        storage.write("b", "bbb");
+        storage.write("c", "ccc");
+        storage.delete("b");
+        storage.rename("c", "d");
+
+        PackedNoteStorage reopened = PackedNoteStorage.open(dir);
+        assertEquals(Set.of("a", "d"), titles(reopened));
+        assertEquals("第二版", reopened.read("a"));
+        assertEquals("ccc", reopened.read("d"));
+        assertNull(reopened.stat("b"));
+    }
+
+    @Test
+    void tornTailIsTruncatedAndLaterWritesSurvive() throws IOException {
+        PackedNoteStorage storage = PackedNoteStorage.open(dir);
+        storage.write("a", "aaa");
+        storage.write("b", "bbb");
+        Path segment = dir.resolve("00000001.pack");
+        long size = Files.size(segment);
+        // 崩溃时追加到一半的记录：体长写好了，后面不完整
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 0, 0}, StandardOpenOption.APPEND);
+
+        PackedNoteStorage reopened = PackedNoteStorage.open(dir);
+        assertEquals(size, Files.size(segment));
+        assertEquals("aaa", reopened.read("a"));
+        assertEquals("bbb", reopened.read("b"));
+
+        reopened.write("c", "ccc");
+        PackedNoteStorage again = PackedNoteStorage.open(dir);
+        assertEquals(Set.of("a", "b", "c"), titles(again));
+        assertEquals("ccc", again.read("c"));
+    }
+
+    @Test
+    void recordWithBadCrcStopsReplay() throws IOException {
+        PackedNoteStorage storage = PackedNoteStorage.open(dir);
+        storage.write("a", "aaa");
+        long firstEnd = Files.size(dir.resolve("00000001.pack"));
+        storage.write("b", "bbbbbbbb");
+
+        // 改坏 b 的正文 (最后 4 字节是 CRC，前面是正文)
+        Path segment = dir.resolve("00000001.pack");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 6] ^= 0x55;
+        Files.write(segment, bytes);
+
+        PackedNoteStorage reopened = PackedNoteStorage.open(dir);
+        assertEquals(Set.of("a"), titles(reopened));
+        assertEquals("aaa", reopened.read("a"));
+        assertEquals(firstEnd, Files.size(segment));
+        assertThrows(IOException.class, () -> reopened.read("b"));
+    }
+
+    @Test
+    void compactionKeepsLiveNotes() throws Exception {
+        PackedNoteStorage storage = PackedNoteStorage.open(dir);
+        storage.write("keep", "留下");
+        storage.write("gone", "删掉");
+        storage.delete("gone");
+        String big = "x".repeat(1 << 20);
+        // 反复覆盖同一篇大笔记，失效字节超过 8 MB 后触发后台压缩
+        for (int i = 0; i < 12; i++) storage.write("big", big + i);
+
+        // 压缩的最后一步是删掉旧段之后再删清单
+        Path first = dir.resolve("00000001.pack");
+        Path dropped = dir.resolve("dropped.list");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((Files.exists(first) || Files.exists(dropped)) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertFalse(Files.exists(first), "压缩没有删除旧段");
+        assertFalse(Files.exists(dropped));
+
+        PackedNoteStorage reopened = PackedNoteStorage.open(dir);
+        assertEquals(Set.of("keep", "big"), titles(reopened));
+        assertEquals("留下", reopened.read("keep"));
+        assertEquals(big + 11, reopened.read("big"));
+    }
+
+    @Test
+    void crashWhileDroppingSegmentsDoesNotResurrectDeletedNotes() throws IOException {
+        // 第一次压缩后的状态：段 1 里有 x 的 PUT 和墓碑，段 2 是压缩时复制出的 x (已作废) 和 y
+        PackedNoteStorage storage = PackedNoteStorage.open(dir);
+        storage.write("x", "old");
+        storage.write("y", "keep");
+        storage.delete("x");
+        copySegment(segmentWith("x", "old", "y", "keep"), 2);
+        assertEquals(Set.of("y"), titles(PackedNoteStorage.open(dir)));
+
+        // 第二次压缩：切到段 3，y 复制进段 4，清单记下段 1、2，删掉段 1 之后崩溃
+        copySegment(segmentWith(), 3);
+        copySegment(segmentWith("y", "keep"), 4);
+        Files.writeString(dir.resolve("dropped.list"), "1\n2\n");
+        Files.delete(dir.resolve("00000001.pack"));
+
+        PackedNoteStorage reopened = PackedNoteStorage.open(dir);
+        assertEquals(Set.of("y"), titles(reopened));
+        assertEquals("keep", reopened.read("y"));
+        assertFalse(Files.exists(dir.resolve("00000002.pack")));
+        assertFalse(Files.exists(dir.resolve("dropped.list")));
+    }
+
+    // 在另一个目录里按顺序写入 (标题, 正文) 对，返回生成的段文件
+    private Path segmentWith(String... pairs) throws IOException {
+        Path other = Files.createTempDirectory(dir.getParent(), "segment");
+        PackedNoteStorage storage = PackedNoteStorage.open(other);
+        for (int i = 0; i < pairs.length; i += 2) storage.write(pairs[i], pairs[i + 1]);
+        return other.resolve("00000001.pack");
+    }
+
+    private void copySegment(Path source, int id) throws IOException {
+        Files.copy(source, dir.resolve(String.format("%08d.pack", id)));
+    }
+
+    private static Set<String> titles(PackedNoteStorage storage) {
+        Set<String> titles = new TreeSet<>();
+        for (NoteStorage.Entry entry : storage.list()) titles.add(entry.title());
+        return titles;
+    }
+}
@@ -0,0 +1,118 @@
+package com.deepmind.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rope 与 String 对照：随机替换之后内容、行索引、查找都要和直接操作字符串的结果一致
+ */
+class RopeTest {
+
+    @Test
+    void buildIsBalancedForAnyLeafCount() {
+        // 叶子数为奇数时最容易出错 (落单的叶子直接升层会造成高度差 2)
+        for (int leaves = 1; leaves <= 40; leaves++) {
+            Rope rope = Rope.of("x".repeat(leaves * 1024));
+            assertTrue(rope.isBalanced(), leaves + " 个叶子");
+            assertEquals(leaves * 1024, rope.length());
+        }
+    }
+
+    @Test
+    void randomReplacesMatchString() {
+        Random random = new Random(42);
+        String text = randomText(random, 5000);
+        Rope rope = Rope.of(text);
+        for (int round = 0; round < 2000; round++) {
+            int start = random.nextInt(text.length() + 1);
+            int end = start + random.nextInt(Math.min(text.length() - start, 3000) + 1);
+            // 大多数是打字大小的修改，偶尔粘贴一大段
+            String inserted = randomText(random, random.nextInt(10) == 0 ? random.nextInt(5000) : random.nextInt(8));
+            text = text.substring(0, start) + inserted + text.substring(end);
+            rope = rope.replace(start, end, inserted);
+
+            assertEquals(text.length(), rope.length());
+            assertTrue(rope.isBalanced(), "第 " + round + " 次修改后失去平衡");
+            if (round % 50 == 0) {
+                assertEquals(text, rope.toString());
+                checkLines(text, rope);
+            }
+        }
+        assertEquals(text, rope.toString());
+        checkLines(text, rope);
+    }
+
+    @Test
+    void oldVersionsAreUnaffected() {
+        Rope original = Rope.of("第一行\n第二行\n");
+        Rope changed = original.insert(3, "插入").delete(0, 1);
+        assertEquals("第一行\n第二行\n", original.toString());
+        assertEquals("一行插入\n第二行\n", changed.toString());
+    }
+
+    @Test
+    void indexOfAcrossChunkBoundaries() {
+        // 查询词跨在两个叶子 (1024 个字符一块) 之间
+        String filler = "a".repeat(1020);
+        String text = filler + "needle" + "b".repeat(3000) + "needle" + "c".repeat(2);
+        Rope rope = Rope.of(text);
+        assertEquals(text.indexOf("needle"), rope.indexOf("needle", 0));
+        assertEquals(text.indexOf("needle", 1021), rope.indexOf("needle", 1021));
+        assertEquals(-1, rope.indexOf("needle", text.lastIndexOf("needle") + 1));
+
+        // 修改过的树块的大小不一，逐个位置和 String.indexOf 对照
+        Random random = new Random(7);
+        for (int i = 0; i < 30; i++) {
+            int at = random.nextInt(rope.length());
+            rope = rope.insert(at, "xy");
+            text = text.substring(0, at) + "xy" + text.substring(at);
+        }
+        for (String query : new String[]{"needle", "xy", "ab", "bc", "axy", "c"}) {
+            for (int from = 0; from < text.length(); from += 97) {
+                assertEquals(text.indexOf(query, from), rope.indexOf(query, from), query + " from " + from);
+            }
+        }
+    }
+
+    @Test
+    void emptyRope() {
+        assertEquals(0, Rope.EMPTY.length());
+        assertEquals(1, Rope.EMPTY.lineCount());
+        assertEquals(0, Rope.EMPTY.lineOf(0));
+        assertEquals(0, Rope.EMPTY.lineStart(0));
+        assertEquals("abc", Rope.EMPTY.insert(0, "abc").toString());
+        assertEquals(Rope.EMPTY.length(), Rope.of("abc").delete(0, 3).length());
+    }
+
+    private static void checkLines(String text, Rope rope) {
+        int lines = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        assertEquals(lines, rope.lineCount());
+
+        int line = 0;
+        for (int offset = 0; offset <= text.length(); offset++) {
+            assertEquals(line, rope.lineOf(offset), "lineOf " + offset);
+            if (offset == 0 || text.charAt(offset - 1) == '\n') {
+                assertEquals(offset, rope.lineStart(line), "lineStart " + line);
+            }
+            if (offset < text.length() && text.charAt(offset) == '\n') line++;
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(20);
+            if (kind == 0) sb.append('\n');
+            else if (kind < 4) sb.append((char) ('一' + random.nextInt(100)));
+            else sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}